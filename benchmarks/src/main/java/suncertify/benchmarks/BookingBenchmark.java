@@ -0,0 +1,179 @@
+package suncertify.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import suncertify.db.Data;
+import suncertify.db.RecordNotFoundException;
+import suncertify.db.SecurityException;
+
+/**
+ * Measures the booking path of the server: locking a record, reading it,
+ * updating its owner and unlocking it, by 1, 4 and as many threads as there
+ * are processors, compared with booking by an atomic compare-and-set of the
+ * owner, which takes no record lock. The threads book among a configurable
+ * number of records, so that the cost of contended locks can be measured by
+ * booking among only a few.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BookingBenchmark {
+
+    /**
+     * Number of records the threads book among, or 0 for all of them.
+     */
+    @Param({ "0", "16" })
+    public int hotRecords;
+
+    /**
+     * Book a random record by a single thread.
+     * 
+     * @param database
+     *            the open database.
+     * @return the record number booked.
+     * @throws RecordNotFoundException
+     *             never, all records are valid.
+     * @throws SecurityException
+     *             if a lock expires while booking.
+     */
+    @Benchmark
+    @Threads(1)
+    public long bookOneThread(DatabaseState database)
+            throws RecordNotFoundException, SecurityException {
+        return book(database);
+    }
+
+    /**
+     * Book a random record by each of four threads.
+     * 
+     * @param database
+     *            the open database.
+     * @return the record number booked.
+     * @throws RecordNotFoundException
+     *             never, all records are valid.
+     * @throws SecurityException
+     *             if a lock expires while booking.
+     */
+    @Benchmark
+    @Threads(4)
+    public long bookFourThreads(DatabaseState database)
+            throws RecordNotFoundException, SecurityException {
+        return book(database);
+    }
+
+    /**
+     * Book a random record by each of as many threads as there are
+     * processors.
+     * 
+     * @param database
+     *            the open database.
+     * @return the record number booked.
+     * @throws RecordNotFoundException
+     *             never, all records are valid.
+     * @throws SecurityException
+     *             if a lock expires while booking.
+     */
+    @Benchmark
+    @Threads(Threads.MAX)
+    public long bookMaxThreads(DatabaseState database)
+            throws RecordNotFoundException, SecurityException {
+        return book(database);
+    }
+
+    /**
+     * Book a random record with a compare-and-set of its owner by a single
+     * thread.
+     * 
+     * @param database
+     *            the open database.
+     * @return whether the owner was set.
+     * @throws RecordNotFoundException
+     *             never, all records are valid.
+     */
+    @Benchmark
+    @Threads(1)
+    public boolean compareAndSetOneThread(DatabaseState database)
+            throws RecordNotFoundException {
+        return compareAndSet(database);
+    }
+
+    /**
+     * Book a random record with a compare-and-set of its owner by each of as
+     * many threads as there are processors.
+     * 
+     * @param database
+     *            the open database.
+     * @return whether the owner was set.
+     * @throws RecordNotFoundException
+     *             never, all records are valid.
+     */
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean compareAndSetMaxThreads(DatabaseState database)
+            throws RecordNotFoundException {
+        return compareAndSet(database);
+    }
+
+    /*
+     * Lock, read, update and unlock a random record, alternating its owner so
+     * that every booking changes it.
+     */
+    private long book(DatabaseState database) throws RecordNotFoundException,
+            SecurityException {
+        Data data = database.data;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int range = (this.hotRecords == 0) ? database.records : Math.min(
+                this.hotRecords, database.records);
+        long recNo = random.nextInt(range);
+        long cookie = data.lockRecord(recNo);
+
+        try {
+            String[] fields = data.readRecord(recNo);
+
+            fields[SyntheticDatabase.OWNER_FIELD] = String
+                    .valueOf(10000000 + random.nextInt(90000000));
+            data.updateRecord(recNo, fields, cookie);
+        } finally {
+            data.unlock(recNo, cookie);
+        }
+
+        return recNo;
+    }
+
+    /*
+     * Read a random record and replace its owner with a compare-and-set,
+     * which fails if another thread changed it in between.
+     */
+    private boolean compareAndSet(DatabaseState database)
+            throws RecordNotFoundException {
+        Data data = database.data;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int range = (this.hotRecords == 0) ? database.records : Math.min(
+                this.hotRecords, database.records);
+        long recNo = random.nextInt(range);
+        String owner = data.readRecord(recNo)[SyntheticDatabase.OWNER_FIELD];
+
+        return data.compareAndSetField(recNo, SyntheticDatabase.OWNER_FIELD,
+                owner, String.valueOf(10000000 + random.nextInt(90000000)));
+    }
+
+}
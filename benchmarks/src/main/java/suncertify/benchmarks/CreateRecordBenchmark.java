@@ -0,0 +1,91 @@
+package suncertify.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import suncertify.db.DuplicateKeyException;
+import suncertify.db.RecordNotFoundException;
+import suncertify.db.SecurityException;
+
+/**
+ * Measures creating records in the slots of deleted records. Each operation
+ * deletes a record, unlocks it and creates a new one, which reuses the deleted slot, so
+ * the database never grows. The deleted record is either at the start or at
+ * the end of the database, to measure how the cost of finding a deleted slot
+ * depends on where it is.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CreateRecordBenchmark {
+
+    /**
+     * Where the deleted record is: <code>first</code> or <code>last</code>.
+     */
+    @Param({ "first", "last" })
+    public String deletedSlot;
+
+    private long recNo;
+
+    private Random random;
+
+    /**
+     * Choose the record to delete.
+     * 
+     * @param database
+     *            the open database.
+     */
+    @Setup(Level.Trial)
+    public void prepare(DatabaseState database) {
+        this.recNo = "first".equals(this.deletedSlot) ? 0
+                : database.records - 1;
+        this.random = new Random(this.recNo);
+    }
+
+    /**
+     * Delete a record and create a new one in its slot.
+     * 
+     * @param database
+     *            the open database.
+     * @return the record number of the created record.
+     * @throws RecordNotFoundException
+     *             never, the deleted record is always recreated.
+     * @throws SecurityException
+     *             if the lock expires before the record is deleted.
+     * @throws DuplicateKeyException
+     *             never, duplicate records are accepted.
+     */
+    @Benchmark
+    public long deleteAndCreate(DatabaseState database)
+            throws RecordNotFoundException, SecurityException,
+            DuplicateKeyException {
+        long cookie = database.data.lockRecord(this.recNo);
+
+        database.data.deleteRecord(this.recNo, cookie);
+        database.data.unlock(this.recNo, cookie);
+        this.recNo = database.data.createRecord(SyntheticDatabase
+                .newRecord(this.random));
+
+        return this.recNo;
+    }
+
+}
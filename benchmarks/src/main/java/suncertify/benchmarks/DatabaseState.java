@@ -0,0 +1,68 @@
+package suncertify.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import suncertify.db.Data;
+
+/**
+ * The database, opened on a synthetic database file for the duration of a
+ * benchmark trial, and shared by all the benchmark threads.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+@State(Scope.Benchmark)
+public class DatabaseState {
+
+    /**
+     * Number of records in the database file.
+     */
+    @Param({ "100000" })
+    public int records;
+
+    /**
+     * Whether the records are kept in a columnar record store.
+     */
+    @Param({ "false", "true" })
+    public boolean columnar;
+
+    /**
+     * The open database.
+     */
+    public Data data;
+
+    private File dbFile;
+
+    /**
+     * Generate the database file and open the database on it.
+     * 
+     * @throws IOException
+     *             when the database cannot be created or opened.
+     */
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        this.dbFile = SyntheticDatabase.create(this.records);
+        SyntheticDatabase.configure(this.dbFile, this.columnar);
+
+        this.data = Data.getInstance();
+        this.data.open();
+    }
+
+    /**
+     * Close the database and delete its file.
+     */
+    @TearDown(Level.Trial)
+    public void close() {
+        this.data.close();
+        SyntheticDatabase.delete(this.dbFile);
+    }
+
+}
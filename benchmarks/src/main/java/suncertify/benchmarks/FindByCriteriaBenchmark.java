@@ -0,0 +1,119 @@
+package suncertify.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import suncertify.db.RecordNotFoundException;
+import suncertify.db.RecordVisitor;
+
+/**
+ * Measures searching the database with various criteria: matching every
+ * record, matching on the indexed name and location fields, alone and
+ * together, matching a prefix, and matching on a field that is not indexed.
+ * Searches only finding the matching records are compared with searches also
+ * reading them, one record at a time or in bulk.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FindByCriteriaBenchmark {
+
+    /**
+     * The kind of criteria searched with.
+     */
+    @Param({ "all", "name", "location", "nameAndLocation", "prefix",
+            "unindexed" })
+    public String criteria;
+
+    private String[] search;
+
+    /**
+     * Build the criteria to search with.
+     */
+    @Setup(Level.Trial)
+    public void prepare() {
+        this.search = new String[7];
+
+        if ("name".equals(this.criteria)) {
+            this.search[0] = SyntheticDatabase.NAMES[3];
+        } else if ("location".equals(this.criteria)) {
+            this.search[1] = SyntheticDatabase.CITIES[5];
+        } else if ("nameAndLocation".equals(this.criteria)) {
+            this.search[0] = SyntheticDatabase.NAMES[3];
+            this.search[1] = SyntheticDatabase.CITIES[5];
+        } else if ("prefix".equals(this.criteria)) {
+            this.search[0] = SyntheticDatabase.NAMES[3].substring(0, 3);
+        } else if ("unindexed".equals(this.criteria)) {
+            this.search[3] = "Y";
+        }
+    }
+
+    /**
+     * Find the records matching the criteria.
+     * 
+     * @param database
+     *            the open database.
+     * @return the numbers of the matching records.
+     */
+    @Benchmark
+    public long[] findByCriteria(DatabaseState database) {
+        return database.data.findByCriteria(this.search);
+    }
+
+    /**
+     * Find the records matching the criteria, then read each of them.
+     * 
+     * @param database
+     *            the open database.
+     * @param blackhole
+     *            consumes the records read.
+     * @throws RecordNotFoundException
+     *             when a matching record is deleted.
+     */
+    @Benchmark
+    public void findThenReadEach(DatabaseState database, Blackhole blackhole)
+            throws RecordNotFoundException {
+        for (long recNo : database.data.findByCriteria(this.search)) {
+            blackhole.consume(database.data.readRecord(recNo));
+        }
+    }
+
+    /**
+     * Find and read the records matching the criteria in a single pass.
+     * 
+     * @param database
+     *            the open database.
+     * @param blackhole
+     *            consumes the records read.
+     * @return the number of records read.
+     */
+    @Benchmark
+    public int findAndRead(DatabaseState database, final Blackhole blackhole) {
+        return database.data.findAndRead(this.search, new RecordVisitor() {
+
+            public void visit(long recNo, String[] fields) {
+                blackhole.consume(fields);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,91 @@
+package suncertify.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import suncertify.db.Data;
+
+/**
+ * Measures opening the database: reading the schema and every record of the
+ * database file into memory and building the indexes. Each operation opens
+ * the database and closes it again. The largest databases need a
+ * correspondingly large heap, given with the <code>-jvmArgs</code> option.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class OpenBenchmark {
+
+    /**
+     * Number of records in the database file.
+     */
+    @Param({ "10000", "100000", "1000000", "10000000" })
+    public int records;
+
+    /**
+     * Whether the records are kept in a columnar record store.
+     */
+    @Param({ "false", "true" })
+    public boolean columnar;
+
+    private File dbFile;
+
+    /**
+     * Generate the database file.
+     * 
+     * @throws IOException
+     *             when the file cannot be written.
+     */
+    @Setup(Level.Trial)
+    public void create() throws IOException {
+        this.dbFile = SyntheticDatabase.create(this.records);
+        SyntheticDatabase.configure(this.dbFile, this.columnar);
+    }
+
+    /**
+     * Delete the database file.
+     */
+    @TearDown(Level.Trial)
+    public void delete() {
+        SyntheticDatabase.delete(this.dbFile);
+    }
+
+    /**
+     * Open the database, then close it.
+     * 
+     * @return the database.
+     * @throws IOException
+     *             when the database cannot be opened.
+     */
+    @Benchmark
+    public Data openAndClose() throws IOException {
+        Data data = Data.getInstance();
+
+        data.open();
+        data.close();
+
+        return data;
+    }
+
+}
@@ -0,0 +1,66 @@
+package suncertify.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import suncertify.db.RecordNotFoundException;
+
+/**
+ * Measures reading random records, by one thread and by as many threads as
+ * there are processors.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadRecordBenchmark {
+
+    /**
+     * Read a random record by a single thread.
+     * 
+     * @param database
+     *            the open database.
+     * @return the fields read.
+     * @throws RecordNotFoundException
+     *             never, all records are valid.
+     */
+    @Benchmark
+    @Threads(1)
+    public String[] readRecord(DatabaseState database)
+            throws RecordNotFoundException {
+        return database.data.readRecord(ThreadLocalRandom.current().nextInt(
+                database.records));
+    }
+
+    /**
+     * Read a random record by each of as many threads as there are
+     * processors.
+     * 
+     * @param database
+     *            the open database.
+     * @return the fields read.
+     * @throws RecordNotFoundException
+     *             never, all records are valid.
+     */
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String[] readRecordConcurrently(DatabaseState database)
+            throws RecordNotFoundException {
+        return database.data.readRecord(ThreadLocalRandom.current().nextInt(
+                database.records));
+    }
+
+}
@@ -0,0 +1,167 @@
+package suncertify.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import suncertify.application.Room;
+import suncertify.application.RoomPage;
+
+/**
+ * Measures the cost of sending search results between the server and a
+ * client: serializing and deserializing a list of rooms the way RMI does,
+ * in the default form rooms used to be sent in, as a list of rooms in their
+ * compact form, and as a page of rooms. The number of bytes sent per room in
+ * each form is printed when the benchmark is set up.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RoomSerializationBenchmark {
+
+    /**
+     * The form the rooms are sent in: <code>default</code>,
+     * <code>compact</code> or <code>page</code>.
+     */
+    @Param({ "default", "compact", "page" })
+    public String form;
+
+    /**
+     * Number of rooms in the search results.
+     */
+    @Param({ "1000" })
+    public int rooms;
+
+    private Object results;
+
+    private byte[] serialized;
+
+    /**
+     * Generate the search results and serialize them once, reporting their
+     * size.
+     * 
+     * @throws IOException
+     *             never, the results are serialized in memory.
+     */
+    @Setup(Level.Trial)
+    public void prepare() throws IOException {
+        Random random = new Random(this.rooms);
+        ArrayList<SerializableRoom> defaultRooms =
+            new ArrayList<SerializableRoom>(this.rooms);
+        ArrayList<Room> compactRooms = new ArrayList<Room>(this.rooms);
+        String[] fields;
+        Room room;
+
+        for (int currRoom = 0; currRoom < this.rooms; currRoom++) {
+            fields = SyntheticDatabase.newRecord(random);
+
+            if ((currRoom & 1) == 0) {
+                fields[SyntheticDatabase.OWNER_FIELD] = String
+                        .valueOf(10000000 + random.nextInt(90000000));
+            }
+
+            /*
+             * rooms read from the database never share strings, which
+             * serialization would otherwise only send once.
+             */
+
+            for (int currField = 0; currField < fields.length; currField++) {
+                fields[currField] = new String(fields[currField]);
+            }
+
+            defaultRooms.add(new SerializableRoom(currRoom, fields));
+
+            room = new Room();
+            room.setId(currRoom);
+            room.setHotelName(fields[0]);
+            room.setCity(fields[1]);
+            room.setMaxOccupancy(fields[2]);
+            room.setSmoking(fields[3]);
+            room.setRate(fields[4]);
+            room.setDate(fields[5]);
+            room.setOwner(fields[6]);
+            compactRooms.add(room);
+        }
+
+        if ("default".equals(this.form)) {
+            this.results = defaultRooms;
+        } else if ("compact".equals(this.form)) {
+            this.results = compactRooms;
+        } else {
+            this.results = new RoomPage(compactRooms, RoomPage.FIRST_PAGE,
+                    this.rooms);
+        }
+
+        this.serialized = serialize();
+
+        System.out.println();
+        System.out.println(this.form + ": " + this.serialized.length
+                + " bytes, " + (this.serialized.length / (double) this.rooms)
+                + " bytes per room");
+    }
+
+    /**
+     * Serialize the search results.
+     * 
+     * @return the serialized results.
+     * @throws IOException
+     *             never, the results are serialized in memory.
+     */
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+
+        output.writeObject(this.results);
+        output.close();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserialize the search results.
+     * 
+     * @return the deserialized results.
+     * @throws IOException
+     *             never, the results are deserialized from memory.
+     * @throws ClassNotFoundException
+     *             never, all the classes are present.
+     */
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        ObjectInputStream input = new ObjectInputStream(
+                new ByteArrayInputStream(this.serialized));
+
+        try {
+            return input.readObject();
+        } finally {
+            input.close();
+        }
+    }
+
+}
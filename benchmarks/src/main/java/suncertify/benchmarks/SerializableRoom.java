@@ -0,0 +1,55 @@
+package suncertify.benchmarks;
+
+import java.io.Serializable;
+
+/**
+ * A hotel room with the fields, and the default serialization, that
+ * {@link suncertify.application.Room} had before it was given a compact form,
+ * to measure the compact form against.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+public class SerializableRoom implements Serializable {
+
+    private static final long serialVersionUID = -2759754373439767554L;
+
+    private long id;
+
+    private String hotelName;
+
+    private String city;
+
+    private int maxOccupancy;
+
+    private boolean smoking;
+
+    private String smokingText;
+
+    private String rate;
+
+    private String date;
+
+    private String owner;
+
+    /**
+     * Construct a room from the fields of a record.
+     * 
+     * @param roomId
+     *            the ID of the room.
+     * @param fields
+     *            the fields of the room's record.
+     */
+    public SerializableRoom(long roomId, String[] fields) {
+        this.id = roomId;
+        this.hotelName = fields[0];
+        this.city = fields[1];
+        this.maxOccupancy = Integer.parseInt(fields[2]);
+        this.smoking = "Y".equals(fields[3]);
+        this.smokingText = fields[3];
+        this.rate = fields[4];
+        this.date = fields[5];
+        this.owner = fields[6];
+    }
+
+}
@@ -0,0 +1,199 @@
+package suncertify.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import suncertify.application.URLyBirdConfiguration;
+
+/**
+ * Generates database files in the URLyBird format holding any number of
+ * records, so that the database can be measured at sizes far beyond the
+ * supplied data file. The records are generated deterministically, so that
+ * every run measures the same data: hotel names and cities are drawn from
+ * fixed lists, and every other record is already booked.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+public final class SyntheticDatabase {
+
+    /**
+     * Hotel names the generated records are given.
+     */
+    public static final String[] NAMES = { "Palace", "Castle", "Excelsior",
+            "Grandview", "Bed & Breakfast", "Dew Drop Inn", "Elephant Inn",
+            "Splendide", "Mayfair", "Swanky Hotel" };
+
+    /**
+     * Cities the generated records are located in.
+     */
+    public static final String[] CITIES = { "Smallville", "Whoville",
+            "Pleasantville", "Lendmarch", "Hobbiton", "Bigwig", "Metropolis",
+            "Digitopolis", "EmeraldCity", "Xanadu" };
+
+    /**
+     * Number of the field holding the owner of a booking.
+     */
+    public static final int OWNER_FIELD = 6;
+
+    private static final int MAGIC_COOKIE = 258;
+
+    private static final String[] FIELD_NAMES = { "name", "location", "size",
+            "smoking", "rate", "date", "owner" };
+
+    private static final int[] FIELD_LENGTHS = { 64, 64, 4, 1, 8, 10, 8 };
+
+    private static final Charset FIELD_CHARSET = Charset.forName("US-ASCII");
+
+    private static final long SEED = 0x5EEDL;
+
+    private SyntheticDatabase() {
+        // not instantiable
+    }
+
+    /**
+     * Create a database file holding the specified number of valid records
+     * in a temporary file.
+     * 
+     * @param numRecords
+     *            the number of records to generate.
+     * @return the database file created.
+     * @throws IOException
+     *             when the file cannot be written.
+     */
+    public static File create(int numRecords) throws IOException {
+        File dbFile = File.createTempFile("urlybird-", ".db");
+        DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(dbFile),
+                        1 << 16));
+        Random random = new Random(SEED);
+        int headerLength = 4 + 4 + 2;
+        byte[] fieldBytes;
+
+        dbFile.deleteOnExit();
+
+        for (String fieldName : FIELD_NAMES) {
+            headerLength += 2 + fieldName.length() + 2;
+        }
+
+        try {
+            output.writeInt(MAGIC_COOKIE);
+            output.writeInt(headerLength);
+            output.writeShort(FIELD_NAMES.length);
+
+            for (int currField = 0; currField < FIELD_NAMES.length;
+            currField++) {
+                output.writeShort(FIELD_NAMES[currField].length());
+                output.write(FIELD_NAMES[currField].getBytes(FIELD_CHARSET));
+                output.writeShort(FIELD_LENGTHS[currField]);
+            }
+
+            for (int currRecord = 0; currRecord < numRecords; currRecord++) {
+                String[] fields = record(random, currRecord);
+
+                output.writeShort(0); // valid record
+
+                for (int currField = 0; currField < fields.length;
+                currField++) {
+                    fieldBytes = new byte[FIELD_LENGTHS[currField]];
+                    encode(fields[currField], fieldBytes);
+                    output.write(fieldBytes);
+                }
+            }
+        } finally {
+            output.close();
+        }
+
+        return dbFile;
+    }
+
+    /**
+     * Configure the database to use the specified database file.
+     * 
+     * @param dbFile
+     *            the database file to use.
+     * @param columnar
+     *            <code>true</code> to keep the records in a columnar record
+     *            store, <code>false</code> to keep them as objects.
+     */
+    public static void configure(File dbFile, boolean columnar) {
+        URLyBirdConfiguration configuration = URLyBirdConfiguration
+                .getInstance();
+
+        configuration.setDBFilePath(dbFile.getPath());
+        configuration.setColumnarRecordStore(columnar);
+    }
+
+    /**
+     * Delete a database file and its write-ahead log.
+     * 
+     * @param dbFile
+     *            the database file to delete.
+     */
+    public static void delete(File dbFile) {
+        new File(dbFile.getPath() + ".wal").delete();
+        dbFile.delete();
+    }
+
+    /**
+     * Generate the fields of an unbooked record, to create new records with.
+     * 
+     * @param random
+     *            the source of the varying fields.
+     * @return the fields of the record.
+     */
+    public static String[] newRecord(Random random) {
+        String[] fields = record(random, 1);
+
+        fields[OWNER_FIELD] = "";
+
+        return fields;
+    }
+
+    /*
+     * Generate the fields of a record; even numbered records are booked.
+     */
+    private static String[] record(Random random, int recNo) {
+        String[] fields = new String[FIELD_NAMES.length];
+
+        fields[0] = NAMES[random.nextInt(NAMES.length)];
+        fields[1] = CITIES[random.nextInt(CITIES.length)];
+        fields[2] = String.valueOf(1 + random.nextInt(6));
+        fields[3] = random.nextBoolean() ? "Y" : "N";
+        fields[4] = "$" + (50 + random.nextInt(250)) + ".00";
+        fields[5] = "2005/" + pad(1 + random.nextInt(12)) + "/"
+                + pad(1 + random.nextInt(28));
+        fields[6] = ((recNo & 1) == 0) ? String.valueOf(10000000 + random
+                .nextInt(90000000)) : "";
+
+        return fields;
+    }
+
+    /*
+     * Pad a day or month number to two digits.
+     */
+    private static String pad(int number) {
+        return (number < 10) ? "0" + number : String.valueOf(number);
+    }
+
+    /*
+     * Encode a field into its fixed length, padded with spaces.
+     */
+    private static void encode(String field, byte[] fieldBytes) {
+        byte[] bytes = field.getBytes(FIELD_CHARSET);
+        int length = Math.min(bytes.length, fieldBytes.length);
+
+        System.arraycopy(bytes, 0, fieldBytes, 0, length);
+
+        for (int currByte = length; currByte < fieldBytes.length;
+        currByte++) {
+            fieldBytes[currByte] = ' ';
+        }
+    }
+
+}
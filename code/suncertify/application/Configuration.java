@@ -89,6 +89,204 @@ public interface Configuration {
      */
     public void setLockTimeout(long timeout);
 
+    /**
+     * Get whether the database file is accessed through a memory mapping
+     * rather than through ordinary file reads and writes.
+     * 
+     * @return <code>true</code> if the database file is memory mapped,
+     *         <code>false</code> otherwise.
+     */
+    public boolean isDBFileMapped();
+
+    /**
+     * Set whether the database file is accessed through a memory mapping.
+     * 
+     * @param mapped
+     *            <code>true</code> to memory map the database file.
+     */
+    public void setDBFileMapped(boolean mapped);
+
+    /**
+     * Get whether the records are cached in memory as columns of raw field
+     * bytes, rather than as <code>String</code> objects.
+     * 
+     * @return <code>true</code> if records are stored by column,
+     *         <code>false</code> otherwise.
+     */
+    public boolean isColumnarRecordStore();
+
+    /**
+     * Set whether the records are cached in memory as columns of raw field
+     * bytes.
+     * 
+     * @param columnar
+     *            <code>true</code> to store records by column.
+     */
+    public void setColumnarRecordStore(boolean columnar);
+
+    /**
+     * Get the names of the database fields to keep search indexes for.
+     * 
+     * @return the names of the indexed fields.
+     */
+    public String[] getIndexedFields();
+
+    /**
+     * Set the names of the database fields to keep search indexes for.
+     * 
+     * @param fieldNames
+     *            the names of the fields to index; an empty array disables
+     *            indexing.
+     */
+    public void setIndexedFields(String[] fieldNames);
+
+    /**
+     * Get the maximum number of database file writes committed together in
+     * one batch.
+     * 
+     * @return the maximum write batch size.
+     */
+    public int getWriteBatchSize();
+
+    /**
+     * Set the maximum number of database file writes committed together in
+     * one batch.
+     * 
+     * @param size
+     *            the maximum write batch size.
+     */
+    public void setWriteBatchSize(int size);
+
+    /**
+     * Get the maximum time, in milliseconds, a database file write waits for
+     * others to be committed with it. With no wait, a batch holds the writes
+     * queued while the previous batch was being committed.
+     * 
+     * @return the maximum write batch latency in milliseconds.
+     */
+    public long getWriteBatchLatency();
+
+    /**
+     * Set the maximum time, in milliseconds, a database file write waits for
+     * others to be committed with it.
+     * 
+     * @param latency
+     *            the maximum write batch latency in milliseconds.
+     */
+    public void setWriteBatchLatency(long latency);
+
+    /**
+     * Get whether changes to the database are made durable in a write-ahead
+     * log before they are written to the database file.
+     * 
+     * @return <code>true</code> if changes are logged, <code>false</code>
+     *         otherwise.
+     */
+    public boolean isWriteAheadLogged();
+
+    /**
+     * Set whether changes to the database are made durable in a write-ahead
+     * log before they are written to the database file.
+     * 
+     * @param logged
+     *            <code>true</code> to log changes.
+     */
+    public void setWriteAheadLogged(boolean logged);
+
+    /**
+     * Get whether new records are always appended to the database, rather
+     * than reusing the slots of deleted records. Deleted records are then
+     * removed from the database file the next time the database is opened.
+     * 
+     * @return <code>true</code> if new records are always appended,
+     *         <code>false</code> otherwise.
+     */
+    public boolean isAppendOnly();
+
+    /**
+     * Set whether new records are always appended to the database, rather
+     * than reusing the slots of deleted records.
+     * 
+     * @param appendOnly
+     *            <code>true</code> to always append new records.
+     */
+    public void setAppendOnly(boolean appendOnly);
+
+    /**
+     * Get whether the database is opened lazily: only the schema is read when
+     * it is opened, and each record is read from the database file the first
+     * time it is used, while the rest are read in the background.
+     * 
+     * @return <code>true</code> if the database is opened lazily,
+     *         <code>false</code> if every record is read when it is opened.
+     */
+    public boolean isLazyOpen();
+
+    /**
+     * Set whether the database is opened lazily.
+     * 
+     * @param lazyOpen
+     *            <code>true</code> to read records as they are first used.
+     */
+    public void setLazyOpen(boolean lazyOpen);
+
+    /**
+     * Get whether requests and client actions run on virtual threads, when
+     * the Java runtime supports them. A thread blocked waiting for a record
+     * lock then costs no platform thread.
+     * 
+     * @return <code>true</code> if virtual threads are used when available,
+     *         <code>false</code> otherwise.
+     */
+    public boolean isVirtualThreads();
+
+    /**
+     * Set whether requests and client actions run on virtual threads.
+     * 
+     * @param virtualThreads
+     *            <code>true</code> to use virtual threads when available.
+     */
+    public void setVirtualThreads(boolean virtualThreads);
+
+    /**
+     * Get the maximum number of rooms the server holds in its cache of
+     * search results, across all the cached results.
+     * 
+     * @return the maximum number of rooms cached, or 0 to not cache search
+     *         results.
+     */
+    public int getSearchCacheSize();
+
+    /**
+     * Set the maximum number of rooms the server holds in its cache of
+     * search results.
+     * 
+     * @param size
+     *            the maximum number of rooms cached, or 0 to not cache search
+     *            results.
+     */
+    public void setSearchCacheSize(int size);
+
+    /**
+     * Get the path of the file holding the client's local replica of the
+     * rooms, kept in step with the server by fetching only the rooms changed
+     * since it was last synchronized, and searched locally.
+     * 
+     * @return the path of the replica file, or an empty string if the client
+     *         keeps no replica and searches on the server.
+     */
+    public String getReplicaFilePath();
+
+    /**
+     * Set the path of the file holding the client's local replica of the
+     * rooms.
+     * 
+     * @param path
+     *            the path of the replica file, or an empty string to keep no
+     *            replica.
+     */
+    public void setReplicaFilePath(String path);
+
     /**
      * Get the RMI server host name.
      * 
@@ -104,6 +302,23 @@ public interface Configuration {
      */
     public void setRMIHost(String host);
 
+    /**
+     * Get the port of the binary protocol server. When set, the server also
+     * accepts clients over the binary protocol on this port, and clients
+     * connect to the server host on this port rather than through RMI.
+     * 
+     * @return a port number, or 0 if the binary protocol is not used.
+     */
+    public int getBinaryPort();
+
+    /**
+     * Set the port of the binary protocol server.
+     * 
+     * @param port
+     *            a port number, or 0 to not use the binary protocol.
+     */
+    public void setBinaryPort(int port);
+
     /**
      * Persist changes made by calls to the setters.
      * 
@@ -1,18 +1,44 @@
 package suncertify.application;
 
-import java.io.Serializable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
 /**
  * Class representing a hotel room.
+ * <p>
+ * Rooms are sent between the server and its clients in a compact form
+ * written by {@link #writeExternal(ObjectOutput)}, rather than by default
+ * serialization. The rate is sent as a number of cents and the date as a
+ * number of days since 1970/01/01, whenever they are in the usual formats
+ * ("$150.00" and "2005/07/27"); any other rate or date is sent as text.
  * 
  * @author Oliver Hernandez
  */
-public class Room implements Serializable {
+public class Room implements Externalizable {
 
     private static final long serialVersionUID = -2759754373439767554L;
 
+    /*
+     * Values sent in place of a rate or date that is sent as text.
+     */
+    private static final int TEXT_RATE = -1;
+
+    private static final int TEXT_DATE = Integer.MIN_VALUE;
+
+    /*
+     * Days from 0000/03/01 to 1970/01/01, and in a 400 year cycle of the
+     * Gregorian calendar.
+     */
+    private static final int EPOCH_DAY_OFFSET = 719468;
+
+    private static final int DAYS_PER_ERA = 146097;
+
     private long id;
 
     private String hotelName;
@@ -251,4 +277,261 @@ public class Room implements Serializable {
         this.owner = newOwner.trim();
     }
 
+    /**
+     * Write this room in its compact form.
+     * 
+     * @param out
+     *            the stream to write to.
+     * @throws IOException
+     *             when an error occurs writing the stream.
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeTo(out);
+    }
+
+    /**
+     * Read this room from its compact form.
+     * 
+     * @param in
+     *            the stream to read from.
+     * @throws IOException
+     *             when an error occurs reading the stream.
+     */
+    public void readExternal(ObjectInput in) throws IOException {
+        readFrom(in);
+    }
+
+    /**
+     * Write this room in its compact form to any binary output, such as a
+     * network protocol message.
+     * 
+     * @param out
+     *            the output to write to.
+     * @throws IOException
+     *             when an error occurs writing the output.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        int rateCents = parseRate(this.rate);
+        int epochDay = parseDate(this.date);
+
+        out.writeLong(this.id);
+        writeText(out, this.hotelName);
+        writeText(out, this.city);
+        out.writeInt(this.maxOccupancy);
+        out.writeBoolean(this.smoking);
+
+        out.writeInt(rateCents);
+        if (rateCents == TEXT_RATE) {
+            writeText(out, this.rate);
+        }
+
+        out.writeInt(epochDay);
+        if (epochDay == TEXT_DATE) {
+            writeText(out, this.date);
+        }
+
+        writeText(out, this.owner);
+    }
+
+    /**
+     * Read this room from its compact form from any binary input.
+     * 
+     * @param in
+     *            the input to read from.
+     * @throws IOException
+     *             when an error occurs reading the input.
+     */
+    public void readFrom(DataInput in) throws IOException {
+        int rateCents;
+        int epochDay;
+
+        this.id = in.readLong();
+        this.hotelName = readText(in);
+        this.city = readText(in);
+        this.maxOccupancy = in.readInt();
+        setSmoking(in.readBoolean());
+
+        rateCents = in.readInt();
+        this.rate = (rateCents == TEXT_RATE) ? readText(in)
+                : formatRate(rateCents);
+
+        epochDay = in.readInt();
+        this.date = (epochDay == TEXT_DATE) ? readText(in)
+                : formatDate(epochDay);
+
+        this.owner = readText(in);
+    }
+
+    /*
+     * Write a possibly null string.
+     */
+    private static void writeText(DataOutput out, String text)
+            throws IOException {
+        out.writeBoolean(text != null);
+
+        if (text != null) {
+            out.writeUTF(text);
+        }
+    }
+
+    /*
+     * Read a possibly null string.
+     */
+    private static String readText(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /*
+     * Convert a rate such as "$150.00" to a number of cents, or TEXT_RATE if
+     * it is not in exactly that format.
+     */
+    private static int parseRate(String rateText) {
+        int length;
+        int rateCents = 0;
+        char digit;
+
+        if ((rateText == null) || !rateText.startsWith("$")) {
+            return TEXT_RATE;
+        }
+
+        length = rateText.length();
+
+        /* up to 7 digits of dollars without leading zeros, then the cents */
+
+        if ((length < 5) || (length > 11)
+                || (rateText.charAt(length - 3) != '.')
+                || ((length > 5) && (rateText.charAt(1) == '0'))) {
+            return TEXT_RATE;
+        }
+
+        for (int currChar = 1; currChar < length; currChar++) {
+            if (currChar != length - 3) {
+                digit = rateText.charAt(currChar);
+
+                if ((digit < '0') || (digit > '9')) {
+                    return TEXT_RATE;
+                }
+
+                rateCents = rateCents * 10 + (digit - '0');
+            }
+        }
+
+        return rateCents;
+    }
+
+    /*
+     * Format a number of cents as a rate.
+     */
+    private static String formatRate(int rateCents) {
+        int cents = rateCents % 100;
+
+        return "$" + (rateCents / 100) + ((cents < 10) ? ".0" : ".") + cents;
+    }
+
+    /*
+     * Convert a date such as "2005/07/27" to a number of days since
+     * 1970/01/01, or TEXT_DATE if it is not a valid date in that format.
+     */
+    private static int parseDate(String dateText) {
+        int year;
+        int month;
+        int day;
+        int yearOfEra;
+        int era;
+        int dayOfYear;
+
+        if ((dateText == null) || (dateText.length() != 10)
+                || (dateText.charAt(4) != '/') || (dateText.charAt(7) != '/')) {
+            return TEXT_DATE;
+        }
+
+        year = parseDigits(dateText, 0, 4);
+        month = parseDigits(dateText, 5, 7);
+        day = parseDigits(dateText, 8, 10);
+
+        if ((year < 1) || (month < 1) || (month > 12) || (day < 1)
+                || (day > daysInMonth(year, month))) {
+            return TEXT_DATE;
+        }
+
+        /* count years from March, so the leap day ends the year */
+
+        if (month <= 2) {
+            year--;
+        }
+
+        era = year / 400;
+        yearOfEra = year - era * 400;
+        dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+
+        return era * DAYS_PER_ERA + yearOfEra * 365 + yearOfEra / 4
+                - yearOfEra / 100 + dayOfYear - EPOCH_DAY_OFFSET;
+    }
+
+    /*
+     * Parse the decimal digits between two positions of a string, or return
+     * -1 if there is any other character.
+     */
+    private static int parseDigits(String text, int start, int end) {
+        int number = 0;
+        char digit;
+
+        for (int currChar = start; currChar < end; currChar++) {
+            digit = text.charAt(currChar);
+
+            if ((digit < '0') || (digit > '9')) {
+                return -1;
+            }
+
+            number = number * 10 + (digit - '0');
+        }
+
+        return number;
+    }
+
+    /*
+     * Get the number of days in a month of the Gregorian calendar.
+     */
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            return (((year % 4) == 0)
+                    && (((year % 100) != 0) || ((year % 400) == 0))) ? 29 : 28;
+        }
+
+        return ((month == 4) || (month == 6) || (month == 9)
+                || (month == 11)) ? 30 : 31;
+    }
+
+    /*
+     * Format a number of days since 1970/01/01 as a date.
+     */
+    private static String formatDate(int epochDay) {
+        int days = epochDay + EPOCH_DAY_OFFSET;
+        int era = days / DAYS_PER_ERA;
+        int dayOfEra = days - era * DAYS_PER_ERA;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524
+                - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra
+                - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth + ((shiftedMonth < 10) ? 3 : -9);
+        int year = yearOfEra + era * 400 + ((month <= 2) ? 1 : 0);
+
+        return pad(year, 4) + "/" + pad(month, 2) + "/" + pad(day, 2);
+    }
+
+    /*
+     * Pad a non-negative number with leading zeros.
+     */
+    private static String pad(int number, int digits) {
+        StringBuilder padded = new StringBuilder(String.valueOf(number));
+
+        while (padded.length() < digits) {
+            padded.insert(0, '0');
+        }
+
+        return padded.toString();
+    }
+
 }
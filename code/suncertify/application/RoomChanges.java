@@ -0,0 +1,239 @@
+package suncertify.application;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The changes to the hotel rooms since a version of them, synchronizing a
+ * client's local replica of the rooms with the server. Versions count the
+ * changes made by the server since it started, and are only comparable within
+ * the same generation, a number identifying the run of the server.
+ * <p>
+ * When the server no longer knows the changes since a version, or the version
+ * is of another generation, the changes are marked as a full synchronization
+ * holding no rooms: the replica must then be replaced by every room, read as
+ * of the new version or later.
+ * <p>
+ * The changes are sent in a compact form, holding the rooms one after another
+ * in their own compact form.
+ * 
+ * @author Oliver Hernandez
+ */
+public class RoomChanges implements Externalizable {
+
+    private static final long serialVersionUID = -4851320993474630172L;
+
+    /**
+     * Generation of a replica never synchronized, differing from every
+     * generation of the server.
+     */
+    public static final long NO_GENERATION = 0;
+
+    /*
+     * Largest number of deleted room IDs made room for before they are read.
+     */
+    private static final int MAX_PRESIZE = 1024;
+
+    private long generation;
+
+    private long version;
+
+    private boolean full;
+
+    private List<Room> rooms;
+
+    private long[] deletedIds;
+
+    /**
+     * Construct empty changes, to read changes into.
+     */
+    public RoomChanges() {
+        this(NO_GENERATION, 0, true, new ArrayList<Room>(), new long[0]);
+    }
+
+    /**
+     * Construct the changes to the rooms.
+     * 
+     * @param serverGeneration
+     *            the generation of the server.
+     * @param newVersion
+     *            the version the changes bring a replica to.
+     * @param fullSync
+     *            <code>true</code> if the replica must be replaced by every
+     *            room instead.
+     * @param changedRooms
+     *            the rooms created or updated since the replica's version.
+     * @param deletedRoomIds
+     *            the IDs of the rooms deleted since the replica's version.
+     */
+    public RoomChanges(long serverGeneration, long newVersion,
+            boolean fullSync, List<Room> changedRooms, long[] deletedRoomIds) {
+        this.generation = serverGeneration;
+        this.version = newVersion;
+        this.full = fullSync;
+        this.rooms = changedRooms;
+        this.deletedIds = deletedRoomIds;
+    }
+
+    /**
+     * Get the generation of the server.
+     * 
+     * @return the server's generation.
+     */
+    public long getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * Get the version the changes bring a replica to.
+     * 
+     * @return the new version of the replica.
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Determine if the replica must be replaced by every room, rather than
+     * changed.
+     * 
+     * @return <code>true</code> for a full synchronization.
+     */
+    public boolean isFull() {
+        return this.full;
+    }
+
+    /**
+     * Get the rooms created or updated since the replica's version, as they
+     * are now.
+     * 
+     * @return a list of {@link Room} objects, which may be empty.
+     */
+    public List<Room> getRooms() {
+        return this.rooms;
+    }
+
+    /**
+     * Get the IDs of the rooms deleted since the replica's version.
+     * 
+     * @return the deleted room IDs, which may be empty.
+     */
+    public long[] getDeletedIds() {
+        return this.deletedIds;
+    }
+
+    /**
+     * Write these changes in their compact form.
+     * 
+     * @param out
+     *            the stream to write to.
+     * @throws IOException
+     *             when an error occurs writing the stream.
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeTo(out);
+    }
+
+    /**
+     * Read these changes from their compact form.
+     * 
+     * @param in
+     *            the stream to read from.
+     * @throws IOException
+     *             when an error occurs reading the stream.
+     */
+    public void readExternal(ObjectInput in) throws IOException {
+        readFrom(in);
+    }
+
+    /**
+     * Write these changes in their compact form to any binary output, such as
+     * a network protocol message.
+     * 
+     * @param out
+     *            the output to write to.
+     * @throws IOException
+     *             when an error occurs writing the output.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(this.generation);
+        out.writeLong(this.version);
+        out.writeBoolean(this.full);
+        out.writeInt(this.rooms.size());
+
+        for (Room room : this.rooms) {
+            room.writeTo(out);
+        }
+
+        out.writeInt(this.deletedIds.length);
+
+        for (long deletedId : this.deletedIds) {
+            out.writeLong(deletedId);
+        }
+    }
+
+    /**
+     * Read these changes from their compact form from any binary input.
+     * 
+     * @param in
+     *            the input to read from.
+     * @throws IOException
+     *             when an error occurs reading the input.
+     */
+    public void readFrom(DataInput in) throws IOException {
+        int numRooms;
+        int numDeleted;
+        Room room;
+
+        this.generation = in.readLong();
+        this.version = in.readLong();
+        this.full = in.readBoolean();
+        numRooms = readCount(in);
+
+        /*
+         * the counts are only trusted as far as items are actually read, so
+         * nothing is sized by them up front.
+         */
+
+        this.rooms = new ArrayList<Room>();
+
+        for (int currRoom = 0; currRoom < numRooms; currRoom++) {
+            room = new Room();
+            room.readFrom(in);
+            this.rooms.add(room);
+        }
+
+        numDeleted = readCount(in);
+        this.deletedIds = new long[Math.min(numDeleted, MAX_PRESIZE)];
+
+        for (int currId = 0; currId < numDeleted; currId++) {
+            if (currId == this.deletedIds.length) {
+                this.deletedIds = Arrays.copyOf(this.deletedIds, Math.min(
+                        numDeleted, currId * 2));
+            }
+
+            this.deletedIds[currId] = in.readLong();
+        }
+    }
+
+    /*
+     * Read a number of items, rejecting a negative one.
+     */
+    private static int readCount(DataInput in) throws IOException {
+        int count = in.readInt();
+
+        if (count < 0) {
+            throw new IOException("Invalid number of items: " + count);
+        }
+
+        return count;
+    }
+
+}
@@ -0,0 +1,73 @@
+package suncertify.application;
+
+import java.io.Serializable;
+
+/**
+ * A change to the hotel rooms matching a standing query: a room that started
+ * matching it, was updated while matching it, or stopped matching it.
+ * 
+ * @author Oliver Hernandez
+ */
+public class RoomDelta implements Serializable {
+
+    private static final long serialVersionUID = 6138409751923876140L;
+
+    /**
+     * The kinds of change to the rooms matching a query.
+     */
+    public enum Type {
+
+        /**
+         * The room was created or changed, and now matches the query.
+         */
+        INSERT,
+
+        /**
+         * The room was changed, and still matches the query.
+         */
+        UPDATE,
+
+        /**
+         * The room was deleted or changed, and no longer matches the query.
+         */
+        DELETE
+    }
+
+    private Type type;
+
+    private Room room;
+
+    /**
+     * Construct a change to the rooms matching a query.
+     * 
+     * @param changeType
+     *            the kind of change.
+     * @param changedRoom
+     *            the room as changed, or as it was last matching the query
+     *            when it stopped matching it.
+     */
+    public RoomDelta(Type changeType, Room changedRoom) {
+        this.type = changeType;
+        this.room = changedRoom;
+    }
+
+    /**
+     * Get the kind of change.
+     * 
+     * @return the type of the change.
+     */
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * Get the changed room.
+     * 
+     * @return the room as changed, or as it was last matching the query when
+     *         the change is a {@link Type#DELETE}.
+     */
+    public Room getRoom() {
+        return this.room;
+    }
+
+}
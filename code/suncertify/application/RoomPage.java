@@ -0,0 +1,187 @@
+package suncertify.application;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page of the hotel rooms matching a search. Rooms are returned in order of
+ * their IDs, a page at a time, and each page carries the continuation token
+ * to request the page following it.
+ * <p>
+ * A page is sent in a compact form, holding the rooms one after another in
+ * their own compact form rather than as a serialized list.
+ * 
+ * @author Oliver Hernandez
+ */
+public class RoomPage implements Externalizable {
+
+    private static final long serialVersionUID = 3712085064711583405L;
+
+    /**
+     * Continuation token requesting the first page of a search.
+     */
+    public static final long FIRST_PAGE = -1;
+
+    /**
+     * Number of rooms matched by a search, given by a page read without
+     * counting them.
+     */
+    public static final int UNKNOWN_COUNT = -1;
+
+    private List<Room> rooms;
+
+    private long continuation;
+
+    private int totalCount;
+
+    /**
+     * Construct an empty page, to read a page into.
+     */
+    public RoomPage() {
+        this(new ArrayList<Room>(), FIRST_PAGE, 0);
+    }
+
+    /**
+     * Construct a page of rooms.
+     * 
+     * @param pageRooms
+     *            the rooms of the page.
+     * @param nextContinuation
+     *            the token to request the next page with, or
+     *            {@link #FIRST_PAGE} if this is the last page.
+     * @param matchCount
+     *            the number of rooms the search matched, or
+     *            {@link #UNKNOWN_COUNT} if they were not counted.
+     */
+    public RoomPage(List<Room> pageRooms, long nextContinuation,
+            int matchCount) {
+        this.rooms = pageRooms;
+        this.continuation = nextContinuation;
+        this.totalCount = matchCount;
+    }
+
+    /**
+     * Get the rooms of the page.
+     * 
+     * @return a list of {@link Room} objects, which may be empty.
+     */
+    public List<Room> getRooms() {
+        return this.rooms;
+    }
+
+    /**
+     * Get the token to request the next page of the search with.
+     * 
+     * @return the continuation token, or {@link #FIRST_PAGE} if this is the
+     *         last page.
+     */
+    public long getContinuation() {
+        return this.continuation;
+    }
+
+    /**
+     * Determine if more rooms follow this page.
+     * 
+     * @return <code>true</code> if there is a next page.
+     */
+    public boolean hasMore() {
+        return this.continuation != FIRST_PAGE;
+    }
+
+    /**
+     * Get the number of rooms the search matched when this page was read.
+     * Rooms may be added or deleted while the pages are read, so it is only
+     * a hint of the number of rooms all the pages hold. Only the first page
+     * of a search is certain to count them.
+     * 
+     * @return the number of rooms matched, or {@link #UNKNOWN_COUNT} if they
+     *         were not counted.
+     */
+    public int getTotalCount() {
+        return this.totalCount;
+    }
+
+    /**
+     * Write this page in its compact form.
+     * 
+     * @param out
+     *            the stream to write to.
+     * @throws IOException
+     *             when an error occurs writing the stream.
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeTo(out);
+    }
+
+    /**
+     * Read this page from its compact form.
+     * 
+     * @param in
+     *            the stream to read from.
+     * @throws IOException
+     *             when an error occurs reading the stream.
+     */
+    public void readExternal(ObjectInput in) throws IOException {
+        readFrom(in);
+    }
+
+    /**
+     * Write this page in its compact form to any binary output, such as a
+     * network protocol message.
+     * 
+     * @param out
+     *            the output to write to.
+     * @throws IOException
+     *             when an error occurs writing the output.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(this.continuation);
+        out.writeInt(this.totalCount);
+        out.writeInt(this.rooms.size());
+
+        for (Room room : this.rooms) {
+            room.writeTo(out);
+        }
+    }
+
+    /**
+     * Read this page from its compact form from any binary input.
+     * 
+     * @param in
+     *            the input to read from.
+     * @throws IOException
+     *             when an error occurs reading the input.
+     */
+    public void readFrom(DataInput in) throws IOException {
+        int numRooms;
+        Room room;
+
+        this.continuation = in.readLong();
+        this.totalCount = in.readInt();
+        numRooms = in.readInt();
+
+        /*
+         * the number of rooms is only trusted as far as rooms are actually
+         * read, so the list is not sized by it.
+         */
+
+        if (numRooms < 0) {
+            throw new IOException("Invalid number of rooms: " + numRooms);
+        }
+
+        this.rooms = new ArrayList<Room>();
+
+        for (int currRoom = 0; currRoom < numRooms; currRoom++) {
+            room = new Room();
+            room.readFrom(in);
+            this.rooms.add(room);
+        }
+    }
+
+}
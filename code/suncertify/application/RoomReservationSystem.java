@@ -8,6 +8,7 @@ import javax.swing.JOptionPane;
 
 import suncertify.client.MainController;
 import suncertify.client.URLyBirdModel;
+import suncertify.server.BinaryProtocolServer;
 import suncertify.server.MainWindow;
 import suncertify.server.RemoteRoomReservations;
 import suncertify.server.URLyBirdReservations;
@@ -31,6 +32,8 @@ public class RoomReservationSystem {
     /* static reference to RMI exported object needed to avoid premature GC */
     private static RemoteRoomReservations remoteReservations;
 
+    private static BinaryProtocolServer binaryServer;
+
     /**
      * Main entry point to the URLyBird Hotel Room Reservation System.
      * 
@@ -103,6 +106,18 @@ public class RoomReservationSystem {
             Registry registry = LocateRegistry.createRegistry(1099);
             registry.rebind("RoomReservations", stub);
 
+            /* also serve the binary protocol when a port is configured */
+
+            URLyBirdConfiguration configuration = URLyBirdConfiguration
+                    .getInstance();
+
+            if (configuration.getBinaryPort() > 0) {
+                binaryServer = new BinaryProtocolServer(remoteReservations,
+                        configuration.getBinaryPort(), configuration
+                                .isVirtualThreads());
+                binaryServer.start();
+            }
+
             window.enableWindow();
             window.setStatusMessage("Running");
         } catch (Exception e) {
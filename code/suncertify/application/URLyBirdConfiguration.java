@@ -27,6 +27,30 @@ public class URLyBirdConfiguration implements Configuration {
 
     private static final String RMI_HOST = "rmihost";
 
+    private static final String DB_FILE_MAPPED = "dbfilemapped";
+
+    private static final String COLUMNAR_RECORD_STORE = "columnarrecordstore";
+
+    private static final String INDEXED_FIELDS = "indexedfields";
+
+    private static final String WRITE_BATCH_SIZE = "writebatchsize";
+
+    private static final String WRITE_BATCH_LATENCY = "writebatchlatency";
+
+    private static final String WRITE_AHEAD_LOG = "writeaheadlog";
+
+    private static final String APPEND_ONLY = "appendonly";
+
+    private static final String LAZY_OPEN = "lazyopen";
+
+    private static final String BINARY_PORT = "binaryport";
+
+    private static final String VIRTUAL_THREADS = "virtualthreads";
+
+    private static final String SEARCH_CACHE_SIZE = "searchcachesize";
+
+    private static final String REPLICA_FILE_PATH = "replicafilepath";
+
     private static final URLyBirdConfiguration instance =
         new URLyBirdConfiguration();
 
@@ -42,6 +66,30 @@ public class URLyBirdConfiguration implements Configuration {
 
     private String dbFilePath;
 
+    private boolean dbFileMapped;
+
+    private boolean columnarRecordStore;
+
+    private String[] indexedFields = { "name", "location" };
+
+    private int writeBatchSize = 512;
+
+    private long writeBatchLatency = 0;
+
+    private boolean writeAheadLogged = true;
+
+    private boolean appendOnly;
+
+    private boolean lazyOpen;
+
+    private int binaryPort;
+
+    private boolean virtualThreads;
+
+    private int searchCacheSize = 10000;
+
+    private String replicaFilePath = "";
+
     private String rmiHost;
 
     private URLyBirdConfiguration() {
@@ -55,6 +103,31 @@ public class URLyBirdConfiguration implements Configuration {
 
             this.dbFilePath = findProperty(DB_FILE_PATH, "database file path");
             this.rmiHost = findProperty(RMI_HOST, "RMI server host");
+            this.dbFileMapped = Boolean.parseBoolean(findOptionalProperty(
+                    DB_FILE_MAPPED, "false"));
+            this.columnarRecordStore = Boolean.parseBoolean(
+                    findOptionalProperty(COLUMNAR_RECORD_STORE, "false"));
+            this.indexedFields = splitList(findOptionalProperty(
+                    INDEXED_FIELDS, joinList(this.indexedFields)));
+            this.writeBatchSize = Integer.parseInt(findOptionalProperty(
+                    WRITE_BATCH_SIZE, String.valueOf(this.writeBatchSize)));
+            this.writeBatchLatency = Long.parseLong(findOptionalProperty(
+                    WRITE_BATCH_LATENCY, String
+                            .valueOf(this.writeBatchLatency)));
+            this.writeAheadLogged = Boolean.parseBoolean(findOptionalProperty(
+                    WRITE_AHEAD_LOG, String.valueOf(this.writeAheadLogged)));
+            this.appendOnly = Boolean.parseBoolean(findOptionalProperty(
+                    APPEND_ONLY, "false"));
+            this.lazyOpen = Boolean.parseBoolean(findOptionalProperty(
+                    LAZY_OPEN, "false"));
+            this.binaryPort = Integer.parseInt(findOptionalProperty(
+                    BINARY_PORT, "0"));
+            this.virtualThreads = Boolean.parseBoolean(findOptionalProperty(
+                    VIRTUAL_THREADS, "false"));
+            this.searchCacheSize = Integer.parseInt(findOptionalProperty(
+                    SEARCH_CACHE_SIZE, String.valueOf(this.searchCacheSize)));
+            this.replicaFilePath = findOptionalProperty(REPLICA_FILE_PATH,
+                    this.replicaFilePath);
         } catch (IOException e) {
             /*
              * either the properties file was not found or was invalid, so set
@@ -74,6 +147,9 @@ public class URLyBirdConfiguration implements Configuration {
         } catch (ConfigurationException e) {
             FatalExit(e, "An error occurred reading the \"" + PROPS_FILE
                     + "\" file.");
+        } catch (NumberFormatException e) {
+            FatalExit(e, "An invalid number was found in the \"" + PROPS_FILE
+                    + "\" file.");
         }
 
     }
@@ -158,6 +234,174 @@ public class URLyBirdConfiguration implements Configuration {
         this.lockTimeout = timeout;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isDBFileMapped() {
+        return this.dbFileMapped;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setDBFileMapped(boolean mapped) {
+        this.dbFileMapped = mapped;
+        this.properties.setProperty(DB_FILE_MAPPED, String.valueOf(mapped));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isColumnarRecordStore() {
+        return this.columnarRecordStore;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setColumnarRecordStore(boolean columnar) {
+        this.columnarRecordStore = columnar;
+        this.properties.setProperty(COLUMNAR_RECORD_STORE, String
+                .valueOf(columnar));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getIndexedFields() {
+        return this.indexedFields.clone();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setIndexedFields(String[] fieldNames) {
+        this.indexedFields = fieldNames.clone();
+        this.properties.setProperty(INDEXED_FIELDS, joinList(fieldNames));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getWriteBatchSize() {
+        return this.writeBatchSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setWriteBatchSize(int size) {
+        this.writeBatchSize = size;
+        this.properties.setProperty(WRITE_BATCH_SIZE, String.valueOf(size));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getWriteBatchLatency() {
+        return this.writeBatchLatency;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setWriteBatchLatency(long latency) {
+        this.writeBatchLatency = latency;
+        this.properties.setProperty(WRITE_BATCH_LATENCY, String
+                .valueOf(latency));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isWriteAheadLogged() {
+        return this.writeAheadLogged;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setWriteAheadLogged(boolean logged) {
+        this.writeAheadLogged = logged;
+        this.properties.setProperty(WRITE_AHEAD_LOG, String.valueOf(logged));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isAppendOnly() {
+        return this.appendOnly;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setAppendOnly(boolean appendOnly) {
+        this.appendOnly = appendOnly;
+        this.properties.setProperty(APPEND_ONLY, String.valueOf(appendOnly));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isLazyOpen() {
+        return this.lazyOpen;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setLazyOpen(boolean lazyOpen) {
+        this.lazyOpen = lazyOpen;
+        this.properties.setProperty(LAZY_OPEN, String.valueOf(lazyOpen));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isVirtualThreads() {
+        return this.virtualThreads;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        this.properties.setProperty(VIRTUAL_THREADS, String
+                .valueOf(virtualThreads));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getSearchCacheSize() {
+        return this.searchCacheSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setSearchCacheSize(int size) {
+        this.searchCacheSize = size;
+        this.properties.setProperty(SEARCH_CACHE_SIZE, String.valueOf(size));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getReplicaFilePath() {
+        return this.replicaFilePath;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setReplicaFilePath(String path) {
+        this.replicaFilePath = path;
+        this.properties.setProperty(REPLICA_FILE_PATH, path);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -173,6 +417,21 @@ public class URLyBirdConfiguration implements Configuration {
         this.properties.setProperty(RMI_HOST, host);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public int getBinaryPort() {
+        return this.binaryPort;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setBinaryPort(int port) {
+        this.binaryPort = port;
+        this.properties.setProperty(BINARY_PORT, String.valueOf(port));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -212,6 +471,34 @@ public class URLyBirdConfiguration implements Configuration {
         return property;
     }
 
+    private String findOptionalProperty(String name, String defaultValue) {
+        return this.properties.getProperty(name, defaultValue);
+    }
+
+    private String[] splitList(String list) {
+        String trimmed = list.trim();
+
+        if (trimmed.length() == 0) {
+            return new String[0];
+        }
+
+        return trimmed.split("\\s*,\\s*");
+    }
+
+    private String joinList(String[] items) {
+        StringBuilder list = new StringBuilder();
+
+        for (String item : items) {
+            if (list.length() > 0) {
+                list.append(',');
+            }
+
+            list.append(item);
+        }
+
+        return list.toString();
+    }
+
     private void FatalExit(Exception e, String message) {
         System.err.println(message + ", system exiting.");
         e.printStackTrace();
@@ -0,0 +1,426 @@
+package suncertify.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import suncertify.application.Room;
+import suncertify.application.RoomChanges;
+import suncertify.application.RoomPage;
+import suncertify.db.RecordNotFoundException;
+import suncertify.db.SecurityException;
+import suncertify.server.BinaryProtocol;
+import suncertify.server.BookingResult;
+import suncertify.server.RemoteRoomReservations;
+import suncertify.server.RoomListener;
+
+/**
+ * Client of the room reservations server over the {@link BinaryProtocol}.
+ * <p>
+ * Every thread calling the server shares a single connection: each request is
+ * sent as soon as it is made, without waiting for the responses to earlier
+ * requests, and a reader thread hands each response to the thread waiting for
+ * it as it arrives, in whatever order the server completes them. Network
+ * errors are reported as {@link RemoteException}s, as with <code>RMI</code>.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class BinaryRoomReservations implements RemoteRoomReservations, Runnable {
+
+    /*
+     * Time, in milliseconds, to wait for the response to a request before
+     * failing it; far longer than any operation waits on the server.
+     */
+    private static final long CALL_TIMEOUT = 60 * 1000;
+
+    private final Socket socket;
+
+    private final DataOutputStream output;
+
+    private final DataInputStream input;
+
+    private final AtomicInteger nextRequestId;
+
+    private final ConcurrentHashMap<Integer, Call> calls;
+
+    private volatile IOException failure;
+
+    /**
+     * Connects to the room reservations server at the specified host and
+     * port.
+     * 
+     * @param host
+     *            the host of the server.
+     * @param port
+     *            the port of the binary protocol server.
+     * @throws RemoteException
+     *             when the server cannot be connected to.
+     */
+    BinaryRoomReservations(String host, int port) throws RemoteException {
+        try {
+            this.socket = new Socket(host, port);
+            this.socket.setTcpNoDelay(true);
+            this.output = new DataOutputStream(new BufferedOutputStream(
+                    this.socket.getOutputStream()));
+            this.input = new DataInputStream(new BufferedInputStream(
+                    this.socket.getInputStream()));
+        } catch (IOException e) {
+            throw new RemoteException("Cannot connect to " + host + ":"
+                    + port, e);
+        }
+
+        this.nextRequestId = new AtomicInteger();
+        this.calls = new ConcurrentHashMap<Integer, Call>();
+
+        Thread reader = new Thread(this, "BinaryRoomReservations");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Room> search(String[] criteria) throws RemoteException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(request);
+
+        try {
+            BinaryProtocol.writeCriteria(out, criteria);
+
+            return BinaryProtocol.readRooms(call(BinaryProtocol.SEARCH,
+                    request.toByteArray()));
+        } catch (RecordNotFoundException e) {
+            throw new RemoteException(e.getMessage(), e);
+        } catch (SecurityException e) {
+            throw new RemoteException(e.getMessage(), e);
+        } catch (IOException e) {
+            throw remoteException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RoomPage searchPage(String[] criteria, long continuation,
+            int pageSize) throws RemoteException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(request);
+        RoomPage page = new RoomPage();
+
+        try {
+            BinaryProtocol.writeCriteria(out, criteria);
+            out.writeLong(continuation);
+            out.writeInt(pageSize);
+
+            page.readFrom(call(BinaryProtocol.SEARCH_PAGE, request
+                    .toByteArray()));
+
+            return page;
+        } catch (RecordNotFoundException e) {
+            throw new RemoteException(e.getMessage(), e);
+        } catch (SecurityException e) {
+            throw new RemoteException(e.getMessage(), e);
+        } catch (IOException e) {
+            throw remoteException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean book(long roomId, String customerId)
+            throws RemoteException, RecordNotFoundException,
+            SecurityException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(request);
+
+        try {
+            out.writeLong(roomId);
+            BinaryProtocol.writeText(out, customerId);
+
+            return call(BinaryProtocol.BOOK, request.toByteArray())
+                    .readBoolean();
+        } catch (IOException e) {
+            throw remoteException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public BookingResult[] bookAll(long[] roomIds, String customerId)
+            throws RemoteException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(request);
+        DataInputStream in;
+        BookingResult[] results;
+
+        try {
+            out.writeInt(roomIds.length);
+
+            for (long roomId : roomIds) {
+                out.writeLong(roomId);
+            }
+
+            BinaryProtocol.writeText(out, customerId);
+
+            in = call(BinaryProtocol.BOOK_ALL, request.toByteArray());
+            results = new BookingResult[in.readInt()];
+
+            for (int currRoom = 0; currRoom < results.length; currRoom++) {
+                results[currRoom] = BookingResult.values()[in.readByte()];
+            }
+
+            return results;
+        } catch (RecordNotFoundException e) {
+            throw new RemoteException(e.getMessage(), e);
+        } catch (SecurityException e) {
+            throw new RemoteException(e.getMessage(), e);
+        } catch (IOException e) {
+            throw remoteException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RoomChanges sync(long generation, long version)
+            throws RemoteException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(request);
+        RoomChanges changes = new RoomChanges();
+
+        try {
+            out.writeLong(generation);
+            out.writeLong(version);
+
+            changes.readFrom(call(BinaryProtocol.SYNC, request.toByteArray()));
+
+            return changes;
+        } catch (RecordNotFoundException e) {
+            throw new RemoteException(e.getMessage(), e);
+        } catch (SecurityException e) {
+            throw new RemoteException(e.getMessage(), e);
+        } catch (IOException e) {
+            throw remoteException(e);
+        }
+    }
+
+    /**
+     * Standing queries are not supported over the binary protocol, whose
+     * connections carry no calls from the server back to the client.
+     * 
+     * @throws RemoteException
+     *             always.
+     */
+    public long watch(String[] criteria, RoomListener listener)
+            throws RemoteException {
+        throw new RemoteException("Standing queries are not supported over "
+                + "the binary protocol.");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void unwatch(long watchId) {
+        // no standing query can have been registered
+    }
+
+    /**
+     * Close the connection to the server. Calls waiting for a response fail.
+     */
+    void close() {
+        try {
+            this.socket.close();
+        } catch (IOException e) {
+            // ignore, connection is being discarded
+        }
+    }
+
+    /**
+     * Read responses from the server and hand each to the call waiting for
+     * it, until the connection is closed.
+     */
+    public void run() {
+        int frameLength;
+        byte[] frame;
+        Call call;
+
+        try {
+            while (true) {
+                frameLength = this.input.readInt();
+
+                if ((frameLength < BinaryProtocol.HEADER_LENGTH)
+                        || (frameLength > BinaryProtocol.MAX_FRAME_LENGTH)) {
+                    throw new IOException("Invalid frame length: "
+                            + frameLength);
+                }
+
+                frame = new byte[frameLength];
+                this.input.readFully(frame);
+
+                call = this.calls.remove(Integer.valueOf(requestId(frame)));
+
+                if (call != null) {
+                    call.complete(frame, null);
+                }
+            }
+        } catch (IOException e) {
+            this.failure = e;
+            close();
+
+            for (Integer requestId : this.calls.keySet()) {
+                call = this.calls.remove(requestId);
+
+                if (call != null) {
+                    call.complete(null, e);
+                }
+            }
+        }
+    }
+
+    /*
+     * Send a request and wait for its response. Returns the result of the
+     * operation, positioned after the response header, or throws the
+     * exception the operation threw on the server. Fails if no response
+     * arrives in time.
+     */
+    private DataInputStream call(byte operation, byte[] arguments)
+            throws IOException, RecordNotFoundException, SecurityException {
+        Integer requestId = Integer.valueOf(this.nextRequestId
+                .incrementAndGet());
+        Call call = new Call();
+        DataInputStream in;
+        byte status;
+
+        this.calls.put(requestId, call);
+
+        if (this.failure != null) {
+            this.calls.remove(requestId);
+            throw this.failure;
+        }
+
+        try {
+            synchronized (this.output) {
+                this.output.writeInt(BinaryProtocol.HEADER_LENGTH
+                        + arguments.length);
+                this.output.writeInt(requestId.intValue());
+                this.output.writeByte(operation);
+                this.output.write(arguments);
+                this.output.flush();
+            }
+        } catch (IOException e) {
+            this.calls.remove(requestId);
+            throw e;
+        }
+
+        try {
+            in = new DataInputStream(new ByteArrayInputStream(call
+                    .await(CALL_TIMEOUT)));
+        } finally {
+            this.calls.remove(requestId);
+        }
+
+        in.readInt(); // request number
+        status = in.readByte();
+
+        switch (status) {
+        case BinaryProtocol.OK:
+            return in;
+        case BinaryProtocol.RECORD_NOT_FOUND:
+            throw new RecordNotFoundException(BinaryProtocol.readText(in));
+        case BinaryProtocol.SECURITY_VIOLATION:
+            throw new SecurityException(BinaryProtocol.readText(in));
+        default:
+            throw new RemoteException(BinaryProtocol.readText(in));
+        }
+    }
+
+    /*
+     * Get the request number of a response frame.
+     */
+    private static int requestId(byte[] frame) {
+        return ((frame[0] & 0xff) << 24) | ((frame[1] & 0xff) << 16)
+                | ((frame[2] & 0xff) << 8) | (frame[3] & 0xff);
+    }
+
+    /*
+     * Report a network error as a remote exception.
+     */
+    private static RemoteException remoteException(IOException e) {
+        if (e instanceof RemoteException) {
+            return (RemoteException) e;
+        }
+
+        return new RemoteException(e.getMessage(), e);
+    }
+
+    /*
+     * A request waiting for its response.
+     */
+    private static class Call {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private byte[] response;
+
+        private IOException failure;
+
+        void complete(byte[] frame, IOException e) {
+            this.response = frame;
+            this.failure = e;
+            this.done.countDown();
+        }
+
+        byte[] await(long timeout) throws IOException {
+            long deadline = System.currentTimeMillis() + timeout;
+            boolean interrupted = false;
+            boolean completed = false;
+            long remaining;
+
+            while (!completed) {
+                remaining = deadline - System.currentTimeMillis();
+
+                if (remaining <= 0) {
+                    break;
+                }
+
+                try {
+                    completed = this.done.await(remaining,
+                            TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (!completed) {
+                throw new IOException("No response from the server in "
+                        + timeout + " ms.");
+            }
+
+            if (this.failure != null) {
+                throw this.failure;
+            }
+
+            return this.response;
+        }
+
+    }
+
+}
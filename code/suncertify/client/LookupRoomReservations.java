@@ -41,7 +41,9 @@ class LookupRoomReservations {
 
     /**
      * Locates the room reservations server of the URLyBird Hotel Room
-     * Reservation System.
+     * Reservation System. A client connects to the server over the binary
+     * protocol when a binary port is configured, and over <code>RMI</code>
+     * otherwise.
      * 
      * @return the room reservations server.
      * 
@@ -64,8 +66,13 @@ class LookupRoomReservations {
             system = new URLyBirdReservations();
             break;
         case CLIENT:
-            system = (RemoteRoomReservations) Naming.lookup("rmi://"
-                    + configuration.getRMIHost() + "/RoomReservations");
+            if (configuration.getBinaryPort() > 0) {
+                system = new BinaryRoomReservations(configuration
+                        .getRMIHost(), configuration.getBinaryPort());
+            } else {
+                system = (RemoteRoomReservations) Naming.lookup("rmi://"
+                        + configuration.getRMIHost() + "/RoomReservations");
+            }
         }
 
         return system;
@@ -9,8 +9,10 @@ import javax.swing.SwingConstants;
 import javax.swing.table.DefaultTableCellRenderer;
 
 import suncertify.application.BaseWindow;
+import suncertify.application.URLyBirdConfiguration;
 import suncertify.db.RecordNotFoundException;
 import suncertify.db.SecurityException;
+import suncertify.util.ThreadUtil;
 
 /**
  * The controller in the Model-View-Controller architecture of the room
@@ -221,7 +223,7 @@ public class MainController implements ActionListener {
      * Base class to implement the template method pattern for handling GUI
      * events in a thread separate from the Swing Event Dispatcher Thread.
      */
-    private abstract class ActionThread extends Thread {
+    private abstract class ActionThread implements Runnable {
 
         private MainWindow window;
 
@@ -237,6 +239,16 @@ public class MainController implements ActionListener {
             this.window = mainWindow;
         }
 
+        /*
+         * Start handling the event in a new thread, which is a virtual thread
+         * when configured and supported by the Java runtime.
+         */
+        void start() {
+            ThreadUtil.newThread(this, getClass().getSimpleName(),
+                    URLyBirdConfiguration.getInstance().isVirtualThreads())
+                    .start();
+        }
+
         /**
          * Handles the event, then enables the main window and sets its status
          * message when done.
@@ -0,0 +1,351 @@
+package suncertify.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+import suncertify.application.Room;
+import suncertify.application.RoomChanges;
+import suncertify.application.RoomDelta;
+import suncertify.application.RoomPage;
+
+/**
+ * A local replica of the hotel rooms of the server, persisted in a file
+ * across runs of the client, so searches are answered locally and the server
+ * only sends the rooms changed since the replica was last synchronized.
+ * <p>
+ * The replica is tagged with the generation and version of the server it was
+ * last synchronized with. Synchronizing applies the changes since that
+ * version, or replaces every room, read a page at a time, when the server no
+ * longer knows them. Changes pushed for a standing query are applied as they
+ * arrive, without changing the version, so they are sent again by the next
+ * synchronization.
+ * <p>
+ * Searches return pages of matching rooms in order of their IDs, as the
+ * server does, and the IDs matching the last search are kept until the
+ * replica changes, so paging through a search scans the rooms only once.
+ * The replica is safe for use by several threads at once.
+ * 
+ * @author Oliver Hernandez
+ * 
+ * @see suncertify.server.RemoteRoomReservations#sync(long, long)
+ */
+class RoomReplica {
+
+    /* identifies a replica file, and the version of its format */
+    private static final int FILE_MAGIC = 0x55524201;
+
+    /* number of rooms read in each page of a full synchronization */
+    private static final int FULL_SYNC_PAGE_SIZE = 1000;
+
+    private final File file;
+
+    private long generation;
+
+    private long version;
+
+    private TreeMap<Long, Room> rooms;
+
+    /*
+     * The criteria of the last search, and the IDs of the rooms it matched,
+     * or null once the rooms changed.
+     */
+    private String lastHotelName;
+
+    private String lastCity;
+
+    private long[] lastMatches;
+
+    /**
+     * Constructs a replica, loading it from its file if present. A file that
+     * cannot be read is ignored, the replica being fully synchronized.
+     * 
+     * @param replicaFile
+     *            the file the replica is persisted in.
+     */
+    RoomReplica(File replicaFile) {
+        this.file = replicaFile;
+        this.generation = RoomChanges.NO_GENERATION;
+        this.rooms = new TreeMap<Long, Room>();
+
+        if (this.file.exists()) {
+            try {
+                load();
+            } catch (IOException e) {
+                this.generation = RoomChanges.NO_GENERATION;
+                this.version = 0;
+                this.rooms = new TreeMap<Long, Room>();
+            }
+        }
+    }
+
+    /**
+     * Bring the replica in step with the server, and save it to its file if
+     * it changed. The replica is only locked once the changes are read, and
+     * is left unchanged if another synchronization finished meanwhile.
+     * 
+     * @param delegate
+     *            the delegate to the server.
+     * @throws RemoteException
+     *             when a network error occurs; the replica is left as it
+     *             was.
+     */
+    void sync(RoomReservationsDelegate delegate) throws RemoteException {
+        long oldGeneration;
+        long oldVersion;
+        RoomChanges changes;
+        TreeMap<Long, Room> allRooms = null;
+
+        synchronized (this) {
+            oldGeneration = this.generation;
+            oldVersion = this.version;
+        }
+
+        changes = delegate.sync(oldGeneration, oldVersion);
+
+        if (changes.isFull()) {
+            allRooms = readAll(delegate);
+        }
+
+        synchronized (this) {
+            if ((this.generation != oldGeneration)
+                    || (this.version != oldVersion)) {
+                return;
+            }
+
+            apply(changes, allRooms);
+        }
+    }
+
+    /*
+     * Apply the changes read by a synchronization, or replace every room,
+     * and save the replica if its version changed. Must be called while
+     * holding this replica's monitor.
+     */
+    private void apply(RoomChanges changes, TreeMap<Long, Room> allRooms) {
+        boolean changed = (changes.getGeneration() != this.generation)
+                || (changes.getVersion() != this.version);
+
+        if (allRooms != null) {
+            this.rooms = allRooms;
+        } else {
+            for (Room room : changes.getRooms()) {
+                this.rooms.put(room.getId(), room);
+            }
+
+            for (long deletedId : changes.getDeletedIds()) {
+                this.rooms.remove(deletedId);
+            }
+        }
+
+        this.generation = changes.getGeneration();
+        this.version = changes.getVersion();
+        this.lastMatches = null;
+
+        if (changed) {
+            try {
+                save();
+            } catch (IOException e) {
+                // keep using the replica; it is fully synchronized next run
+                this.file.delete();
+            }
+        }
+    }
+
+    /**
+     * Apply a change pushed for a standing query. A room that no longer
+     * matches the query is removed until the replica is next synchronized.
+     * 
+     * @param delta
+     *            the change to a room.
+     */
+    synchronized void apply(RoomDelta delta) {
+        Room room = delta.getRoom();
+
+        /*
+         * a room leaving the query is removed even if it still exists with
+         * other values, as the delta only holds its old ones; the next sync
+         * puts it back if so.
+         */
+
+        if (delta.getType() == RoomDelta.Type.DELETE) {
+            this.rooms.remove(room.getId());
+        } else {
+            this.rooms.put(room.getId(), room);
+        }
+
+        this.lastMatches = null;
+    }
+
+    /**
+     * Search for a page of the rooms of the replica matching the hotel name
+     * and/or city, as {@link RoomReservationsDelegate} does on the server.
+     * 
+     * @param hotelName
+     *            the prefix of the hotel name to search for, or
+     *            <code>null</code> for any hotel.
+     * @param city
+     *            the prefix of the city to search for, or <code>null</code>
+     *            for any city.
+     * @param continuation
+     *            the continuation token of the previous page, or
+     *            {@link RoomPage#FIRST_PAGE} for the first page.
+     * @param pageSize
+     *            the maximum number of rooms to return.
+     * @return the page of rooms following the continuation token.
+     */
+    synchronized RoomPage searchPage(String hotelName, String city,
+            long continuation, int pageSize) {
+        long[] roomIds = matches(hotelName, city);
+        int maxRooms = Math.max(1, pageSize);
+        List<Room> pageRooms = new ArrayList<Room>(Math.min(maxRooms,
+                roomIds.length));
+        int currRoom = 0;
+
+        /* the page starts after the last room of the previous page */
+
+        if (continuation != RoomPage.FIRST_PAGE) {
+            currRoom = Arrays.binarySearch(roomIds, continuation);
+            currRoom = (currRoom >= 0) ? currRoom + 1 : -(currRoom + 1);
+        }
+
+        while ((currRoom < roomIds.length) && (pageRooms.size() < maxRooms)) {
+            pageRooms.add(this.rooms.get(roomIds[currRoom++]));
+        }
+
+        return new RoomPage(pageRooms, (currRoom < roomIds.length)
+                ? roomIds[currRoom - 1] : RoomPage.FIRST_PAGE, roomIds.length);
+    }
+
+    /*
+     * Get the IDs of the rooms matching a search, in ascending order, reusing
+     * those of the last search while the rooms are unchanged.
+     */
+    private long[] matches(String hotelName, String city) {
+        if ((this.lastMatches != null) && equal(hotelName, this.lastHotelName)
+                && equal(city, this.lastCity)) {
+            return this.lastMatches;
+        }
+
+        long[] roomIds = new long[this.rooms.size()];
+        int numMatches = 0;
+
+        for (Room room : this.rooms.values()) {
+            if (((hotelName == null) || room.getHotelName().startsWith(
+                    hotelName))
+                    && ((city == null) || room.getCity().startsWith(city))) {
+                roomIds[numMatches++] = room.getId();
+            }
+        }
+
+        this.lastHotelName = hotelName;
+        this.lastCity = city;
+        this.lastMatches = Arrays.copyOf(roomIds, numMatches);
+
+        return this.lastMatches;
+    }
+
+    /*
+     * Read every room from the server, a page at a time.
+     */
+    private static TreeMap<Long, Room> readAll(
+            RoomReservationsDelegate delegate) throws RemoteException {
+        TreeMap<Long, Room> allRooms = new TreeMap<Long, Room>();
+        long continuation = RoomPage.FIRST_PAGE;
+        RoomPage page;
+
+        do {
+            page = delegate.searchPage(null, null, continuation,
+                    FULL_SYNC_PAGE_SIZE);
+
+            for (Room room : page.getRooms()) {
+                allRooms.put(room.getId(), room);
+            }
+
+            continuation = page.getContinuation();
+        } while (page.hasMore());
+
+        return allRooms;
+    }
+
+    /*
+     * Read the replica from its file.
+     */
+    private void load() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(this.file)));
+        TreeMap<Long, Room> loaded = new TreeMap<Long, Room>();
+        Room room;
+
+        try {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a replica file: " + this.file);
+            }
+
+            long fileGeneration = in.readLong();
+            long fileVersion = in.readLong();
+            int numRooms = in.readInt();
+
+            for (int currRoom = 0; currRoom < numRooms; currRoom++) {
+                room = new Room();
+                room.readFrom(in);
+                loaded.put(room.getId(), room);
+            }
+
+            this.generation = fileGeneration;
+            this.version = fileVersion;
+            this.rooms = loaded;
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+     * Write the replica to a new file, then replace its file with it, so an
+     * interrupted write leaves the previous replica intact.
+     */
+    private void save() throws IOException {
+        File newFile = new File(this.file.getPath() + ".new");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(newFile)));
+
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeLong(this.generation);
+            out.writeLong(this.version);
+            out.writeInt(this.rooms.size());
+
+            for (Room room : this.rooms.values()) {
+                room.writeTo(out);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!newFile.renameTo(this.file)) {
+            this.file.delete();
+
+            if (!newFile.renameTo(this.file)) {
+                throw new IOException("Cannot replace " + this.file);
+            }
+        }
+    }
+
+    /*
+     * Compare two possibly null strings.
+     */
+    private static boolean equal(String s1, String s2) {
+        return (s1 == null) ? (s2 == null) : s1.equals(s2);
+    }
+
+}
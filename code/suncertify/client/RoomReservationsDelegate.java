@@ -1,12 +1,18 @@
 package suncertify.client;
 
 import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
 import java.util.List;
 
 import suncertify.application.Room;
+import suncertify.application.RoomChanges;
+import suncertify.application.RoomPage;
 import suncertify.db.RecordNotFoundException;
 import suncertify.db.SecurityException;
+import suncertify.server.BookingResult;
 import suncertify.server.RemoteRoomReservations;
+import suncertify.server.RoomListener;
+import suncertify.server.URLyBirdReservations;
 
 /**
  * Delegate class for clients of the URLyBird Room Reservation System. Class is
@@ -22,6 +28,14 @@ class RoomReservationsDelegate {
 
     private RemoteRoomReservations roomReservations;
 
+    /*
+     * The listener last passed to the server over RMI, and the stub it was
+     * exported with to receive calls from the server.
+     */
+    private RoomListener exportedListener;
+
+    private RoomListener listenerStub;
+
     /**
      * Constructs the business delegate class instance for calling the business
      * methods needed by clients of the room reservation system. Access to the
@@ -65,6 +79,25 @@ class RoomReservationsDelegate {
         return this.roomReservations.book(roomId, customerId);
     }
 
+    /**
+     * Book a set of rooms at the hotel in a single request.
+     * 
+     * @param roomIds
+     *            the IDs of the rooms to book.
+     * @param customerId
+     *            the customer ID to book the rooms for.
+     * 
+     * @return the outcome of booking each room, in the order of
+     *         <code>roomIds</code>.
+     * 
+     * @throws RemoteException
+     *             when a network error occurs.
+     */
+    BookingResult[] bookAll(long[] roomIds, String customerId)
+            throws RemoteException {
+        return this.roomReservations.bookAll(roomIds, customerId);
+    }
+
     /**
      * Search for hotel rooms based on the hotel name and/or city.
      * 
@@ -84,6 +117,81 @@ class RoomReservationsDelegate {
         return this.roomReservations.search(criteria);
     }
 
+    /**
+     * Search for a page of hotel rooms based on the hotel name and/or city.
+     * 
+     * @param hotelName
+     *            the name of the hotel to search for rooms by
+     * @param city
+     *            the name of the city to search for rooms by
+     * @param continuation
+     *            the continuation token of the previous page, or
+     *            {@link RoomPage#FIRST_PAGE} for the first page.
+     * @param pageSize
+     *            the maximum number of rooms to return.
+     * @return the page of rooms following the continuation token.
+     * @throws RemoteException
+     *             when a network error occurs.
+     */
+    RoomPage searchPage(String hotelName, String city, long continuation,
+            int pageSize) throws RemoteException {
+        String[] criteria = { hotelName, city, null, null, null, null, null };
+
+        return this.roomReservations.searchPage(criteria, continuation,
+                pageSize);
+    }
+
+    /**
+     * Register a standing query for the hotel rooms matching the hotel name
+     * and/or city, whose changes the server pushes to a listener.
+     * 
+     * @param hotelName
+     *            the name of the hotel to search for rooms by
+     * @param city
+     *            the name of the city to search for rooms by
+     * @param listener
+     *            the listener to receive the changes to the matching rooms.
+     * @return the ID of the standing query.
+     * @throws RemoteException
+     *             when a network error occurs, or the server cannot call the
+     *             listener back.
+     */
+    long watch(String hotelName, String city, RoomListener listener)
+            throws RemoteException {
+        String[] criteria = { hotelName, city, null, null, null, null, null };
+
+        return this.roomReservations.watch(criteria, export(listener));
+    }
+
+    /**
+     * Remove a standing query.
+     * 
+     * @param watchId
+     *            the ID of the standing query.
+     * @throws RemoteException
+     *             when a network error occurs.
+     */
+    void unwatch(long watchId) throws RemoteException {
+        this.roomReservations.unwatch(watchId);
+    }
+
+    /**
+     * Get the changes to the hotel rooms since a version of a local replica
+     * of them.
+     * 
+     * @param generation
+     *            the generation of the server the replica was last
+     *            synchronized with.
+     * @param version
+     *            the version of the replica.
+     * @return the changes since the version, and the new version.
+     * @throws RemoteException
+     *             when a network error occurs.
+     */
+    RoomChanges sync(long generation, long version) throws RemoteException {
+        return this.roomReservations.sync(generation, version);
+    }
+
     /**
      * Retrieve all the hotel rooms in the reservation system.
      * 
@@ -96,4 +204,26 @@ class RoomReservationsDelegate {
         return search(null, null);
     }
 
+    /*
+     * Get the listener to pass to the server: the listener itself for a
+     * server called locally, or over the binary protocol, which cannot call
+     * back clients; or else a stub for it, exported once to receive calls
+     * from the server over RMI.
+     */
+    private synchronized RoomListener export(RoomListener listener)
+            throws RemoteException {
+        if ((this.roomReservations instanceof URLyBirdReservations)
+                || (this.roomReservations instanceof BinaryRoomReservations)) {
+            return listener;
+        }
+
+        if (listener != this.exportedListener) {
+            this.listenerStub = (RoomListener) UnicastRemoteObject
+                    .exportObject(listener, 0);
+            this.exportedListener = listener;
+        }
+
+        return this.listenerStub;
+    }
+
 }
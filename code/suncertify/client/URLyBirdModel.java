@@ -1,16 +1,55 @@
 package suncertify.client;
 
+import java.io.File;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
+import javax.swing.SwingUtilities;
 import javax.swing.table.AbstractTableModel;
 
 import suncertify.application.Room;
+import suncertify.application.RoomDelta;
+import suncertify.application.RoomPage;
+import suncertify.application.URLyBirdConfiguration;
 import suncertify.db.RecordNotFoundException;
 import suncertify.db.SecurityException;
+import suncertify.server.RoomListener;
+import suncertify.util.ThreadUtil;
 
 /**
  * Model implementation of the room reservation system's MVC design.
+ * <p>
+ * Search results are fetched from the server a page at a time. The first
+ * page is fetched by the search itself, and the model reports as many rows as
+ * the search matched; the other pages are fetched in the background once the
+ * view asks for a row not yet fetched, such as when the user scrolls the
+ * table. Rows not yet fetched are shown empty until their page arrives.
+ * <p>
+ * Each page is kept by column, in arrays indexed by row, so a cell is found
+ * in constant time whatever the number of rows. Only the pages most recently
+ * shown are kept, so memory stays flat as results grow: the least recently
+ * used pages are dropped and fetched again when next shown, starting after
+ * the last room of the page before, whose ID is kept for every page.
+ * <p>
+ * Each search is registered with the server as a standing query, and the
+ * server pushes the changes to the matching rooms as they are made, so the
+ * results stay current without searching again: an updated room is replaced
+ * in its page if kept, while a room added to or removed from the results
+ * forgets the pages from its own onward, to be fetched again when next shown.
+ * When the server cannot push changes, the results are refreshed by searching
+ * again after a booking fails.
+ * <p>
+ * When configured by
+ * {@link suncertify.application.Configuration#getReplicaFilePath()}, the
+ * model keeps a local replica of the rooms, synchronized with the server by
+ * each search, and its pages are read from the replica rather than the
+ * server.
  * 
  * @author Oliver Hernandez
  * 
@@ -24,10 +63,95 @@ public class URLyBirdModel extends AbstractTableModel implements
     private String[] columnNames = { "Hotel Name", "City", "Max Occupancy",
             "Smoking?", "Rate", "Date Available", "Customer ID" };
 
-    private List<Room> rooms;
+    private static final Class<?>[] COLUMN_CLASSES = { String.class,
+            String.class, Integer.class, Boolean.class, String.class,
+            String.class, String.class };
+
+    /*
+     * Number of rooms fetched from the server in each page of search results.
+     */
+    private static final int PAGE_SIZE = 100;
+
+    /*
+     * Number of pages of search results kept, enough for several screens of
+     * rows.
+     */
+    private static final int MAX_PAGES = 20;
+
+    /*
+     * ID of no standing query, and results of applying a change pushed for
+     * a standing query that updated no kept row, or that added or removed a
+     * row.
+     */
+    private static final long NO_WATCH = -1;
+
+    private static final int NO_ROW = -1;
+
+    private static final int ROWS_CHANGED = -2;
+
+    /*
+     * Number of times the first page of a search is read while rooms are
+     * added or removed, before counting them from the changes pushed.
+     */
+    private static final int MAX_FIRST_PAGE_READS = 3;
+
+    /*
+     * The pages of the last search kept, by page number, least recently used
+     * first, or null if there is no search. All search state is guarded by
+     * this model's monitor.
+     */
+    private LinkedHashMap<Integer, RoomColumns> pages;
+
+    /*
+     * Continuation token to fetch each page with, for the pages known so far,
+     * and whether the last page is known.
+     */
+    private long[] pageTokens = new long[0];
+
+    private int numPageTokens;
+
+    private boolean lastPageKnown;
+
+    /*
+     * Number of rooms the last search matched.
+     */
+    private int totalRooms;
+
+    /*
+     * Pages the view asked for that are not kept, most recently asked for
+     * last, and whether they are being fetched.
+     */
+    private LinkedHashSet<Integer> requestedPages =
+        new LinkedHashSet<Integer>();
+
+    private boolean fetching;
+
+    /*
+     * Incremented by each new search, so pages fetched for an earlier search
+     * are discarded.
+     */
+    private int searchNumber;
+
+    /*
+     * ID of the standing query keeping the last search current, or NO_WATCH
+     * while registering it or if the server cannot push changes, and the
+     * changes pushed for it while its first page is read, or null once it
+     * has arrived.
+     */
+    private long watchId = NO_WATCH;
+
+    private List<RoomDelta> earlyDeltas;
+
+    private final SearchWatcher watcher = new SearchWatcher();
 
     private RoomReservationsDelegate delegate;
 
+    /*
+     * The local replica the pages are read from, or null to read them from
+     * the server.
+     */
+    private RoomReplica replica;
+
     private String lastHotelSearched;
 
     private String lastCitySearched;
@@ -48,7 +172,14 @@ public class URLyBirdModel extends AbstractTableModel implements
      * @see RoomReservationsModel#initialize()
      */
     public void initialize() throws RoomReservationsException {
+        String replicaFilePath = URLyBirdConfiguration.getInstance()
+                .getReplicaFilePath();
+
         this.delegate = new RoomReservationsDelegate();
+
+        if ((replicaFilePath != null) && (replicaFilePath.length() > 0)) {
+            this.replica = new RoomReplica(new File(replicaFilePath));
+        }
     }
 
     /**
@@ -63,12 +194,76 @@ public class URLyBirdModel extends AbstractTableModel implements
      */
     public void findRooms(String hotelName, String city)
     throws RemoteException {
-        this.rooms = this.delegate.search(hotelName, city);
-        fireTableDataChanged();
+        long newWatchId;
+        long oldWatchId;
+        RoomPage page;
+
+        /*
+         * buffer the changes pushed from now on, and watch before searching,
+         * so no change is missed in between.
+         */
+
+        synchronized (this) {
+            oldWatchId = this.watchId;
+            this.watchId = NO_WATCH;
+            this.earlyDeltas = new ArrayList<RoomDelta>();
+        }
+
+        newWatchId = watch(hotelName, city);
 
-        // save search parameters for refreshing
-        this.lastHotelSearched = hotelName;
-        this.lastCitySearched = city;
+        synchronized (this) {
+            this.watchId = newWatchId;
+        }
+
+        unwatch(oldWatchId);
+
+        try {
+            if (this.replica != null) {
+                this.replica.sync(this.delegate);
+            }
+
+            page = searchFirstPage(hotelName, city);
+        } catch (RemoteException e) {
+            synchronized (this) {
+                if (this.watchId == newWatchId) {
+                    this.watchId = NO_WATCH;
+                    this.earlyDeltas = null;
+                }
+            }
+
+            unwatch(newWatchId);
+            throw e;
+        }
+
+        synchronized (this) {
+            this.searchNumber++;
+            clearPages();
+            this.pages = newPages();
+            addPageToken(RoomPage.FIRST_PAGE);
+            putPage(0, page);
+
+            // save search parameters for refreshing and fetching pages
+            this.lastHotelSearched = hotelName;
+            this.lastCitySearched = city;
+
+            /*
+             * changes pushed while the page was read may be in it; updates
+             * are applied again harmlessly, and rooms added or removed are
+             * skipped when the page shows them already.
+             */
+
+            if ((this.watchId == newWatchId) && (this.earlyDeltas != null)) {
+                for (RoomDelta delta : this.earlyDeltas) {
+                    if (!shownBy(page, delta)) {
+                        applyDelta(delta);
+                    }
+                }
+
+                this.earlyDeltas = null;
+            }
+        }
+
+        fireTableDataChanged();
     }
 
     /**
@@ -82,32 +277,38 @@ public class URLyBirdModel extends AbstractTableModel implements
      * @see RoomReservationsModel#findAllRooms()
      */
     public void findAllRooms() throws RemoteException {
-        this.rooms = this.delegate.getAllRooms();
-        fireTableDataChanged();
-
-        // save search parameters for refreshing
-        this.lastHotelSearched = null;
-        this.lastCitySearched = null;
+        findRooms(null, null);
     }
 
     /**
      * {@inheritDoc}
      */
     public void reset() {
-        this.rooms = null;
-        this.lastHotelSearched = null;
-        this.lastCitySearched = null;
+        long oldWatchId;
+
+        synchronized (this) {
+            this.searchNumber++;
+            clearPages();
+            this.lastHotelSearched = null;
+            this.lastCitySearched = null;
+            oldWatchId = this.watchId;
+            this.watchId = NO_WATCH;
+            this.earlyDeltas = null;
+        }
+
+        unwatch(oldWatchId);
         fireTableDataChanged();
     }
 
     /**
      * {@inheritDoc}
      */
-    public long getRoomIdAtRow(int rowId) {
+    public synchronized long getRoomIdAtRow(int rowId) {
         long roomId = -1;
+        RoomColumns page = keptPage(rowId);
 
-        if (this.rooms != null) {
-            roomId = this.rooms.get(rowId).getId();
+        if (page != null) {
+            roomId = page.ids[rowId % PAGE_SIZE];
         }
 
         return roomId;
@@ -119,23 +320,38 @@ public class URLyBirdModel extends AbstractTableModel implements
     public boolean bookRoom(int selectedRoom, String customerId)
             throws RemoteException, RecordNotFoundException, SecurityException {
         boolean booked = false;
-        long roomId = this.rooms.get(selectedRoom).getId();
-        String currCustomer = this.rooms.get(selectedRoom).getOwner();
+        RoomColumns page = fetchPage(selectedRoom);
+        int row = selectedRoom % PAGE_SIZE;
+        long roomId;
+        String currCustomer;
+        boolean watched;
+
+        synchronized (this) {
+            roomId = page.ids[row];
+            currCustomer = page.owners[row];
+            watched = (this.watchId != NO_WATCH);
+        }
 
         if (currCustomer == null || currCustomer.isEmpty()) {
             try {
                 booked = this.delegate.book(roomId, customerId);
             } catch (SecurityException e) {
                 // refresh model to display possible other customer that booked
-                // room
-                findRooms(this.lastHotelSearched, this.lastCitySearched);
+                // room, unless the server pushes the change
+                if (!watched) {
+                    findRooms(this.lastHotelSearched, this.lastCitySearched);
+                }
+
                 throw e;
             }
 
             if (booked) {
-                this.rooms.get(selectedRoom).setOwner(customerId);
+                synchronized (this) {
+                    page.owners[row] = customerId;
+                }
+
                 fireTableDataChanged();
-            } else {
+            } else if (!watched) {
                 // refresh model to display last customer that booked room
                 findRooms(this.lastHotelSearched, this.lastCitySearched);
             }
@@ -147,10 +363,14 @@ public class URLyBirdModel extends AbstractTableModel implements
     /**
      * {@inheritDoc}
      */
-    public boolean isRoomBooked(int selectedRoom) {
+    public synchronized boolean isRoomBooked(int selectedRoom) {
         boolean booked = true;
+        RoomColumns page = keptPage(selectedRoom);
 
-        String currCustomer = this.rooms.get(selectedRoom).getOwner();
+        /* a room not yet fetched is checked once it is fetched for booking */
+
+        String currCustomer = (page == null) ? null
+                : page.owners[selectedRoom % PAGE_SIZE];
 
         if (currCustomer == null || currCustomer.isEmpty()) {
             booked = false;
@@ -160,19 +380,13 @@ public class URLyBirdModel extends AbstractTableModel implements
     }
 
     /**
-     * Returns the number of rows of rooms currently in the data returned from
-     * the last search.
+     * Returns the number of rows of rooms matched by the last search, as
+     * last reported by the server.
      * 
      * @see javax.swing.table.TableModel#getRowCount()
      */
-    public int getRowCount() {
-        int numRows = 0;
-
-        if (this.rooms != null) {
-            numRows = this.rooms.size();
-        }
-
-        return numRows;
+    public synchronized int getRowCount() {
+        return (this.pages == null) ? 0 : this.totalRooms;
     }
 
     /**
@@ -202,35 +416,35 @@ public class URLyBirdModel extends AbstractTableModel implements
      * @see javax.swing.table.TableModel#getValueAt(int, int)
      */
     @Override
-    public Object getValueAt(int rowIndex, int columnIndex) {
-        if (this.rooms != null) {
-            for (int i = 0; i < this.rooms.size(); i++) {
-                if (i == rowIndex) {
-                    switch (columnIndex) {
-                    case 0:
-                        return this.rooms.get(i).getHotelName();
-                    case 1:
-                        return this.rooms.get(i).getCity();
-                    case 2:
-                        return this.rooms.get(i).getMaxOccupancy();
-                    case 3:
-                        return this.rooms.get(i).getSmoking();
-                    case 4:
-                        return this.rooms.get(i).getRate();
-                    case 5:
-                        return this.rooms.get(i).getDate();
-                    case 6:
-                        return this.rooms.get(i).getOwner();
-                    }
+    public synchronized Object getValueAt(int rowIndex, int columnIndex) {
+        RoomColumns page = keptPage(rowIndex);
 
-                    return null;
-                }
-            }
+        if (page == null) {
+            requestPage(rowIndex / PAGE_SIZE);
 
             return null;
-        } else {
-            return null;
         }
+
+        int row = rowIndex % PAGE_SIZE;
+
+        switch (columnIndex) {
+        case 0:
+            return page.hotelNames[row];
+        case 1:
+            return page.cities[row];
+        case 2:
+            return page.maxOccupancies[row];
+        case 3:
+            return page.smoking[row];
+        case 4:
+            return page.rates[row];
+        case 5:
+            return page.dates[row];
+        case 6:
+            return page.owners[row];
+        }
+
+        return null;
     }
 
     /**
@@ -238,10 +452,601 @@ public class URLyBirdModel extends AbstractTableModel implements
      * 
      * @see javax.swing.table.TableModel#getColumnClass(int)
      */
-    @SuppressWarnings("unchecked")
     @Override
-    public Class getColumnClass(int c) {
-        return getValueAt(0, c).getClass();
+    public Class<?> getColumnClass(int c) {
+        return COLUMN_CLASSES[c];
+    }
+
+    /*
+     * Get the page holding a row if it is kept and holds the row, or null.
+     * Must be called while holding this model's monitor.
+     */
+    private RoomColumns keptPage(int rowIndex) {
+        if ((this.pages == null) || (rowIndex < 0)) {
+            return null;
+        }
+
+        RoomColumns page = this.pages.get(rowIndex / PAGE_SIZE);
+
+        if ((page != null) && ((rowIndex % PAGE_SIZE) < page.ids.length)) {
+            return page;
+        }
+
+        return null;
+    }
+
+    /*
+     * Get the page holding a row, fetching it, and the pages before it not
+     * known yet, first if needed. Must not be called from the Swing Event
+     * Dispatcher Thread.
+     */
+    private RoomColumns fetchPage(int rowIndex) throws RemoteException,
+            RecordNotFoundException {
+        int search;
+        int pageNo;
+        long token;
+        String hotelName;
+        String city;
+        RoomPage page;
+
+        while (true) {
+            synchronized (this) {
+                RoomColumns kept = keptPage(rowIndex);
+
+                if (kept != null) {
+                    return kept;
+                }
+
+                pageNo = (this.pages == null) ? -1
+                        : pageToFetch(rowIndex / PAGE_SIZE);
+
+                if ((pageNo < 0) || this.pages.containsKey(pageNo)) {
+                    throw new RecordNotFoundException("Room at row "
+                            + rowIndex + " is no longer available.");
+                }
+
+                search = this.searchNumber;
+                token = this.pageTokens[pageNo];
+                hotelName = this.lastHotelSearched;
+                city = this.lastCitySearched;
+            }
+
+            page = searchPage(hotelName, city, token);
+            addPage(search, pageNo, token, page);
+        }
+    }
+
+    /*
+     * Get the number of the page to fetch next to reach a page: the page
+     * itself if its continuation token is known, or else the last page known,
+     * which gives the token of the page after it. Returns -1 if the page is
+     * past the last page. Must be called while holding this model's monitor.
+     */
+    private int pageToFetch(int pageNo) {
+        if (pageNo < this.numPageTokens) {
+            return pageNo;
+        } else if (this.lastPageKnown) {
+            return -1;
+        }
+
+        return this.numPageTokens - 1;
+    }
+
+    /*
+     * Note that the view asked for a page not kept, and start fetching the
+     * pages asked for in the background unless already doing so. Only the
+     * pages most recently asked for are remembered. Must be called while
+     * holding this model's monitor.
+     */
+    private void requestPage(int pageNo) {
+        if (this.pages == null) {
+            return;
+        }
+
+        this.requestedPages.remove(pageNo);
+        this.requestedPages.add(pageNo);
+
+        if (this.requestedPages.size() > MAX_PAGES) {
+            Iterator<Integer> eldest = this.requestedPages.iterator();
+
+            eldest.next();
+            eldest.remove();
+        }
+
+        if (!this.fetching) {
+            this.fetching = true;
+            new PageFetchThread().start();
+        }
+    }
+
+    /*
+     * Get the number of the page to fetch next toward the page most recently
+     * asked for by the view, forgetting the pages kept or past the last page
+     * meanwhile. Returns -1 if there is none. Must be called while holding
+     * this model's monitor.
+     */
+    private int nextRequestedFetch() {
+        Integer[] requested = this.requestedPages.toArray(
+                new Integer[this.requestedPages.size()]);
+        int pageNo;
+
+        for (int currPage = requested.length - 1; currPage >= 0; currPage--) {
+            pageNo = pageToFetch(requested[currPage]);
+
+            if ((pageNo >= 0) && !this.pages.containsKey(pageNo)) {
+                return pageNo;
+            }
+
+            this.requestedPages.remove(requested[currPage]);
+        }
+
+        return -1;
+    }
+
+    /*
+     * Add a fetched page to the search it was fetched for, unless a new
+     * search started or the page's continuation token changed meanwhile, and
+     * notify the view of the new rows on the Swing Event Dispatcher Thread.
+     */
+    private void addPage(int search, int pageNo, long token, RoomPage page) {
+        final boolean resized;
+        final int firstRow = pageNo * PAGE_SIZE;
+        final int lastRow;
+
+        synchronized (this) {
+            if ((search != this.searchNumber)
+                    || (pageNo >= this.numPageTokens)
+                    || (token != this.pageTokens[pageNo])) {
+                return;
+            }
+
+            int oldTotal = this.totalRooms;
+
+            resized = putPage(pageNo, page) || (oldTotal != this.totalRooms);
+            lastRow = Math.min(firstRow + PAGE_SIZE, this.totalRooms) - 1;
+        }
+
+        SwingUtilities.invokeLater(new Runnable() {
+
+            public void run() {
+                if (resized) {
+                    fireTableDataChanged();
+                } else if (lastRow >= firstRow) {
+                    fireTableRowsUpdated(firstRow, lastRow);
+                }
+            }
+        });
+    }
+
+    /*
+     * Keep a fetched page of the current search, with the number of rooms it
+     * tells the search matched, and record the continuation token of the
+     * page after it. When the token differs from the one known,
+     * rooms were added or removed meanwhile, so the pages after it are
+     * forgotten. Returns whether they were. Must be called while holding
+     * this model's monitor.
+     */
+    private boolean putPage(int pageNo, RoomPage page) {
+        long continuation = page.getContinuation();
+        boolean forgot = false;
+        int nextPage = pageNo + 1;
+
+        this.pages.put(pageNo, new RoomColumns(page.getRooms()));
+
+        /*
+         * only the first page counts the rooms matched, but the last page
+         * tells how many there are, as every page before it is full.
+         */
+
+        if (page.getTotalCount() != RoomPage.UNKNOWN_COUNT) {
+            this.totalRooms = page.getTotalCount();
+        } else if (continuation == RoomPage.FIRST_PAGE) {
+            this.totalRooms = pageNo * PAGE_SIZE + page.getRooms().size();
+        }
+
+        if ((nextPage < this.numPageTokens)
+                && ((continuation == RoomPage.FIRST_PAGE)
+                        || (continuation != this.pageTokens[nextPage]))) {
+            this.numPageTokens = nextPage;
+            this.lastPageKnown = false;
+            forgot = true;
+
+            Iterator<Integer> kept = this.pages.keySet().iterator();
+
+            while (kept.hasNext()) {
+                if (kept.next() > pageNo) {
+                    kept.remove();
+                }
+            }
+        }
+
+        if (continuation == RoomPage.FIRST_PAGE) {
+            this.lastPageKnown = true;
+        } else if (nextPage == this.numPageTokens) {
+            addPageToken(continuation);
+        }
+
+        return forgot;
+    }
+
+    /*
+     * Record the continuation token of the next page. Must be called while
+     * holding this model's monitor.
+     */
+    private void addPageToken(long token) {
+        if (this.numPageTokens == this.pageTokens.length) {
+            this.pageTokens = Arrays.copyOf(this.pageTokens, Math.max(16,
+                    this.numPageTokens * 2));
+        }
+
+        this.pageTokens[this.numPageTokens++] = token;
+    }
+
+    /*
+     * Read the first page of a search while buffering the changes pushed for
+     * its standing query. The changes pushed before the page is read are in
+     * it, so they are discarded. A room added or removed while the page is
+     * read may or may not be counted by it, so unless the page shows it, the
+     * page is read again, up to a few times.
+     */
+    private RoomPage searchFirstPage(String hotelName, String city)
+            throws RemoteException {
+        RoomPage page;
+
+        for (int currRead = 1; true; currRead++) {
+            synchronized (this) {
+                this.earlyDeltas.clear();
+            }
+
+            page = searchPage(hotelName, city, RoomPage.FIRST_PAGE);
+
+            synchronized (this) {
+                if ((currRead == MAX_FIRST_PAGE_READS)
+                        || !changesRows(page, this.earlyDeltas)) {
+                    return page;
+                }
+            }
+        }
+    }
+
+    /*
+     * Determine if a page already shows a room added or removed: an added room
+     * is in it, or a removed room is missing from the span of rooms it covers.
+     * Rooms past the end of a page that is not the last cannot be told apart,
+     * so they are never taken as shown.
+     */
+    private static boolean shownBy(RoomPage page, RoomDelta delta) {
+        List<Room> rooms = page.getRooms();
+        long roomId = delta.getRoom().getId();
+        boolean inPage = false;
+
+        if (delta.getType() == RoomDelta.Type.UPDATE) {
+            return false;
+        }
+
+        for (Room currRoom : rooms) {
+            if (currRoom.getId() == roomId) {
+                inPage = true;
+                break;
+            }
+        }
+
+        if (delta.getType() == RoomDelta.Type.INSERT) {
+            return inPage;
+        }
+
+        return !inPage
+                && ((page.getContinuation() == RoomPage.FIRST_PAGE)
+                        || (!rooms.isEmpty() && (roomId < rooms.get(
+                                rooms.size() - 1).getId())));
+    }
+
+    /*
+     * Determine if any of the changes adds or removes a room that a page does
+     * not show already.
+     */
+    private static boolean changesRows(RoomPage page, List<RoomDelta> deltas) {
+        for (RoomDelta delta : deltas) {
+            if ((delta.getType() != RoomDelta.Type.UPDATE)
+                    && !shownBy(page, delta)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * Search for a page of rooms in the local replica, if any, or else on the
+     * server.
+     */
+    private RoomPage searchPage(String hotelName, String city,
+            long continuation) throws RemoteException {
+        if (this.replica != null) {
+            return this.replica.searchPage(hotelName, city, continuation,
+                    PAGE_SIZE);
+        }
+
+        return this.delegate.searchPage(hotelName, city, continuation,
+                PAGE_SIZE);
+    }
+
+    /*
+     * Register a standing query for a search, returning its ID, or NO_WATCH
+     * if the server cannot push changes.
+     */
+    private long watch(String hotelName, String city) {
+        try {
+            return this.delegate.watch(hotelName, city, this.watcher);
+        } catch (RemoteException e) {
+            return NO_WATCH; // refresh the results by searching again
+        }
+    }
+
+    /*
+     * Remove a standing query, if any.
+     */
+    private void unwatch(long oldWatchId) {
+        if (oldWatchId != NO_WATCH) {
+            try {
+                this.delegate.unwatch(oldWatchId);
+            } catch (RemoteException e) {
+                // the server removes it once it cannot push changes
+            }
+        }
+    }
+
+    /*
+     * Apply a change pushed for the standing query of the current search. An
+     * updated room is replaced in its page if kept, returning its row, or
+     * NO_ROW if not kept. A room added or removed shifts the rows after it,
+     * so the pages from its own onward are forgotten, returning ROWS_CHANGED.
+     * Must be called while holding this model's monitor.
+     */
+    private int applyDelta(RoomDelta delta) {
+        Room room = delta.getRoom();
+        int row;
+
+        if (delta.getType() == RoomDelta.Type.UPDATE) {
+            for (Map.Entry<Integer, RoomColumns> kept : this.pages.entrySet()) {
+                row = Arrays.binarySearch(kept.getValue().ids, room.getId());
+
+                if (row >= 0) {
+                    kept.getValue().set(row, room);
+                    return kept.getKey() * PAGE_SIZE + row;
+                }
+            }
+
+            return NO_ROW;
+        }
+
+        /* the room belongs to the page after the last token before it */
+
+        int pageNo = Arrays.binarySearch(this.pageTokens, 0,
+                this.numPageTokens, room.getId());
+
+        pageNo = ((pageNo >= 0) ? pageNo : -(pageNo + 1)) - 1;
+
+        if (delta.getType() == RoomDelta.Type.INSERT) {
+            this.totalRooms++;
+        } else if (this.totalRooms > 0) {
+            this.totalRooms--;
+        }
+
+        this.numPageTokens = Math.max(1, pageNo + 1);
+        this.lastPageKnown = false;
+
+        Iterator<Integer> kept = this.pages.keySet().iterator();
+
+        while (kept.hasNext()) {
+            if (kept.next() >= pageNo) {
+                kept.remove();
+            }
+        }
+
+        return ROWS_CHANGED;
+    }
+
+    /*
+     * Forget the pages of the last search. Must be called while holding this
+     * model's monitor.
+     */
+    private void clearPages() {
+        this.pages = null;
+        this.pageTokens = new long[0];
+        this.numPageTokens = 0;
+        this.lastPageKnown = false;
+        this.totalRooms = 0;
+        this.requestedPages.clear();
+    }
+
+    /*
+     * Create the map of the pages kept, dropping the least recently used page
+     * once more than the maximum are kept.
+     */
+    private static LinkedHashMap<Integer, RoomColumns> newPages() {
+        return new LinkedHashMap<Integer, RoomColumns>(MAX_PAGES * 2, 0.75f,
+                true) {
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Integer, RoomColumns> eldest) {
+                return size() > MAX_PAGES;
+            }
+        };
+    }
+
+    /*
+     * A page of rooms, stored by column.
+     */
+    private static class RoomColumns {
+
+        final long[] ids;
+
+        final String[] hotelNames;
+
+        final String[] cities;
+
+        final int[] maxOccupancies;
+
+        final boolean[] smoking;
+
+        final String[] rates;
+
+        final String[] dates;
+
+        final String[] owners;
+
+        RoomColumns(List<Room> rooms) {
+            int numRooms = rooms.size();
+
+            this.ids = new long[numRooms];
+            this.hotelNames = new String[numRooms];
+            this.cities = new String[numRooms];
+            this.maxOccupancies = new int[numRooms];
+            this.smoking = new boolean[numRooms];
+            this.rates = new String[numRooms];
+            this.dates = new String[numRooms];
+            this.owners = new String[numRooms];
+
+            for (int currRoom = 0; currRoom < numRooms; currRoom++) {
+                set(currRoom, rooms.get(currRoom));
+            }
+        }
+
+        void set(int row, Room room) {
+            this.ids[row] = room.getId();
+            this.hotelNames[row] = room.getHotelName();
+            this.cities[row] = room.getCity();
+            this.maxOccupancies[row] = room.getMaxOccupancy();
+            this.smoking[row] = room.getSmoking();
+            this.rates[row] = room.getRate();
+            this.dates[row] = room.getDate();
+            this.owners[row] = room.getOwner();
+        }
+
+    }
+
+    /*
+     * Listener receiving the changes pushed for the standing query of the
+     * current search, and notifying the view of them on the Swing Event
+     * Dispatcher Thread.
+     */
+    private class SearchWatcher implements RoomListener {
+
+        public void roomsChanged(long changedWatchId, RoomDelta[] deltas) {
+            int firstRow = Integer.MAX_VALUE;
+            int lastRow = -1;
+            boolean resized = false;
+            boolean current;
+            int row;
+
+            /*
+             * pages fetched again are read from the changed replica; the
+             * changes pushed while registering are read by its next sync.
+             */
+
+            if (replica != null) {
+                synchronized (URLyBirdModel.this) {
+                    current = (changedWatchId == watchId);
+                }
+
+                for (int currDelta = 0; current && (currDelta < deltas.length);
+                currDelta++) {
+                    replica.apply(deltas[currDelta]);
+                }
+            }
+
+            synchronized (URLyBirdModel.this) {
+                if ((earlyDeltas != null)
+                        && ((watchId == NO_WATCH)
+                                || (changedWatchId == watchId))) {
+                    earlyDeltas.addAll(Arrays.asList(deltas));
+                    return;
+                } else if (changedWatchId != watchId) {
+                    return;
+                }
+
+                for (RoomDelta delta : deltas) {
+                    row = applyDelta(delta);
+
+                    if (row == ROWS_CHANGED) {
+                        resized = true;
+                    } else if (row != NO_ROW) {
+                        firstRow = Math.min(firstRow, row);
+                        lastRow = Math.max(lastRow, row);
+                    }
+                }
+            }
+
+            notifyChanged(resized, firstRow, lastRow);
+        }
+
+        private void notifyChanged(final boolean resized, final int firstRow,
+                final int lastRow) {
+            SwingUtilities.invokeLater(new Runnable() {
+
+                public void run() {
+                    if (resized) {
+                        fireTableDataChanged();
+                    } else if (lastRow >= firstRow) {
+                        fireTableRowsUpdated(firstRow, lastRow);
+                    }
+                }
+            });
+        }
+    }
+
+    /*
+     * Thread fetching the pages the view asked for in the background, for
+     * the current search.
+     */
+    private class PageFetchThread implements Runnable {
+
+        void start() {
+            Thread thread = ThreadUtil.newThread(this, "PageFetch",
+                    URLyBirdConfiguration.getInstance().isVirtualThreads());
+
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            int search;
+            int pageNo;
+            long token;
+            String hotelName;
+            String city;
+
+            try {
+                while (true) {
+                    synchronized (URLyBirdModel.this) {
+                        search = searchNumber;
+                        pageNo = nextRequestedFetch();
+
+                        if (pageNo < 0) {
+                            fetching = false;
+                            return;
+                        }
+
+                        token = pageTokens[pageNo];
+                        hotelName = lastHotelSearched;
+                        city = lastCitySearched;
+                    }
+
+                    addPage(search, pageNo, token, searchPage(hotelName,
+                            city, token));
+                }
+            } catch (RemoteException e) {
+                // leave the rows empty; they are fetched again when next shown
+
+                synchronized (URLyBirdModel.this) {
+                    requestedPages.clear();
+                    fetching = false;
+                }
+            }
+        }
     }
 
 }
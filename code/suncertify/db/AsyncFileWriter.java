@@ -1,12 +1,30 @@
 package suncertify.db;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * An asynchronous process for writing to the database file. Database write
  * operations are instances of {@link AsyncFileWriterTask} objects, and are
  * queued to this process to be executed in a separate thread.
+ * <p>
+ * Operations are committed in groups: the process takes every operation
+ * queued while the previous group was being written, waiting up to a
+ * configurable latency for more to arrive, and commits them as a single
+ * {@link WriteBatch}, so that the file is forced to the storage device once
+ * per group rather than once per operation.
+ * <p>
+ * When a {@link WriteAheadLog} is used, each group is first appended to the
+ * log and forced to the storage device, at which point the threads waiting
+ * for its operations are released; the group is then written to the database
+ * file without forcing it. The database file is only forced, and the log
+ * emptied, once the log grows past its checkpoint size or the database is
+ * closed.
  * 
  * @author Oliver Hernandez
  * 
@@ -15,11 +33,51 @@ class AsyncFileWriter implements Runnable {
 
     private LinkedBlockingQueue<AsyncFileWriterTask> tasks;
 
+    private int maxBatchSize;
+
+    private long maxBatchLatency;
+
+    private volatile WriteAheadLog log;
+
+    private volatile boolean running;
+
+    /*
+     * Guards whether queued operations are logged, and signals threads
+     * waiting for them.
+     */
+    private final ReentrantLock loggedLock;
+
+    private final Condition operationsLogged;
+
     /**
      * Constructs an <code>AsyncFileWriter</code> process.
+     * 
+     * @param maxBatchSize
+     *            the maximum number of operations committed together.
+     * @param maxBatchLatency
+     *            the maximum time, in milliseconds, to wait for more
+     *            operations once one is queued, before committing them.
      */
-    AsyncFileWriter() {
+    AsyncFileWriter(int maxBatchSize, long maxBatchLatency) {
         this.tasks = new LinkedBlockingQueue<AsyncFileWriterTask>();
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxBatchLatency = TimeUnit.MILLISECONDS.toNanos(Math.max(0,
+                maxBatchLatency));
+        this.loggedLock = new ReentrantLock();
+        this.operationsLogged = this.loggedLock.newCondition();
+    }
+
+    /**
+     * Prepare the process to write to a newly opened database file. Must be
+     * called before the process is started.
+     * 
+     * @param writeAheadLog
+     *            the log to write operations to before the database file, or
+     *            <code>null</code> to write them to the database file only.
+     */
+    void open(WriteAheadLog writeAheadLog) {
+        this.log = writeAheadLog;
+        this.running = true;
     }
 
     /**
@@ -32,20 +90,56 @@ class AsyncFileWriter implements Runnable {
         this.tasks.add(task);
     }
 
+    /**
+     * Wait until a queued operation is durable in the write-ahead log. Returns
+     * immediately when no log is used, or once the process stops.
+     * 
+     * @param task
+     *            the queued operation, or <code>null</code> for none.
+     */
+    void awaitLogged(AsyncFileWriterTask task) {
+        if ((task == null) || (this.log == null)) {
+            return;
+        }
+
+        this.loggedLock.lock();
+
+        try {
+            while (!task.isLogged() && this.running) {
+                this.operationsLogged.awaitUninterruptibly();
+            }
+        } finally {
+            this.loggedLock.unlock();
+        }
+    }
+
     /**
      * Execute database write operations queued to this process.
      */
     public void run() {
-        AsyncFileWriterTask task;
+        ArrayList<AsyncFileWriterTask> group =
+            new ArrayList<AsyncFileWriterTask>(this.maxBatchSize);
+        WriteBatch batch = new WriteBatch();
+        EndFileWritingTask end = null;
 
-        while (true) {
+        while (end == null) {
             try {
-                task = this.tasks.take();
-                task.execute();
+                group.add(this.tasks.take());
+                collect(group);
 
-                if (task instanceof EndFileWritingTask) {
-                    this.tasks.clear(); // clear queue since database is closed
-                    break;
+                for (AsyncFileWriterTask task : group) {
+                    if (task instanceof EndFileWritingTask) {
+                        end = (EndFileWritingTask) task;
+                        break;
+                    }
+
+                    batch.add(task);
+                }
+
+                commit(batch, group);
+
+                if (end != null) {
+                    close(end);
                 }
             } catch (InterruptedException e) {
                 // ignore and try again
@@ -53,7 +147,113 @@ class AsyncFileWriter implements Runnable {
                 // shutdown the server on any database file IO error.
                 e.printStackTrace();
                 System.exit(-1);
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    /*
+     * Commit a batch of operations, logging it first when a write-ahead log is
+     * used, and checkpoint the log once it grows too large.
+     */
+    private void commit(WriteBatch batch, List<AsyncFileWriterTask> group)
+            throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        if (this.log == null) {
+            batch.commit(true);
+        } else {
+            DatabaseFile file = group.get(0).getFile();
+
+            batch.log(this.log);
+            markLogged(group);
+            batch.commit(false);
+
+            if (this.log.length() >= WriteAheadLog.CHECKPOINT_SIZE) {
+                file.force();
+                this.log.reset();
+            }
+        }
+    }
+
+    /*
+     * Mark a group of operations as logged and wake the threads waiting for
+     * them.
+     */
+    private void markLogged(List<AsyncFileWriterTask> group) {
+        this.loggedLock.lock();
+
+        try {
+            for (AsyncFileWriterTask task : group) {
+                task.setLogged();
             }
+
+            this.operationsLogged.signalAll();
+        } finally {
+            this.loggedLock.unlock();
+        }
+    }
+
+    /*
+     * Close the database file, which makes every write durable in it, then
+     * empty and close the log, and stop the process.
+     */
+    private void close(EndFileWritingTask end) throws IOException {
+        end.execute();
+
+        if (this.log != null) {
+            this.log.reset();
+            this.log.close();
+        }
+
+        this.tasks.clear(); // database is closed
+
+        this.loggedLock.lock();
+
+        try {
+            this.running = false;
+            this.operationsLogged.signalAll();
+        } finally {
+            this.loggedLock.unlock();
+        }
+    }
+
+    /*
+     * Add queued operations to the group, up to the maximum batch size,
+     * waiting up to the maximum latency for more to arrive. Stops early once
+     * the database is being closed.
+     */
+    private void collect(ArrayList<AsyncFileWriterTask> group) {
+        long deadline = System.nanoTime() + this.maxBatchLatency;
+        long remaining;
+        AsyncFileWriterTask task;
+
+        this.tasks.drainTo(group, this.maxBatchSize - group.size());
+
+        while ((group.size() < this.maxBatchSize)
+                && !(group.get(group.size() - 1)
+                        instanceof EndFileWritingTask)) {
+            remaining = deadline - System.nanoTime();
+
+            if (remaining <= 0) {
+                break;
+            }
+
+            try {
+                task = this.tasks.poll(remaining, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            if (task == null) {
+                break;
+            }
+
+            group.add(task);
+            this.tasks.drainTo(group, this.maxBatchSize - group.size());
         }
     }
 
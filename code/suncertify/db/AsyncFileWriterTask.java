@@ -1,21 +1,28 @@
 package suncertify.db;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 
 /**
  * A database file write operation to be queued to an {@link AsyncFileWriter}
- * for later execution in a separate thread.
+ * for later execution in a separate thread. Each operation encodes the bytes
+ * it writes at its offset in the file, so that the writer can merge the
+ * operations of a batch before writing them.
  * 
  * @author Oliver Hernandez
  * 
  */
 abstract class AsyncFileWriterTask {
 
-    protected RandomAccessFile dbFile;
+    protected DatabaseFile dbFile;
 
     protected long fileOffset;
 
+    /*
+     * Whether the operation is durable in the write-ahead log; guarded by the
+     * AsyncFileWriter the operation is queued to.
+     */
+    private boolean logged;
+
     /**
      * Constructs a new database write operation for the specified database file
      * at the specified location within the file.
@@ -25,17 +32,63 @@ abstract class AsyncFileWriterTask {
      * @param offset
      *            number of bytes into the file to begin writing at.
      */
-    AsyncFileWriterTask(RandomAccessFile file, long offset) {
+    AsyncFileWriterTask(DatabaseFile file, long offset) {
         this.dbFile = file;
         this.fileOffset = offset;
     }
 
     /**
-     * Execute the database write operation.
+     * Get the database file this operation writes to.
+     * 
+     * @return the database file.
+     */
+    DatabaseFile getFile() {
+        return this.dbFile;
+    }
+
+    /**
+     * Get the location within the database file this operation writes at.
+     * 
+     * @return the number of bytes into the file to begin writing at.
+     */
+    long getFileOffset() {
+        return this.fileOffset;
+    }
+
+    /**
+     * Determine if the operation is durable in the write-ahead log.
+     * 
+     * @return <code>true</code> if the operation is logged.
+     */
+    boolean isLogged() {
+        return this.logged;
+    }
+
+    /**
+     * Mark the operation as durable in the write-ahead log.
+     */
+    void setLogged() {
+        this.logged = true;
+    }
+
+    /**
+     * Get the length the database file must have before this operation is
+     * written. By default operations write within the existing file.
+     * 
+     * @return the minimum file length, or 0 if the file need not grow.
+     */
+    long getRequiredLength() {
+        return 0;
+    }
+
+    /**
+     * Encode the bytes this operation writes at its offset into the database
+     * file.
      * 
+     * @return the bytes to write.
      * @throws IOException
-     *             when an error occurs writing to the database file.
+     *             when the bytes cannot be encoded.
      */
-    abstract void execute() throws IOException;
+    abstract byte[] encode() throws IOException;
 
 }
@@ -0,0 +1,408 @@
+package suncertify.db;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link RecordStore} holding the fields of the records as raw bytes, laid
+ * out by column in memory outside the Java heap. Fields are kept exactly as
+ * they are written to the database file, padded with spaces and truncated to
+ * their fixed length, and are only decoded to <code>String</code> objects
+ * when a record is read. Searches compare the criteria against the field
+ * bytes directly, scanning one column at a time, so no objects are created
+ * for records that do not match.
+ * <p>
+ * Records are kept in fixed size chunks which never move once allocated, each
+ * holding a block of records and guarded by its own read/write lock, so a
+ * search sees every record either before or after a change to it.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class ColumnarRecordStore implements RecordStore {
+
+    private static final int CHUNK_SHIFT = 10;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /*
+     * Length of each field, and the offset of the field within the encoded
+     * form of a record.
+     */
+    private final int[] fieldLengths;
+
+    private final int[] fieldOffsets;
+
+    private final int fieldsLength;
+
+    private volatile Chunk[] chunks;
+
+    private volatile int size;
+
+    /**
+     * Constructs an empty store for records of the current schema, described
+     * by {@link Record#fieldLengths}.
+     */
+    ColumnarRecordStore() {
+        this.fieldLengths = Record.fieldLengths.clone();
+        this.fieldOffsets = new int[this.fieldLengths.length];
+
+        int offset = 0;
+
+        for (int currField = 0; currField < this.fieldLengths.length;
+        currField++) {
+            this.fieldOffsets[currField] = offset;
+            offset += this.fieldLengths[currField];
+        }
+
+        this.fieldsLength = offset;
+        this.chunks = new Chunk[0];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int add(long filePosition, int status, byte[] buffer, int offset) {
+        int recNo = this.size;
+
+        grow(recNo + 1);
+        load(recNo, filePosition, status, buffer, offset);
+        this.size = recNo + 1;
+
+        return recNo;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void allocate(int numRecords) {
+        grow(numRecords);
+        this.size = Math.max(this.size, numRecords);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void load(int recNo, long filePosition, int status, byte[] buffer,
+            int offset) {
+        Chunk chunk = chunk(recNo);
+        int slot = recNo & CHUNK_MASK;
+
+        chunk.lock.writeLock().lock();
+
+        try {
+            chunk.filePositions[slot] = filePosition;
+            chunk.statuses[slot] = status;
+            putFields(chunk, slot, buffer, offset);
+        } finally {
+            chunk.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int add(long filePosition, int status, String[] fields) {
+        byte[] buffer = new byte[this.fieldsLength];
+
+        Record.encodeFields(fields, buffer, 0);
+
+        return add(filePosition, status, buffer, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getStatus(int recNo) {
+        Chunk chunk = chunk(recNo);
+
+        chunk.lock.readLock().lock();
+
+        try {
+            return chunk.statuses[recNo & CHUNK_MASK];
+        } finally {
+            chunk.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setStatus(int recNo, int status) {
+        Chunk chunk = chunk(recNo);
+
+        chunk.lock.writeLock().lock();
+
+        try {
+            chunk.statuses[recNo & CHUNK_MASK] = status;
+        } finally {
+            chunk.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getFields(int recNo) {
+        String[] fields = new String[this.fieldLengths.length];
+
+        readFields(recNo, fields);
+
+        return fields;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void readFields(int recNo, String[] fields) {
+        Chunk chunk = chunk(recNo);
+        int slot = recNo & CHUNK_MASK;
+        byte[] buffer = new byte[this.fieldsLength];
+
+        chunk.lock.readLock().lock();
+
+        try {
+            ByteBuffer columns = chunk.columns.duplicate();
+
+            for (int currField = 0; currField < this.fieldLengths.length;
+            currField++) {
+                columns.position(fieldPosition(currField, slot));
+                columns.get(buffer, this.fieldOffsets[currField],
+                        this.fieldLengths[currField]);
+            }
+        } finally {
+            chunk.lock.readLock().unlock();
+        }
+
+        /* decode the fields only once the chunk is unlocked */
+
+        for (int currField = 0; currField < this.fieldLengths.length;
+        currField++) {
+            fields[currField] = new String(buffer,
+                    this.fieldOffsets[currField],
+                    this.fieldLengths[currField], Record.FIELD_CHARSET);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setFields(int recNo, String[] fields) {
+        Chunk chunk = chunk(recNo);
+        byte[] buffer = new byte[this.fieldsLength];
+
+        Record.encodeFields(fields, buffer, 0);
+
+        chunk.lock.writeLock().lock();
+
+        try {
+            putFields(chunk, recNo & CHUNK_MASK, buffer, 0);
+        } finally {
+            chunk.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getFilePosition(int recNo) {
+        Chunk chunk = chunk(recNo);
+
+        chunk.lock.readLock().lock();
+
+        try {
+            return chunk.filePositions[recNo & CHUNK_MASK];
+        } finally {
+            chunk.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long[] find(String[] criteria) {
+        int numRecords = this.size;
+        Chunk[] searchChunks = this.chunks;
+        long[] results = new long[16];
+        int numResults = 0;
+        byte[][] searchFields = new byte[this.fieldLengths.length][];
+        boolean[] matches = new boolean[CHUNK_SIZE];
+        int chunkStart;
+        int chunkLength;
+
+        /*
+         * encode the criteria once; a criterion longer than its field can
+         * never match.
+         */
+
+        for (int currField = 0; currField < this.fieldLengths.length;
+        currField++) {
+            if (criteria[currField] != null) {
+                searchFields[currField] = criteria[currField]
+                        .getBytes(Record.FIELD_CHARSET);
+
+                if (searchFields[currField].length
+                        > this.fieldLengths[currField]) {
+                    return new long[0];
+                }
+            }
+        }
+
+        for (int currChunk = 0; (currChunk << CHUNK_SHIFT) < numRecords;
+        currChunk++) {
+            Chunk chunk = searchChunks[currChunk];
+            chunkStart = currChunk << CHUNK_SHIFT;
+            chunkLength = Math.min(CHUNK_SIZE, numRecords - chunkStart);
+
+            chunk.lock.readLock().lock();
+
+            try {
+                for (int currSlot = 0; currSlot < chunkLength; currSlot++) {
+                    matches[currSlot] =
+                        (chunk.statuses[currSlot] == Record.VALID);
+                }
+
+                /* narrow down the matches one column at a time */
+
+                for (int currField = 0; currField < this.fieldLengths.length;
+                currField++) {
+                    if (searchFields[currField] != null) {
+                        matchColumn(chunk, currField, searchFields[currField],
+                                matches, chunkLength);
+                    }
+                }
+            } finally {
+                chunk.lock.readLock().unlock();
+            }
+
+            for (int currSlot = 0; currSlot < chunkLength; currSlot++) {
+                if (matches[currSlot]) {
+                    if (numResults == results.length) {
+                        results = Arrays.copyOf(results, numResults * 2);
+                    }
+
+                    results[numResults++] = chunkStart + currSlot;
+                }
+            }
+        }
+
+        return Arrays.copyOf(results, numResults);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clear() {
+        this.size = 0;
+        this.chunks = new Chunk[0];
+    }
+
+    /*
+     * Clear the matches of the records in a chunk whose value of a field does
+     * not begin with the specified bytes.
+     */
+    private void matchColumn(Chunk chunk, int field, byte[] searchField,
+            boolean[] matches, int chunkLength) {
+        ByteBuffer columns = chunk.columns;
+        int position;
+
+        for (int currSlot = 0; currSlot < chunkLength; currSlot++) {
+            if (matches[currSlot]) {
+                position = fieldPosition(field, currSlot);
+
+                for (int currByte = 0; currByte < searchField.length;
+                currByte++) {
+                    if (columns.get(position + currByte)
+                            != searchField[currByte]) {
+                        matches[currSlot] = false;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Copy the encoded fields of a record into its slot in a chunk. Must be
+     * called while holding the chunk's write lock.
+     */
+    private void putFields(Chunk chunk, int slot, byte[] buffer, int offset) {
+        ByteBuffer columns = chunk.columns.duplicate();
+
+        for (int currField = 0; currField < this.fieldLengths.length;
+        currField++) {
+            columns.position(fieldPosition(currField, slot));
+            columns.put(buffer, offset + this.fieldOffsets[currField],
+                    this.fieldLengths[currField]);
+        }
+    }
+
+    /*
+     * Get the position within a chunk's columns of a field of the record in
+     * the specified slot. Each column holds the values of one field for all
+     * the records of the chunk.
+     */
+    private int fieldPosition(int field, int slot) {
+        return (this.fieldOffsets[field] << CHUNK_SHIFT)
+                + (slot * this.fieldLengths[field]);
+    }
+
+    /*
+     * Allocate the chunks needed to hold the specified number of records.
+     */
+    private void grow(int numRecords) {
+        int numChunks = (numRecords + CHUNK_MASK) >> CHUNK_SHIFT;
+
+        if (numChunks > this.chunks.length) {
+            Chunk[] newChunks = Arrays.copyOf(this.chunks, numChunks);
+
+            for (int currChunk = this.chunks.length; currChunk < numChunks;
+            currChunk++) {
+                newChunks[currChunk] = new Chunk(this.fieldsLength);
+            }
+
+            this.chunks = newChunks;
+        }
+    }
+
+    /*
+     * Look up the chunk holding a record.
+     */
+    private Chunk chunk(int recNo) {
+        return this.chunks[recNo >> CHUNK_SHIFT];
+    }
+
+    /*
+     * A block of records stored by column.
+     */
+    private static class Chunk {
+
+        final ReentrantReadWriteLock lock;
+
+        final ByteBuffer columns;
+
+        final int[] statuses;
+
+        final long[] filePositions;
+
+        Chunk(int fieldsLength) {
+            this.lock = new ReentrantReadWriteLock();
+            this.columns = ByteBuffer.allocateDirect(fieldsLength
+                    << CHUNK_SHIFT);
+            this.statuses = new int[CHUNK_SIZE];
+            this.filePositions = new long[CHUNK_SIZE];
+        }
+
+    }
+
+}
@@ -1,8 +1,5 @@
 package suncertify.db;
 
-import java.io.IOException;
-import java.io.RandomAccessFile;
-
 /**
  * A database operation to create a new record.
  * 
@@ -17,7 +14,7 @@ class CreateRecordTask extends UpdateRecordTask {
      * Constructs a new database create record operation, specifying if a
      * deleted record will be reused or a new record appended.
      * 
-     * @see AsyncFileWriterTask#AsyncFileWriterTask(RandomAccessFile, long)
+     * @see AsyncFileWriterTask#AsyncFileWriterTask(DatabaseFile, long)
      * 
      * @param file
      *            the database file.
@@ -29,7 +26,7 @@ class CreateRecordTask extends UpdateRecordTask {
      * @param data
      *            the new record to create.
      */
-    CreateRecordTask(RandomAccessFile file, long offset, boolean creatingNew,
+    CreateRecordTask(DatabaseFile file, long offset, boolean creatingNew,
             String[] data) {
 
         super(file, offset, data);
@@ -37,25 +34,35 @@ class CreateRecordTask extends UpdateRecordTask {
     }
 
     /**
-     * Create the new record in the database.
+     * Get the length the database file must have to hold the new record; the
+     * file must grow first if a new record is appended to it.
+     * 
+     * @see AsyncFileWriterTask#getRequiredLength()
+     */
+    @Override
+    long getRequiredLength() {
+        if (this.creatingNewRecord) {
+            return this.fileOffset + Record.recordLength;
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Encode the whole new record, status included.
      * 
-     * @throws IOException
-     *             when an error occurs writing to the database file.
+     * @see AsyncFileWriterTask#encode()
      */
-    void execute() throws IOException {
+    @Override
+    byte[] encode() {
 
-        this.dbFile.seek(this.fileOffset);
-        this.dbFile.writeShort(Record.VALID);
+        byte[] record = new byte[Record.recordLength];
 
-        super.updateFields();
+        record[0] = (byte) (Record.VALID >>> 8);
+        record[1] = (byte) Record.VALID;
+        Record.encodeFields(this.fields, record, Record.RECORD_HEADER_LENGTH);
 
-        /*
-         * set the database file length if a new 
-         * record was appended to the file
-         */
-        if (this.creatingNewRecord) {
-            this.dbFile.setLength(this.fileOffset + Record.recordLength);
-        }
+        return record;
     }
 
 }
@@ -1,21 +1,72 @@
 package suncertify.db;
 
-import java.io.EOFException;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import suncertify.application.URLyBirdConfiguration;
 import suncertify.util.StringUtil;
 
 /**
  * Proprietary database of the URLyBird room reservation system.
+ * <p>
+ * Concurrency is handled at two levels rather than with a single monitor on
+ * the database. A read/write lock guards the structure of the record table:
+ * it is held for reading by the operations that look up or scan records in
+ * place, and for writing only when records are added or the database is
+ * opened or closed. Changes to an individual record, and its record lock,
+ * are guarded by one of a fixed set of lock stripes selected by record
+ * number, so that reads and bookings on unrelated rooms proceed in parallel.
+ * Threads waiting to lock a record wait in a first-in, first-out queue for
+ * that record, and unlocking a record wakes only the next thread in its
+ * queue.
+ * <p>
+ * Each change to the records is published as a new epoch, and the versions
+ * of the records it replaced are kept while searches in progress may still
+ * need them, so a search reading the matching records in bulk sees a snapshot
+ * of them as of one epoch without taking any lock stripe, nor the table lock.
+ * Writers changing unrelated records do not wait for one another to publish
+ * their changes either: they only wait, without holding any lock they do not
+ * already hold, for changes begun earlier to be published first. Once a
+ * change is visible, it is passed to the registered {@link RecordListener}s.
+ * <p>
+ * Changes are written to the database file asynchronously. Unless disabled
+ * by {@link suncertify.application.Configuration#isWriteAheadLogged()}, they
+ * are first appended to a write-ahead log, and the methods changing records
+ * return once their change is durable in the log; any logged changes missing
+ * from the database file are recovered when it is next opened.
+ * <p>
+ * Records are cached in memory by a {@link RecordStore}: by default as
+ * <code>String</code> objects, or, when configured, as columns of raw field
+ * bytes outside the Java heap. Searches on the fields configured by
+ * {@link suncertify.application.Configuration#getIndexedFields()} use
+ * secondary indexes of the field values, kept up to date as records change.
+ * When configured by {@link suncertify.application.Configuration#isLazyOpen()},
+ * opening the database reads only its schema: each batch of records is read
+ * when first used, and the rest in the background, the indexes being built
+ * once every record is read.
+ * <p>
+ * New records reuse the slots of deleted records, lowest first, which are
+ * kept in a {@link FreeRecordList}. When configured by
+ * {@link suncertify.application.Configuration#isAppendOnly()}, new records are
+ * instead always appended, and the deleted records are removed from the
+ * database file, renumbering the remaining records, when it is next opened.
  * 
  * @author Oliver Hernandez
  * 
@@ -27,43 +78,134 @@ public class Data implements DBAccess {
 
     private static final int MAGIC_COOKIE = 258;
 
+    /*
+     * Extension appended to the database file path to name the file the
+     * database is compacted into.
+     */
+    private static final String COMPACT_EXTENSION = ".compact";
+
     private static final long LOCK_TIMEOUT = configuration.getLockTimeout();
 
+    /*
+     * Number of lock stripes guarding records; must be a power of two so a
+     * record number can be mapped to a stripe with a mask.
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    /*
+     * Duration, in milliseconds, of a tick of the lock expiration wheel, and
+     * the number of ticks in one turn of the wheel.
+     */
+    private static final long LOCK_EXPIRATION_TICK = 10;
+
+    private static final int LOCK_EXPIRATION_WHEEL_SIZE = 512;
+
+    /*
+     * Minimum time, in milliseconds, to remember the cookie of an expired
+     * lock, and the number of slots in each generation of the registry of
+     * expired cookies.
+     */
+    private static final long EXPIRED_COOKIE_RETENTION = 30 * LOCK_TIMEOUT;
+
+    private static final int EXPIRED_COOKIE_CAPACITY = 1 << 16;
+
     private static final Data instance = new Data();
 
-    private RandomAccessFile dbFile;
+    private DatabaseFile dbFile;
 
     private int startRecordPos;
 
     private long dbFileLength;
 
     /*
-     * Records implemented as an ArrayList for quick, indexed lookups by record
-     * number.
+     * In-memory cache of the records, indexed by record number.
+     */
+    private RecordStore records;
+
+    /*
+     * Slots of the deleted records, to reuse for new records.
+     */
+    private FreeRecordList freeRecords;
+
+    /*
+     * Secondary indexes of the configured fields of the valid records. An
+     * index is updated while holding the stripe of the changed record.
+     */
+    private volatile FieldIndex[] fieldIndexes;
+
+    /*
+     * Recent versions of the changed records, letting searches read a
+     * snapshot of the records without holding any lock. Every change to the
+     * records is made in a commit, while holding the changed records'
+     * stripes only, and advances the epoch.
+     */
+    private final VersionTable versions;
+
+    /*
+     * Listeners receiving each change to the records, called while holding
+     * the changed record's stripe.
+     */
+    private final CopyOnWriteArrayList<RecordListener> recordListeners;
+
+    /*
+     * Guards the structure of the record store. Record lookups and scans hold
+     * the read lock, except searches reading a snapshot, which pin it
+     * instead; appending records, opening and closing hold the write lock.
+     * Must never be acquired while holding a lock stripe.
+     */
+    private final ReentrantReadWriteLock tableLock;
+
+    /*
+     * Lock stripes guarding the status, fields and record lock of each record.
      */
-    private ArrayList<Record> records;
+    private final ReentrantLock[] stripes;
 
     /*
      * Mapping of record numbers to locks. When a record is locked for
-     * modification, an entry is made here.
+     * modification, an entry is made here. Entries for a record are only
+     * added or removed while holding that record's stripe.
      */
-    private HashMap<Long, Lock> locks;
+    private ConcurrentHashMap<Long, Lock> locks;
 
     /*
-     * A timer to expire record lock cookies to avoid deadlocks.
+     * Mapping of record numbers to the queues of threads waiting to lock
+     * them. A queue is only present while threads are waiting in it, and is
+     * only modified while holding the record's stripe.
      */
-    private Timer lockTimer;
+    private ConcurrentHashMap<Long, LockWaitQueue> lockQueues;
 
     /*
-     * Set of expired lock cookies.
+     * Record lock queue metrics.
      */
-    private HashSet<Long> expiredLockCookies;
+    private final AtomicInteger waitingLockers;
+
+    private final AtomicInteger maxLockQueueDepth;
+
+    private final AtomicLong lockWaits;
+
+    /*
+     * A timing wheel to expire record lock cookies to avoid deadlocks.
+     */
+    private LockExpirationWheel lockExpirationWheel;
+
+    private Thread lockExpirationThread;
+
+    /*
+     * Reads the remaining records in the background when the database is
+     * opened lazily.
+     */
+    private volatile Thread prefetchThread;
+
+    /*
+     * Registry of recently expired lock cookies.
+     */
+    private final ExpiredCookieRegistry expiredLockCookies;
 
     private AsyncFileWriter fileWriter;
 
     private Thread fileWriterThread;
 
-    private boolean open;
+    private volatile boolean open;
 
     /**
      * Get the singleton instance of <code>Data</code>.
@@ -78,10 +220,27 @@ public class Data implements DBAccess {
      * Create an instance of the database.
      */
     private Data() {
-        this.records = new ArrayList<Record>();
-        this.locks = new HashMap<Long, Lock>();
-        this.expiredLockCookies = new HashSet<Long>();
-        this.fileWriter = new AsyncFileWriter();
+        this.records = new HeapRecordStore();
+        this.freeRecords = new FreeRecordList();
+        this.fieldIndexes = new FieldIndex[0];
+        this.tableLock = new ReentrantReadWriteLock();
+        this.stripes = new ReentrantLock[LOCK_STRIPES];
+
+        for (int currStripe = 0; currStripe < LOCK_STRIPES; currStripe++) {
+            this.stripes[currStripe] = new ReentrantLock();
+        }
+
+        this.locks = new ConcurrentHashMap<Long, Lock>();
+        this.lockQueues = new ConcurrentHashMap<Long, LockWaitQueue>();
+        this.waitingLockers = new AtomicInteger();
+        this.maxLockQueueDepth = new AtomicInteger();
+        this.lockWaits = new AtomicLong();
+        this.versions = new VersionTable();
+        this.recordListeners = new CopyOnWriteArrayList<RecordListener>();
+        this.expiredLockCookies = new ExpiredCookieRegistry(
+                EXPIRED_COOKIE_RETENTION, EXPIRED_COOKIE_CAPACITY);
+        this.fileWriter = new AsyncFileWriter(configuration
+                .getWriteBatchSize(), configuration.getWriteBatchLatency());
         this.open = false;
     }
 
@@ -92,127 +251,192 @@ public class Data implements DBAccess {
      * @throws IOException
      *             when an error occurs opening the database.
      */
-    public synchronized void open() throws IOException {
-        if (!this.open) {
-            String dbFilePath;
-            int magicCookie;
-            int currRec;
-            String[] fieldValues;
-            Record record;
-            byte[] fieldValue;
-            int fieldNameLength;
-            byte[] fieldNameBytes;
-            String errorMessage = "An error occurred opening the database:"
-                    + StringUtil.NEW_LINE;
+    public void open() throws IOException {
+        this.tableLock.writeLock().lock();
 
-            dbFilePath = configuration.getDBFilePath();
-            if (!(new File(dbFilePath)).exists()) {
-                throw new FileNotFoundException(errorMessage + dbFilePath
-                        + " (No such file or directory)");
-            }
+        try {
+            if (!this.open) {
+                String dbFilePath;
+                DataInputStream dbInput;
+                long filePosition;
+                long recordsPosition;
+                int magicCookie;
+                int numRecords;
+                int fieldNameLength;
+                byte[] fieldNameBytes;
+                File logFile;
+                WriteAheadLog writeAheadLog = null;
+                String errorMessage = "An error occurred opening the database:"
+                        + StringUtil.NEW_LINE;
+
+                dbFilePath = configuration.getDBFilePath();
+                if (!(new File(dbFilePath)).exists()) {
+                    throw new FileNotFoundException(errorMessage + dbFilePath
+                            + " (No such file or directory)");
+                }
 
-            this.dbFile = new RandomAccessFile(dbFilePath, "rws");
+                /*
+                 * access the database file through the configured storage
+                 * backend, and read it sequentially in large blocks.
+                 */
 
-            try {
-                magicCookie = this.dbFile.readInt();
-                if (magicCookie != MAGIC_COOKIE) {
-                    throw new IOException(errorMessage
-                            + "Invalid database file, magic cookie "
-                            + "field unknown.");
-                }
+                this.dbFile = openDatabaseFile(dbFilePath);
 
-                /* read in start of file and store metadata */
+                try {
+                    /*
+                     * replay any writes logged but not yet known to be
+                     * durable in the database file when it was last used,
+                     * then keep logging writes if configured to.
+                     */
 
-                this.startRecordPos = this.dbFile.readInt();
-                Record.numFields = this.dbFile.readShort();
+                    logFile = new File(dbFilePath + WriteAheadLog.EXTENSION);
 
-                /* read in and store schema */
+                    if (configuration.isWriteAheadLogged()
+                            || logFile.exists()) {
+                        writeAheadLog = new WriteAheadLog(logFile.getPath());
+                        writeAheadLog.recover(this.dbFile);
 
-                Record.fieldNames = new String[Record.numFields];
-                Record.fieldLengths = new int[Record.numFields];
+                        if (!configuration.isWriteAheadLogged()) {
+                            writeAheadLog.close();
+                            logFile.delete();
+                            writeAheadLog = null;
+                        }
+                    }
 
-                for (int currField = 0; currField < Record.numFields;
-                currField++) {
+                    this.fileWriter.open(writeAheadLog);
 
-                    /* read in current field name */
+                    dbInput = new DataInputStream(new DatabaseFileInputStream(
+                            this.dbFile, 0));
 
-                    fieldNameLength = this.dbFile.readShort();
+                    magicCookie = dbInput.readInt();
+                    if (magicCookie != MAGIC_COOKIE) {
+                        throw new IOException(errorMessage
+                                + "Invalid database file, magic cookie "
+                                + "field unknown.");
+                    }
 
-                    fieldNameBytes = new byte[fieldNameLength];
-                    this.dbFile.read(fieldNameBytes);
-                    Record.fieldNames[currField] = StringUtil
-                            .convertBytesToString(fieldNameBytes);
+                    /* read in start of file and store metadata */
 
-                    /*
-                     * read in current field length
-                     * and calculate record length
-                     */
+                    this.startRecordPos = dbInput.readInt();
+                    Record.numFields = dbInput.readShort();
+                    filePosition = 10;
 
-                    Record.fieldLengths[currField] = this.dbFile.readShort();
-                    Record.recordLength += Record.fieldLengths[currField];
-                }
+                    /* read in and store schema */
 
-                /* read data section */
+                    Record.fieldNames = new String[Record.numFields];
+                    Record.fieldLengths = new int[Record.numFields];
 
-                currRec = 0;
-                fieldValues = new String[Record.numFields];
+                    for (int currField = 0; currField < Record.numFields;
+                    currField++) {
 
-                try {
-                    while (true) {
+                        /* read in current field name */
+
+                        fieldNameLength = dbInput.readShort();
+
+                        fieldNameBytes = new byte[fieldNameLength];
+                        dbInput.readFully(fieldNameBytes);
+                        Record.fieldNames[currField] = StringUtil
+                                .convertBytesToString(fieldNameBytes);
+
+                        /*
+                         * read in current field length
+                         * and calculate record length
+                         */
+
+                        Record.fieldLengths[currField] = dbInput.readShort();
+                        Record.recordLength += Record.fieldLengths[currField];
+                        filePosition += 4 + fieldNameLength;
+                    }
 
-                        /* read each record in until EOF reached */
+                    recordsPosition = filePosition;
+                    dropUnwrittenRecords(recordsPosition);
 
-                        record = new Record();
-                        record.setFilePosition(this.dbFile.getFilePointer());
-                        record.setStatus(this.dbFile.readUnsignedShort());
+                    this.records = createRecordStore();
+                    this.freeRecords = new FreeRecordList();
+
+                    if (configuration.isLazyOpen()) {
+
+                        /*
+                         * read records as they are first used, and the rest
+                         * in the background; the indexes are built once all
+                         * are read, and compaction waits for an eager open.
+                         */
+
+                        LazyRecordStore lazyRecords = new LazyRecordStore(
+                                this.records, this.dbFile, recordsPosition,
+                                this.freeRecords, new Runnable() {
+                                    public void run() {
+                                        indexLoadedRecords();
+                                    }
+                                });
+
+                        this.records = lazyRecords;
+                        this.fieldIndexes = new FieldIndex[0];
+                        this.prefetchThread = new Thread(lazyRecords,
+                                "RecordPrefetcher");
+                        this.prefetchThread.setDaemon(true);
+                        this.prefetchThread.start();
+                    } else {
+
+                        /*
+                         * load data section into the configured record store,
+                         * in parallel batches of records.
+                         */
 
-                        /* read in each field of the current record */
+                        numRecords = RecordLoader.load(this.dbFile,
+                                this.records, recordsPosition);
 
-                        for (int currField = 0; currField < Record.numFields;
-                        currField++) {
-                            fieldValue =
-                                new byte[Record.fieldLengths[currField]];
-                            this.dbFile.read(fieldValue);
-                            fieldValues[currField] = StringUtil
-                                    .convertBytesToString(fieldValue);
+                        for (int currRecNo = 0; currRecNo < numRecords;
+                        currRecNo++) {
+                            if (this.records.getStatus(currRecNo)
+                                    == Record.DELETED) {
+                                this.freeRecords.add(currRecNo);
+                            }
                         }
 
-                        record.setRecordNumber(currRec);
-                        record.setFields(fieldValues);
-                        this.records.add(record);
+                        if (configuration.isAppendOnly()
+                                && (this.freeRecords.size() > 0)) {
+                            compact(dbFilePath, recordsPosition);
+                        }
 
-                        currRec++;
+                        buildIndexes();
                     }
-                } catch (EOFException eof) {
-                    // reached end of database file
-                }
 
-                /*
-                 * create and start the background thread to asynchronously
-                 * write to the database file.
-                 */
+                    /*
+                     * create and start the background thread to
+                     * asynchronously write to the database file.
+                     */
 
-                this.fileWriterThread = new Thread(this.fileWriter,
-                        "AsyncFileIO");
-                this.fileWriterThread.start();
+                    this.fileWriterThread = new Thread(this.fileWriter,
+                            "AsyncFileIO");
+                    this.fileWriterThread.start();
 
-                /*
-                 * Create timer to release expired record locks
-                 */
+                    /*
+                     * Create timing wheel to release expired record locks
+                     */
 
-                this.lockTimer = new Timer("LockExpirationTimer", true);
+                    this.lockExpirationWheel = new LockExpirationWheel(this,
+                            LOCK_EXPIRATION_TICK, LOCK_EXPIRATION_WHEEL_SIZE);
+                    this.lockExpirationThread = new Thread(
+                            this.lockExpirationWheel, "LockExpirationTimer");
+                    this.lockExpirationThread.setDaemon(true);
+                    this.lockExpirationThread.start();
 
-                this.dbFileLength = this.dbFile.length();
-            } catch (IOException e) {
-                throw new IOException(errorMessage + e.getMessage(), e);
-            }
+                    this.dbFileLength = this.dbFile.length();
+                } catch (IOException e) {
+                    throw new IOException(errorMessage + e.getMessage(), e);
+                }
 
-            this.open = true;
+                this.versions.reset();
+                this.open = true;
 
-            // register a shutdown hook that will gracefully shut down the
-            // database.
-            Runtime.getRuntime().addShutdownHook(
-                    new ShutdownDatabase("shutdown"));
+                // register a shutdown hook that will gracefully shut down the
+                // database.
+                Runtime.getRuntime().addShutdownHook(
+                        new ShutdownDatabase("shutdown"));
+            }
+        } finally {
+            this.tableLock.writeLock().unlock();
         }
     }
 
@@ -220,51 +444,92 @@ public class Data implements DBAccess {
      * Closes the database. No further operations should be called on it.
      * Subsequent calls to this method will have no effect.
      */
-    public synchronized void close() {
-        if (this.open) {
-            this.open = false;
+    public void close() {
+        stopPrefetching();
 
-            /*
-             * flush out database file operations and close the file; do not
-             * return from this method until asynchronous file writing is
-             * completed.
-             */
+        this.tableLock.writeLock().lock();
 
-            this.fileWriter.add(new EndFileWritingTask(this.dbFile, 0));
+        try {
+            if (this.open) {
+                this.open = false;
 
-            while (this.fileWriterThread.isAlive()) {
-                try {
-                    this.fileWriterThread.join();
-                } catch (InterruptedException e) {
-                    // ignore, we're just closing
+                /*
+                 * searches read snapshots without the table lock; wait for
+                 * those in progress, which pinned their snapshot before
+                 * checking whether the database is open.
+                 */
+
+                while (this.versions.isPinned()) {
+                    Thread.yield();
                 }
-            }
 
-            /*
-             * Cancel the record lock expiration timer
-             */
+                this.versions.reset();
 
-            this.lockTimer.cancel();
+                /*
+                 * flush out database file operations and close the file; do
+                 * not return from this method until asynchronous file writing
+                 * is completed.
+                 */
 
-            /*
-             * clear database metadata attributes that will be reset when the
-             * open() method is called.
-             */
+                this.fileWriter.add(new EndFileWritingTask(this.dbFile, 0));
 
-            this.startRecordPos = 0;
-            Record.resetMetadata();
+                while (this.fileWriterThread.isAlive()) {
+                    try {
+                        this.fileWriterThread.join();
+                    } catch (InterruptedException e) {
+                        // ignore, we're just closing
+                    }
+                }
 
-            /* reset memory cache of records, along with record locking data */
+                /*
+                 * Stop the record lock expiration timing wheel
+                 */
 
-            this.records = new ArrayList<Record>();
-            this.locks = new HashMap<Long, Lock>();
-            this.expiredLockCookies = new HashSet<Long>();
+                this.lockExpirationWheel.stop();
+                this.lockExpirationThread.interrupt();
 
-            /*
-             * wake up all the threads that may be waiting on a lock; they will
-             * then realize the database is closed.
-             */
-            notifyAll();
+                /*
+                 * clear database metadata attributes that will be reset when
+                 * the open() method is called.
+                 */
+
+                this.startRecordPos = 0;
+                Record.resetMetadata();
+
+                /*
+                 * reset memory cache of records, along with record locking
+                 * data
+                 */
+
+                this.records = new HeapRecordStore();
+                this.freeRecords = new FreeRecordList();
+                this.fieldIndexes = new FieldIndex[0];
+                this.locks = new ConcurrentHashMap<Long, Lock>();
+                this.expiredLockCookies.clear();
+
+                /*
+                 * wake up all the threads that may be waiting on a lock; they
+                 * will then realize the database is closed.
+                 */
+
+                ConcurrentHashMap<Long, LockWaitQueue> closedQueues =
+                    this.lockQueues;
+                this.lockQueues = new ConcurrentHashMap<Long, LockWaitQueue>();
+
+                for (Long recNo : closedQueues.keySet()) {
+                    ReentrantLock stripe = stripeFor(recNo);
+
+                    stripe.lock();
+
+                    try {
+                        closedQueues.get(recNo).signalAll();
+                    } finally {
+                        stripe.unlock();
+                    }
+                }
+            }
+        } finally {
+            this.tableLock.writeLock().unlock();
         }
     }
 
@@ -285,24 +550,50 @@ public class Data implements DBAccess {
      * 
      * @see suncertify.db.DBAccess#deleteRecord(long, long)
      */
-    public synchronized void deleteRecord(long recNo, long lockCookie)
+    public void deleteRecord(long recNo, long lockCookie)
             throws RecordNotFoundException, SecurityException {
 
         if (this.open) {
-            Record record;
+            RecordStore store;
             DeleteRecordTask task;
+            ReentrantLock stripe = stripeFor(recNo);
 
-            record = getRecord(recNo);
-            checkDeleted(record, recNo);
+            store = getRecordStore(recNo);
 
-            if (isLockValid(recNo, lockCookie, true)) {
-                record.setStatus(Record.DELETED);
-            }
+            stripe.lock();
 
-            /* queue to delete record from database file asynchronously */
+            try {
+                checkDeleted(store, recNo);
+
+                if (isLockValid(recNo, lockCookie, true)) {
+                    String[] fields = store.getFields((int) recNo);
+                    VersionTable.Commit commit = this.versions.begin();
+
+                    try {
+                        this.versions.preserve(commit, (int) recNo,
+                                Record.VALID, fields);
+                        unindexRecord((int) recNo, fields);
+                        store.setStatus((int) recNo, Record.DELETED);
+                        this.versions.publish(commit, (int) recNo,
+                                Record.DELETED, fields);
+                    } finally {
+                        this.versions.commit(commit);
+                    }
+
+                    fireRecordChanged(store, (int) recNo, fields);
+                    this.freeRecords.add((int) recNo);
+                }
+
+                /* queue to delete record from database file asynchronously */
+
+                task = new DeleteRecordTask(this.dbFile, store
+                        .getFilePosition((int) recNo));
+                this.fileWriter.add(task);
+            } finally {
+                stripe.unlock();
+            }
 
-            task = new DeleteRecordTask(this.dbFile, record.getFilePosition());
-            this.fileWriter.add(task);
+            this.fileWriter.awaitLogged(task);
         }
     }
 
@@ -322,88 +613,155 @@ public class Data implements DBAccess {
      * 
      * @see suncertify.db.DBAccess#findByCriteria(java.lang.String[])
      */
-    public synchronized long[] findByCriteria(String[] criteria) {
-        if (this.open) {
-            String[] fields;
-            String field;
-            String searchField;
-            long[] results;
-            int numNulls = 0;
-            int numMatches = 0;
-            int numFound = 0;
-            ArrayList<Integer> foundRecords = new ArrayList<Integer>();
+    public long[] findByCriteria(String[] criteria) {
+        this.tableLock.readLock().lock();
 
-            /*
-             * check the search criteria and count the number of null column
-             * values, and column values to match the search fields by.
-             */
-            for (String s : criteria) {
-                if (s == null) {
-                    numNulls++;
-                } else {
-                    numMatches++;
-                }
-            }
+        try {
+            if (this.open) {
+                long[] results = findIndexed(criteria);
 
-            if (numNulls == Record.numFields) {
-                /*
-                 * search criteria passed in contained nulls for all fields, so
-                 * return every valid record.
-                 */
-                for (int currRecord = 0; currRecord < this.records.size();
-                currRecord++) {
-                    if (isRecordValid(currRecord)) {
-                        foundRecords.add(currRecord);
-                    }
+                if (results == null) {
+                    results = this.records.find(criteria);
                 }
+
+                return results;
             } else {
+                return null;
+            }
+        } finally {
+            this.tableLock.readLock().unlock();
+        }
+    }
 
-                for (int currRecord = 0; currRecord < this.records.size();
-                currRecord++) {
+    /**
+     * Finds the records matching the specified criteria, as
+     * {@link #findByCriteria(String[])} does, and reads them in the same
+     * pass, handing each to a visitor in ascending order of record number.
+     * <p>
+     * The records read form a consistent snapshot of the database as of the
+     * latest change published when the search began. No lock stripe is held,
+     * so the search neither waits for nor blocks writers: records changed
+     * since the snapshot are checked and read as they were in it, from their
+     * saved versions. Neither is the table lock, so appending records does
+     * not wait for the search either. The fields of every record are copied
+     * into a single array, reused for each record.
+     * 
+     * @param criteria
+     *            the search criteria to find records by.
+     * @param visitor
+     *            the visitor to hand each matching record to.
+     * @return the number of records read, or -1 if the database is closed.
+     */
+    public int findAndRead(String[] criteria, RecordVisitor visitor) {
+        VersionTable.Commit snapshot = this.versions.pin();
 
-                    if (isRecordValid(currRecord)) {
-                        fields = this.records.get(currRecord).getFields();
+        try {
 
-                        /* search each field in the current record */
+            /* closing waits for pinned snapshots before emptying the store */
 
-                        numFound = 0;
+            if (!this.open) {
+                return -1;
+            }
 
-                        for (int currField = 0; currField < Record.numFields;
-                        currField++) {
-                            field = fields[currField];
-                            searchField = criteria[currField];
+            RecordStore store = this.records;
+            String[] fields = new String[Record.numFields];
+            long[] candidates;
+            int numRead = 0;
 
-                            if ((searchField != null)
-                                    && (field.startsWith(searchField))) {
-                                // record matches
-                                numFound++;
-                            }
-                        }
+            candidates = findIndexed(criteria);
 
-                        /*
-                         * add the current record number to the list of records
-                         * found if it matches all of the search criteria
-                         */
-                        if (numFound == numMatches) {
-                            foundRecords.add(currRecord);
-                        }
-                    }
+            if (candidates == null) {
+                candidates = store.find(criteria);
+            }
 
+            candidates = withChanged(candidates, this.versions
+                    .changedSince(snapshot));
+
+            for (long recNo : candidates) {
+                if ((this.versions.read(store, (int) recNo, snapshot,
+                        fields) == Record.VALID)
+                        && matches(fields, criteria)) {
+                    visitor.visit(recNo, fields);
+                    numRead++;
                 }
             }
 
-            /* now build array of record numbers to return */
+            return numRead;
+        } finally {
+            this.versions.unpin(snapshot);
+        }
+    }
+
+    /**
+     * Finds and reads the records matching the specified criteria, as
+     * {@link #findAndRead(String[], RecordVisitor)} does, but only a range of
+     * them: starting from a record number, the search stops once a number of
+     * matching records are read, so a page of a large result is read without
+     * scanning the whole database.
+     * <p>
+     * When an index applies to the criteria, the records it finds are checked
+     * from the starting record number on; otherwise the records themselves
+     * are, in ascending order of record number.
+     * 
+     * @param criteria
+     *            the search criteria to find records by.
+     * @param fromRecNo
+     *            the number of the first record to check.
+     * @param maxRecords
+     *            the maximum number of records to read.
+     * @param visitor
+     *            the visitor to hand each matching record to.
+     * @return the number of records read, or -1 if the database is closed.
+     */
+    public int findAndRead(String[] criteria, long fromRecNo, int maxRecords,
+            RecordVisitor visitor) {
+        VersionTable.Commit snapshot = this.versions.pin();
 
-            results = new long[foundRecords.size()];
+        try {
+            if (!this.open) {
+                return -1;
+            }
 
-            for (int currFoundRec = 0; currFoundRec < foundRecords.size();
-            currFoundRec++) {
-                results[currFoundRec] = foundRecords.get(currFoundRec);
+            RecordStore store = this.records;
+            String[] fields = new String[Record.numFields];
+            long[] candidates;
+            int numCandidates;
+            int currCandidate;
+            long recNo;
+            int numRead = 0;
+
+            candidates = findIndexed(criteria);
+
+            if (candidates != null) {
+                candidates = withChanged(candidates, this.versions
+                        .changedSince(snapshot));
+                numCandidates = candidates.length;
+                currCandidate = Arrays.binarySearch(candidates, fromRecNo);
+                currCandidate = (currCandidate >= 0) ? currCandidate
+                        : -(currCandidate + 1);
+            } else {
+                numCandidates = store.size();
+                currCandidate = (int) Math.max(0, Math.min(fromRecNo,
+                        numCandidates));
             }
 
-            return results;
-        } else {
-            return null;
+            while ((currCandidate < numCandidates) && (numRead < maxRecords)) {
+                recNo = (candidates != null) ? candidates[currCandidate]
+                        : currCandidate;
+
+                if ((this.versions.read(store, (int) recNo, snapshot,
+                        fields) == Record.VALID)
+                        && matches(fields, criteria)) {
+                    visitor.visit(recNo, fields);
+                    numRead++;
+                }
+
+                currCandidate++;
+            }
+
+            return numRead;
+        } finally {
+            this.versions.unpin(snapshot);
         }
     }
 
@@ -427,44 +785,63 @@ public class Data implements DBAccess {
      * 
      * @see suncertify.db.DBAccess#lockRecord(long)
      */
-    public synchronized long lockRecord(long recNo)
-            throws RecordNotFoundException {
+    public long lockRecord(long recNo) throws RecordNotFoundException {
 
         if (this.open) {
-            checkDeleted(getRecord(recNo), recNo);
+            RecordStore store = getRecordStore(recNo);
+            ReentrantLock stripe = stripeFor(recNo);
 
-            while (this.open && this.locks.containsKey(recNo)) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    // continue
-                }
+            stripe.lock();
+
+            try {
+                checkDeleted(store, recNo);
 
                 /*
-                 * check if another thread locked then subsequently deleted this
-                 * record while this thread was waiting
+                 * wait in line if the record is locked, or if other threads
+                 * are already waiting to lock it.
                  */
-                checkDeleted(getRecord(recNo), recNo);
-            }
 
-            if (this.open) {
-                Lock lock = new Lock();
-                this.locks.put(recNo, lock);
+                if (this.locks.containsKey(recNo)
+                        || this.lockQueues.containsKey(recNo)) {
+                    awaitTurn(recNo, stripe);
 
-                /*
-                 * make best effort to prevent the locker of this record from
-                 * indefinitely keeping the record locked; set a task that will
-                 * expire the lock after the LOCK_TIMEOUT period, but depending
-                 * upon the thread scheduler, this task may not check to expire
-                 * the lock until much later than the time-out period.
-                 */
+                    /*
+                     * check if another thread locked then subsequently deleted
+                     * this record while this thread was waiting; records are
+                     * never removed from the store while the database is
+                     * open, so the store found above is still current. Pass
+                     * the turn on so the next thread in line also finds out.
+                     */
+
+                    if (this.open && (store.getStatus((int) recNo)
+                            == Record.DELETED)) {
+                        signalNextLocker(recNo);
+                        checkDeleted(store, recNo);
+                    }
+                }
 
-                this.lockTimer.schedule(new LockExpirationTask(recNo),
-                        LOCK_TIMEOUT);
+                if (this.open) {
+                    Lock lock = new Lock();
+                    this.locks.put(recNo, lock);
 
-                return lock.getCookie();
-            } else {
-                throw new RecordNotFoundException("The database is closed.");
+                    /*
+                     * make best effort to prevent the locker of this record
+                     * from indefinitely keeping the record locked; schedule
+                     * the lock to expire after the LOCK_TIMEOUT period, but
+                     * depending upon the thread scheduler, the lock may not
+                     * expire until much later than the time-out period.
+                     */
+
+                    lock.setExpiration(this.lockExpirationWheel.schedule(
+                            recNo, lock, LOCK_TIMEOUT));
+
+                    return lock.getCookie();
+                } else {
+                    throw new RecordNotFoundException(
+                            "The database is closed.");
+                }
+            } finally {
+                stripe.unlock();
             }
         } else {
             throw new RecordNotFoundException("The database is closed.");
@@ -478,19 +855,27 @@ public class Data implements DBAccess {
      *             when the specified cookie value does not match the value when
      *             the record was locked, or if the lock expired.
      */
-    public synchronized void unlock(long recNo, long cookie)
-            throws SecurityException {
+    public void unlock(long recNo, long cookie) throws SecurityException {
 
         if (this.open) {
-            /*
-             * in this case, it doesn't matter if the lock is already unlocked,
-             * so pass 'false' for the 3rd argument to islockValid(long recNo,
-             * long cookie, boolean handleRecHasNoLock).
-             */
+            ReentrantLock stripe = stripeFor(recNo);
+
+            stripe.lock();
+
+            try {
+                /*
+                 * in this case, it doesn't matter if the lock is already
+                 * unlocked, so pass 'false' for the 3rd argument to
+                 * islockValid(long recNo, long cookie, boolean
+                 * handleRecHasNoLock).
+                 */
 
-            if (isLockValid(recNo, cookie, false)) {
-                this.locks.remove(recNo);
-                notifyAll();
+                if (isLockValid(recNo, cookie, false)) {
+                    this.locks.remove(recNo).getExpiration().cancel();
+                    signalNextLocker(recNo);
+                }
+            } finally {
+                stripe.unlock();
             }
         }
     }
@@ -508,12 +893,19 @@ public class Data implements DBAccess {
      * 
      * @see suncertify.db.DBAccess#readRecord(long)
      */
-    public synchronized String[] readRecord(long recNo)
-            throws RecordNotFoundException {
+    public String[] readRecord(long recNo) throws RecordNotFoundException {
         if (this.open) {
-            Record record = getRecord(recNo);
-            checkDeleted(record, recNo);
-            return record.getFields();
+            RecordStore store = getRecordStore(recNo);
+            ReentrantLock stripe = stripeFor(recNo);
+
+            stripe.lock();
+
+            try {
+                checkDeleted(store, recNo);
+                return store.getFields((int) recNo);
+            } finally {
+                stripe.unlock();
+            }
         } else {
             throw new RecordNotFoundException("The database is closed.");
         }
@@ -539,109 +931,495 @@ public class Data implements DBAccess {
      * 
      * @see suncertify.db.DBAccess#updateRecord(long, java.lang.String[], long)
      */
-    public synchronized void updateRecord(long recNo, String[] data,
-            long cookie) throws RecordNotFoundException, SecurityException {
+    public void updateRecord(long recNo, String[] data, long cookie)
+            throws RecordNotFoundException, SecurityException {
 
         if (this.open) {
-            Record record;
-            UpdateRecordTask task;
+            RecordStore store;
+            UpdateRecordTask task = null;
+            ReentrantLock stripe = stripeFor(recNo);
+
+            store = getRecordStore(recNo);
 
-            record = getRecord(recNo);
+            stripe.lock();
 
-            if (isLockValid(recNo, cookie, true)) {
-                record.setFields(data);
+            try {
+                if (isLockValid(recNo, cookie, true)) {
+                    VersionTable.Commit commit = this.versions.begin();
+                    String[] oldFields;
+
+                    try {
+                        oldFields = updateVersioned(commit, store, (int) recNo,
+                                data);
+                    } finally {
+                        this.versions.commit(commit);
+                    }
 
-                /* queue to update record in the database file asynchronously */
+                    fireRecordChanged(store, (int) recNo, oldFields);
 
-                task = new UpdateRecordTask(this.dbFile, record
-                        .getFilePosition() + 2, data);
-                this.fileWriter.add(task);
+                    /*
+                     * queue to update record in the database file
+                     * asynchronously
+                     */
+
+                    task = new UpdateRecordTask(this.dbFile, store
+                            .getFilePosition((int) recNo) + 2, data);
+                    this.fileWriter.add(task);
+                }
+            } finally {
+                stripe.unlock();
             }
+
+            this.fileWriter.awaitLogged(task);
         } else {
             throw new RecordNotFoundException("The database is closed.");
         }
     }
 
     /**
-     * Creates a new record in the database, and returns the record number where
-     * the new record is created within the database.
+     * Atomically sets a field of a record to a new value if it currently holds
+     * the expected value, ignoring leading and trailing spaces, as when
+     * booking a room only if it is not yet booked. The new value is kept as
+     * {@link #updateRecord(long, String[], long)} keeps fields, truncated or
+     * padded with spaces to the field's length.
+     * <p>
+     * The record need not be locked by the caller: no lock cookie is issued
+     * and no lock expiration is scheduled. The operation is not lock-free,
+     * though: it holds the record's lock stripe while the field is compared
+     * and set, so it is atomic with respect to every other change guarded by
+     * that stripe. If another client holds or is waiting for the record's
+     * lock, since it may be about to change the record, it waits in line for
+     * the record as {@link #lockRecord(long)} does, passing its turn on once
+     * the field is compared. Returns once the change is durable.
      * 
-     * @param data
-     *            the array of fields that make up the new record to create.
-     * @return the record number of the new record created, or -1 if the
-     *         database is closed.
+     * @param recNo
+     *            the number of the record to update.
+     * @param field
+     *            the number of the field to set.
+     * @param expected
+     *            the value the field must hold for it to be set.
+     * @param value
+     *            the new value of the field.
+     * @return <code>true</code> if the field was set, <code>false</code> if
+     *         it did not hold the expected value.
      * 
-     * @see suncertify.db.DBAccess#createRecord(String[])
+     * @throws RecordNotFoundException
+     *             when the specified record is not found or the database is
+     *             closed.
+     * @throws IllegalArgumentException
+     *             when the field number is not that of a field of the
+     *             records, or the expected or new value is null.
      */
-    public synchronized long createRecord(String[] data)
-            throws DuplicateKeyException {
+    public boolean compareAndSetField(long recNo, int field, String expected,
+            String value) throws RecordNotFoundException {
 
-        int newRecNo = -1;
+        if ((expected == null) || (value == null)) {
+            throw new IllegalArgumentException("Field values must not be "
+                    + "null.");
+        }
 
         if (this.open) {
-            /*
-             * This implementation does not throw DuplicateKeyException as
-             * specified in the interface. The reason being that the fields
-             * currently present in the database are not enough to uniquely
-             * identify a record, so the database would be more flexible if it
-             * accepts any records for addition.
-             */
+            if ((field < 0) || (field >= Record.numFields)) {
+                throw new IllegalArgumentException("Invalid field number: "
+                        + field);
+            }
 
-            CreateRecordTask task;
-            Record currRecord;
-            Record newRecord = null;
-            boolean creatingNewRecord = true;
+            RecordStore store;
+            String[] fields;
+            UpdateRecordTask task = null;
+            ReentrantLock stripe = stripeFor(recNo);
+            boolean waited = false;
 
-            /*
-             * find if we can reuse a deleted record.
-             */
+            store = getRecordStore(recNo);
 
-            for (int currRecNo = 0; currRecNo < this.records.size();
-            currRecNo++) {
-                currRecord = this.records.get(currRecNo);
+            stripe.lock();
 
-                if (currRecord.getStatus() == Record.DELETED) {
-                    creatingNewRecord = false;
-                    newRecNo = currRecNo;
-                    newRecord = currRecord;
-                    break;
+            try {
+                checkDeleted(store, recNo);
+
+                /*
+                 * wait in line if the record is locked, or if other threads
+                 * are already waiting to lock it; the turn is passed on below
+                 * however the record is found.
+                 */
+
+                if (this.locks.containsKey(recNo)
+                        || this.lockQueues.containsKey(recNo)) {
+                    awaitTurn(recNo, stripe);
+                    waited = true;
+
+                    if (!this.open) {
+                        throw new RecordNotFoundException(
+                                "The database is closed.");
+                    }
+
+                    checkDeleted(store, recNo);
                 }
+
+                fields = store.getFields((int) recNo);
+
+                if (fields[field].trim().equals(expected.trim())) {
+                    VersionTable.Commit commit;
+                    String[] oldFields;
+
+                    fields[field] = value;
+                    commit = this.versions.begin();
+
+                    try {
+                        oldFields = updateVersioned(commit, store, (int) recNo,
+                                fields);
+                    } finally {
+                        this.versions.commit(commit);
+                    }
+
+                    fireRecordChanged(store, (int) recNo, oldFields);
+
+                    /*
+                     * queue to update record in the database file
+                     * asynchronously
+                     */
+
+                    task = new UpdateRecordTask(this.dbFile, store
+                            .getFilePosition((int) recNo) + 2, fields);
+                    this.fileWriter.add(task);
+                }
+            } finally {
+                if (waited) {
+                    signalNextLocker(recNo);
+                }
+
+                stripe.unlock();
             }
 
-            if (creatingNewRecord) {
-                newRecord = new Record();
+            this.fileWriter.awaitLogged(task);
 
-                /* remember, record #s and file position are 0 based indexes */
+            return (task != null);
+        } else {
+            throw new RecordNotFoundException("The database is closed.");
+        }
+    }
 
-                newRecNo = this.records.size();
-                newRecord.setRecordNumber(newRecNo);
-                newRecord.setFilePosition(this.dbFileLength);
-                this.records.add(newRecord);
+    /**
+     * Updates several records with the specified field values, either all of
+     * them or none. Each record must be locked by the caller. The stripes of
+     * all the records are held, taken in ascending order, while their locks
+     * are checked and their fields updated, so no record is changed unless
+     * every lock is valid. Returns once all the changes are durable, waiting
+     * for them only once.
+     * 
+     * @param recNos
+     *            the numbers of the records to update.
+     * @param data
+     *            for each record, the array of fields to update it with.
+     * @param cookies
+     *            for each record, the lock cookie it was locked with.
+     * 
+     * @throws RecordNotFoundException
+     *             when one of the records is not found or the database is
+     *             closed.
+     * @throws SecurityException
+     *             when one of the records is locked with a cookie other than
+     *             the specified cookie, or its lock expired.
+     */
+    public void updateRecords(long[] recNos, String[][] data, long[] cookies)
+            throws RecordNotFoundException, SecurityException {
 
-                this.dbFileLength += Record.recordLength;
+        if (this.open) {
+            RecordStore store = null;
+            UpdateRecordTask task = null;
+            VersionTable.Commit commit;
+            boolean[] stripesUsed = new boolean[LOCK_STRIPES];
+            String[][] oldFields = new String[recNos.length][];
+
+            for (long recNo : recNos) {
+                store = getRecordStore(recNo);
+                stripesUsed[stripeIndex(recNo)] = true;
             }
 
-            /* check for and replace any null field values */
+            /*
+             * other threads hold at most one stripe at a time, so taking
+             * several in ascending order cannot deadlock.
+             */
 
-            for (int currField = 0; currField < Record.numFields; currField++) {
-                if (data[currField] == null) {
-                    data[currField] = " ";
+            for (int currStripe = 0; currStripe < LOCK_STRIPES; currStripe++) {
+                if (stripesUsed[currStripe]) {
+                    this.stripes[currStripe].lock();
                 }
             }
 
-            newRecord.setStatus(Record.VALID);
-            newRecord.setFields(data);
+            try {
+                for (int currRecord = 0; currRecord < recNos.length;
+                currRecord++) {
+                    isLockValid(recNos[currRecord], cookies[currRecord], true);
+                }
+
+                commit = this.versions.begin();
 
-            /* queue to create new record in database file asynchronously */
+                try {
+                    for (int currRecord = 0; currRecord < recNos.length;
+                    currRecord++) {
+                        oldFields[currRecord] = updateVersioned(commit, store,
+                                (int) recNos[currRecord], data[currRecord]);
+
+                        task = new UpdateRecordTask(this.dbFile, store
+                                .getFilePosition((int) recNos[currRecord])
+                                + 2, data[currRecord]);
+                        this.fileWriter.add(task);
+                    }
+                } finally {
+                    this.versions.commit(commit);
+                }
 
-            task = new CreateRecordTask(this.dbFile, newRecord
-                    .getFilePosition(), creatingNewRecord, data);
-            this.fileWriter.add(task);
+                for (int currRecord = 0; currRecord < recNos.length;
+                currRecord++) {
+                    fireRecordChanged(store, (int) recNos[currRecord],
+                            oldFields[currRecord]);
+                }
+            } finally {
+                for (int currStripe = LOCK_STRIPES - 1; currStripe >= 0;
+                currStripe--) {
+                    if (stripesUsed[currStripe]) {
+                        this.stripes[currStripe].unlock();
+                    }
+                }
+            }
+
+            /*
+             * operations are logged in the order they are queued, so the
+             * others are durable once the last one is.
+             */
+
+            this.fileWriter.awaitLogged(task);
+        } else {
+            throw new RecordNotFoundException("The database is closed.");
         }
+    }
+
+    /**
+     * Creates a new record in the database, and returns the record number where
+     * the new record is created within the database. The new record reuses
+     * the lowest numbered deleted record, if any, unless the database is
+     * configured to only append records.
+     * 
+     * @param data
+     *            the array of fields that make up the new record to create.
+     * @return the record number of the new record created, or -1 if the
+     *         database is closed.
+     * 
+     * @see suncertify.db.DBAccess#createRecord(String[])
+     */
+    public long createRecord(String[] data) throws DuplicateKeyException {
+
+        int newRecNo = -1;
+        CreateRecordTask task = null;
+
+        this.tableLock.writeLock().lock();
+
+        try {
+            if (this.open) {
+                /*
+                 * This implementation does not throw DuplicateKeyException as
+                 * specified in the interface. The reason being that the fields
+                 * currently present in the database are not enough to uniquely
+                 * identify a record, so the database would be more flexible if
+                 * it accepts any records for addition.
+                 */
+
+                long filePosition;
+                boolean creatingNewRecord = true;
+                ReentrantLock stripe;
+
+                /*
+                 * find if we can reuse a deleted record.
+                 */
+
+                if (!configuration.isAppendOnly()) {
+                    newRecNo = this.freeRecords.take();
+                    creatingNewRecord = (newRecNo < 0);
+                }
+
+                /* check for and replace any null field values */
+
+                for (int currField = 0; currField < Record.numFields;
+                currField++) {
+                    if (data[currField] == null) {
+                        data[currField] = " ";
+                    }
+                }
+
+                if (creatingNewRecord) {
+
+                    /*
+                     * remember, record #s and file position are 0 based
+                     * indexes
+                     */
+
+                    newRecNo = this.records.size();
+                    filePosition = this.dbFileLength;
+                } else {
+                    filePosition = this.records.getFilePosition(newRecNo);
+                }
+
+                stripe = stripeFor(newRecNo);
+                stripe.lock();
+
+                try {
+                    VersionTable.Commit commit = this.versions.begin();
+
+                    try {
+                        if (creatingNewRecord) {
+                            this.versions.preserve(commit, newRecNo,
+                                    Record.DELETED, null);
+                            this.records.add(filePosition, Record.VALID, data);
+                            this.dbFileLength += Record.recordLength;
+                        } else {
+                            this.versions.preserve(commit, newRecNo,
+                                    this.records.getStatus(newRecNo),
+                                    this.records.getFields(newRecNo));
+                            this.records.setFields(newRecNo, data);
+                            this.records.setStatus(newRecNo, Record.VALID);
+                        }
+
+                        String[] fields = this.records.getFields(newRecNo);
+
+                        indexRecord(newRecNo, fields);
+                        this.versions.publish(commit, newRecNo, Record.VALID,
+                                fields);
+                    } finally {
+                        this.versions.commit(commit);
+                    }
+
+                    fireRecordChanged(this.records, newRecNo, null);
+
+                    /*
+                     * queue to create new record in database file
+                     * asynchronously
+                     */
+
+                    task = new CreateRecordTask(this.dbFile, filePosition,
+                            creatingNewRecord, data);
+                    this.fileWriter.add(task);
+                } finally {
+                    stripe.unlock();
+                }
+            }
+        } finally {
+            this.tableLock.writeLock().unlock();
+        }
+
+        this.fileWriter.awaitLogged(task);
 
         return newRecNo;
     }
 
+    /**
+     * Get the epoch of the records: a number that changes whenever a record
+     * is created, updated or deleted, or the database is opened or closed. A
+     * result computed from the records after reading an epoch is still
+     * current as long as the epoch is unchanged.
+     * 
+     * @return the number of changes made to the records.
+     */
+    public long getEpoch() {
+        return this.versions.getEpoch();
+    }
+
+    /**
+     * Register a listener to receive each change made to the records from now
+     * on.
+     * 
+     * @param listener
+     *            the listener to register.
+     */
+    public void addRecordListener(RecordListener listener) {
+        this.recordListeners.add(listener);
+    }
+
+    /**
+     * Stop passing the changes made to the records to a listener.
+     * 
+     * @param listener
+     *            the listener to remove.
+     */
+    public void removeRecordListener(RecordListener listener) {
+        this.recordListeners.remove(listener);
+    }
+
+    /**
+     * Get the number of threads waiting in line to lock the specified record.
+     * 
+     * @param recNo
+     *            the number of the record.
+     * @return the depth of the record's lock queue.
+     */
+    public int getLockQueueDepth(long recNo) {
+        int depth = 0;
+        ReentrantLock stripe = stripeFor(recNo);
+
+        stripe.lock();
+
+        try {
+            LockWaitQueue queue = this.lockQueues.get(recNo);
+
+            if (queue != null) {
+                depth = queue.size();
+            }
+        } finally {
+            stripe.unlock();
+        }
+
+        return depth;
+    }
+
+    /**
+     * Get the number of threads currently waiting to lock any record.
+     * 
+     * @return the total number of waiting threads.
+     */
+    public int getWaitingLockers() {
+        return this.waitingLockers.get();
+    }
+
+    /**
+     * Get the deepest queue of threads waiting to lock a single record seen
+     * since the server started.
+     * 
+     * @return the maximum lock queue depth.
+     */
+    public int getMaxLockQueueDepth() {
+        return this.maxLockQueueDepth.get();
+    }
+
+    /**
+     * Get the number of times a thread had to wait to lock a record since the
+     * server started.
+     * 
+     * @return the number of lock waits.
+     */
+    public long getLockWaits() {
+        return this.lockWaits.get();
+    }
+
+    /**
+     * Get the number of expired lock cookies currently remembered, so that
+     * clients using them are told their lock expired.
+     * 
+     * @return the number of remembered expired cookies.
+     */
+    public int getExpiredCookieCount() {
+        return this.expiredLockCookies.size();
+    }
+
+    /**
+     * Get the approximate memory used to remember expired lock cookies. This
+     * is fixed, regardless of how many locks expire.
+     * 
+     * @return the memory used, in bytes.
+     */
+    public long getExpiredCookieMemoryUsage() {
+        return this.expiredLockCookies.getMemoryUsage();
+    }
+
     /**
      * Returns a formatted String containing the entire contents of the
      * database. Useful for testing purposes. If this is called after the
@@ -650,7 +1428,21 @@ public class Data implements DBAccess {
      * @return the database as a formatted String.
      */
     @Override
-    public synchronized String toString() {
+    public String toString() {
+        this.tableLock.readLock().lock();
+
+        try {
+            return databaseContents();
+        } finally {
+            this.tableLock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Builds the formatted contents of the database; must be called while
+     * holding the table read lock.
+     */
+    private String databaseContents() {
         if (this.open) {
             StringBuilder dbContents = new StringBuilder();
 
@@ -665,12 +1457,11 @@ public class Data implements DBAccess {
 
             dbContents.append("  Data Records:\n\n");
 
-            int currRec = 0;
-
-            for (Record record : this.records) {
+            for (int currRec = 0; currRec < this.records.size(); currRec++) {
                 dbContents.append("Record #" + currRec + " Data:\n");
-                dbContents.append(record.toString());
-                currRec++;
+                dbContents.append(Record.format(this.records
+                        .getFilePosition(currRec), currRec, this.records
+                        .getStatus(currRec), this.records.getFields(currRec)));
             }
 
             return dbContents.toString();
@@ -680,133 +1471,595 @@ public class Data implements DBAccess {
     }
 
     /*
-     * Helper method to uniformly retrieve a record.
+     * Cut off the records at the end of the database file that were never
+     * written, which a crash may leave in a file memory-mapped ahead of its
+     * records: every record written has bytes other than zero, its fields
+     * being padded with spaces.
      */
-    private Record getRecord(long recNo) throws RecordNotFoundException {
-        Record record = null;
+    private void dropUnwrittenRecords(long recordsPosition)
+            throws IOException {
+        byte[] buffer = new byte[Record.recordLength];
+        int numWritten = RecordLoader.count(this.dbFile, recordsPosition);
+        long recordsEnd = recordsPosition + (long) numWritten
+                * Record.recordLength;
+        long fileLength = this.dbFile.length();
+        int tailLength = (int) (fileLength - recordsEnd);
+
+        /* the part of a record past the last whole one must be unwritten */
+
+        if ((tailLength > 0) && !isUnwritten(recordsEnd, buffer, tailLength)) {
+            return;
+        }
+
+        while ((numWritten > 0)
+                && isUnwritten(recordsEnd - Record.recordLength, buffer,
+                        Record.recordLength)) {
+            numWritten--;
+            recordsEnd -= Record.recordLength;
+        }
+
+        if (recordsEnd < fileLength) {
+            this.dbFile.setLength(recordsEnd);
+        }
+    }
+
+    /*
+     * Determine if a range of the database file holds only zero bytes.
+     */
+    private boolean isUnwritten(long position, byte[] buffer, int length)
+            throws IOException {
+        this.dbFile.read(position, buffer, 0, length);
+
+        for (int currByte = 0; currByte < length; currByte++) {
+            if (buffer[currByte] != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /*
+     * Open the database file through the configured storage backend.
+     */
+    private DatabaseFile openDatabaseFile(String dbFilePath)
+            throws IOException {
+        if (configuration.isDBFileMapped()) {
+            return new MappedDatabaseFile(dbFilePath);
+        } else {
+            return new RandomAccessDatabaseFile(dbFilePath);
+        }
+    }
+
+    /*
+     * Create an empty record store of the configured kind.
+     */
+    private RecordStore createRecordStore() {
+        if (configuration.isColumnarRecordStore()) {
+            return new ColumnarRecordStore();
+        } else {
+            return new HeapRecordStore();
+        }
+    }
+
+    /*
+     * Remove the deleted records from the database file, and renumber the
+     * remaining records in memory. The valid records are copied, with the
+     * file header, into a new file which then replaces the database file, so
+     * that a failure at any point leaves either the old or the new file
+     * whole. Must be called while holding the table write lock, before the
+     * database file is written to.
+     */
+    private void compact(String dbFilePath, long recordsPosition)
+            throws IOException {
+        File compactFile = new File(dbFilePath + COMPACT_EXTENSION);
+        FileOutputStream compactOutput = new FileOutputStream(compactFile);
+        OutputStream output = new BufferedOutputStream(compactOutput,
+                1 << 16);
+        RecordStore compacted = createRecordStore();
+        byte[] buffer = new byte[(int) Math.max(recordsPosition,
+                Record.recordLength)];
+        long filePosition = recordsPosition;
 
         try {
-            record = this.records.get((int) recNo);
-        } catch (IndexOutOfBoundsException e) {
-            throw new RecordNotFoundException("Record #" + recNo
-                    + " does not exist in the database.");
+            this.dbFile.read(0, buffer, 0, (int) recordsPosition);
+            output.write(buffer, 0, (int) recordsPosition);
+
+            for (int currRecNo = 0; currRecNo < this.records.size();
+            currRecNo++) {
+                if (this.records.getStatus(currRecNo) == Record.VALID) {
+                    this.dbFile.read(this.records.getFilePosition(currRecNo),
+                            buffer, 0, Record.recordLength);
+                    output.write(buffer, 0, Record.recordLength);
+                    compacted.add(filePosition, Record.VALID, buffer,
+                            Record.RECORD_HEADER_LENGTH);
+
+                    filePosition += Record.recordLength;
+                }
+            }
+
+            output.flush();
+            compactOutput.getChannel().force(true);
+        } finally {
+            output.close();
         }
 
-        if (record == null) {
-            /*
-             * throw an exception when the internal ArrayList returns null at
-             * the specified index
-             */
+        this.dbFile.close();
 
-            throw new RecordNotFoundException("Record #" + recNo
-                    + " not found in the database.");
+        if (!compactFile.renameTo(new File(dbFilePath))) {
+            throw new IOException("Could not replace the database file with "
+                    + "its compacted copy " + compactFile.getPath());
         }
 
-        return record;
+        this.dbFile = openDatabaseFile(dbFilePath);
+        this.records = compacted;
+        this.freeRecords = new FreeRecordList();
     }
 
     /*
-     * Helper method to uniformly check whether or not a record is deleted.
+     * Create the secondary indexes of the configured fields and index the
+     * valid records; must be called while holding the table write lock.
      */
-    private void checkDeleted(Record record, long recNo)
-            throws RecordNotFoundException {
-        if (record.getStatus() == Record.DELETED) {
-            throw new RecordNotFoundException("Record #" + recNo
-                    + " has been deleted from the database.");
+    private void buildIndexes() {
+        ArrayList<FieldIndex> indexes = new ArrayList<FieldIndex>();
+        FieldIndex[] built;
+
+        for (String fieldName : configuration.getIndexedFields()) {
+            for (int currField = 0; currField < Record.numFields;
+            currField++) {
+                if (Record.fieldNames[currField].equals(fieldName)) {
+                    indexes.add(new FieldIndex(currField));
+                }
+            }
+        }
+
+        built = indexes.toArray(new FieldIndex[indexes.size()]);
+
+        if (built.length > 0) {
+            for (int currRec = 0; currRec < this.records.size(); currRec++) {
+                if (this.records.getStatus(currRec) == Record.VALID) {
+                    String[] fields = this.records.getFields(currRec);
+
+                    for (FieldIndex index : built) {
+                        index.add(currRec, fields);
+                    }
+                }
+            }
         }
+
+        this.fieldIndexes = built;
     }
 
     /*
-     * Helper method to determine if a record is valid or not.
+     * Build the secondary indexes once every record of a lazily opened
+     * database is read. Every lock stripe is held, taken in ascending order,
+     * so no record changes while the indexes are built.
      */
-    private boolean isRecordValid(long recNo) {
-        boolean valid = false;
+    private void indexLoadedRecords() {
+        this.tableLock.readLock().lock();
 
         try {
-            Record r = getRecord(recNo);
+            if (!this.open) {
+                return;
+            }
 
-            if (r.getStatus() == Record.VALID) {
-                valid = true;
+            for (int currStripe = 0; currStripe < LOCK_STRIPES; currStripe++) {
+                this.stripes[currStripe].lock();
             }
-        } catch (RecordNotFoundException e) {
-            // treat as record is not valid
+
+            try {
+                buildIndexes();
+            } finally {
+                for (int currStripe = LOCK_STRIPES - 1; currStripe >= 0;
+                currStripe--) {
+                    this.stripes[currStripe].unlock();
+                }
+            }
+        } finally {
+            this.tableLock.readLock().unlock();
         }
+    }
+
+    /*
+     * Stop reading records in the background, waiting for the reader to
+     * finish the batch in progress. Must not be called while holding the
+     * table lock, which the reader may need to finish.
+     */
+    private void stopPrefetching() {
+        Thread prefetcher = this.prefetchThread;
 
-        return valid;
+        if (prefetcher != null) {
+            prefetcher.interrupt();
+
+            while (prefetcher.isAlive()) {
+                try {
+                    prefetcher.join();
+                } catch (InterruptedException e) {
+                    // ignore, we're just closing
+                }
+            }
+
+            this.prefetchThread = null;
+        }
     }
 
     /*
-     * Helper method to determine if a cookie value belongs to a valid lock on
-     * the specified record.
+     * Helper method to add a record to the secondary indexes. Must be called
+     * while holding the record's stripe.
      */
-    private boolean isLockValid(long recNo, long lockCookie,
-            boolean handleRecHasNoLock) throws SecurityException {
+    private void indexRecord(int recNo, String[] fields) {
+        for (FieldIndex index : this.fieldIndexes) {
+            index.add(recNo, fields);
+        }
+    }
 
-        if (this.expiredLockCookies.contains(lockCookie)) {
-            throw new LockExpiredException("Client's record lock expired.");
+    /*
+     * Helper method to remove a record from the secondary indexes. Must be
+     * called while holding the record's stripe.
+     */
+    private void unindexRecord(int recNo, String[] fields) {
+        for (FieldIndex index : this.fieldIndexes) {
+            index.remove(recNo, fields);
         }
+    }
 
-        boolean valid = false;
-        Lock lock = this.locks.get(recNo);
+    /*
+     * Helper method to update the fields of a record along with the secondary
+     * indexes; the indexes hold the values as stored, so they are read back
+     * from the store. Must be called while holding the record's stripe.
+     */
+    private void updateFields(RecordStore store, int recNo, String[] data) {
+        FieldIndex[] indexes = this.fieldIndexes;
 
-        if (lock != null) {
-            if (lock.getCookie() == lockCookie) {
-                valid = true;
-            } else {
-                throw new SecurityException("Record not locked by "
-                        + "this client.");
+        if ((indexes.length > 0) && (store.getStatus(recNo) == Record.VALID)) {
+            String[] oldFields = store.getFields(recNo);
+            store.setFields(recNo, data);
+            String[] newFields = store.getFields(recNo);
+
+            for (FieldIndex index : indexes) {
+                index.update(recNo, oldFields, newFields);
             }
         } else {
-            if (handleRecHasNoLock) {
-                throw new SecurityException("Record not locked by "
-                        + "this client.");
+            store.setFields(recNo, data);
+        }
+    }
+
+    /*
+     * Helper method to update the fields of a record, as updateFields does,
+     * within a commit in progress, returning its fields before the update.
+     * Must be called while holding the record's stripe, between beginning and
+     * publishing the commit.
+     */
+    private String[] updateVersioned(VersionTable.Commit commit,
+            RecordStore store, int recNo, String[] data) {
+        int status = store.getStatus(recNo);
+        String[] oldFields = store.getFields(recNo);
+
+        this.versions.preserve(commit, recNo, status, oldFields);
+        updateFields(store, recNo, data);
+        this.versions.publish(commit, recNo, status, store.getFields(recNo));
+
+        return oldFields;
+    }
+
+    /*
+     * Pass a change to a record to the record listeners, with the record's
+     * fields as now held by the store, or null if it is deleted. Must be
+     * called while holding the record's stripe, once the change is committed.
+     */
+    private void fireRecordChanged(RecordStore store, int recNo,
+            String[] oldFields) {
+        if (this.recordListeners.isEmpty()) {
+            return;
+        }
+
+        String[] newFields = (store.getStatus(recNo) == Record.VALID) ? store
+                .getFields(recNo) : null;
+
+        for (RecordListener listener : this.recordListeners) {
+            listener.recordChanged(recNo, oldFields, newFields);
+        }
+    }
+
+    /*
+     * Merges the numbers of the records changed since a snapshot into the
+     * records found matching, as the changed records may have matched in the
+     * snapshot; returns them sorted in ascending order, without repeats.
+     */
+    private static long[] withChanged(long[] found, int[] changed) {
+        if (changed.length == 0) {
+            return found;
+        }
+
+        long[] merged = Arrays.copyOf(found, found.length + changed.length);
+        int numMerged = 0;
+
+        for (int currChanged = 0; currChanged < changed.length;
+        currChanged++) {
+            merged[found.length + currChanged] = changed[currChanged];
+        }
+
+        Arrays.sort(merged);
+
+        for (int currMerged = 0; currMerged < merged.length; currMerged++) {
+            if ((numMerged == 0)
+                    || (merged[currMerged] != merged[numMerged - 1])) {
+                merged[numMerged++] = merged[currMerged];
             }
         }
 
-        return valid;
+        return Arrays.copyOf(merged, numMerged);
     }
 
     /*
-     * A java.util.TimerTask that will unlock a record lock that is held longer
-     * than the configured time-out period. Due to various thread scheduling
-     * implementations, this mechanism makes a "best attempt" at preventing a
-     * client from indefinitely keeping a record locked. The reason being that
-     * the thread that will execute this task may not get CPU time until much
-     * later than the determined time-out period.
+     * Checks the fields of a record against search criteria: a null criterion
+     * matches any value, any other matches the values it begins.
      */
-    private class LockExpirationTask extends TimerTask {
+    private static boolean matches(String[] fields, String[] criteria) {
+        for (int currField = 0; currField < Record.numFields; currField++) {
+            if ((criteria[currField] != null)
+                    && !fields[currField].startsWith(criteria[currField])) {
+                return false;
+            }
+        }
 
-        private long recordNumber;
+        return true;
+    }
 
-        LockExpirationTask(long recNo) {
-            this.recordNumber = recNo;
+    /*
+     * Searches for the specified criteria using the most selective secondary
+     * index available, then checks each candidate against all the criteria.
+     * Returns null when no index applies to the criteria. Must be called while
+     * holding the table read lock, or a snapshot pinned while the database
+     * was open, which closing waits for.
+     */
+    private long[] findIndexed(String[] criteria) {
+        int[] candidates = null;
+        int[] indexed;
+        String prefix;
+        String[] fields;
+        long[] results;
+        int numResults = 0;
+        boolean matches;
+
+        for (FieldIndex index : this.fieldIndexes) {
+            prefix = criteria[index.getField()];
+
+            if ((prefix != null) && (prefix.length() > 0)) {
+                indexed = index.find(prefix);
+
+                if ((candidates == null)
+                        || (indexed.length < candidates.length)) {
+                    candidates = indexed;
+                }
+            }
         }
 
-        @Override
-        public void run() {
+        if (candidates == null) {
+            return null;
+        }
 
-            Data data = Data.this;
+        results = new long[candidates.length];
 
-            synchronized (data) {
+        for (int recNo : candidates) {
+            if (this.records.getStatus(recNo) != Record.VALID) {
+                continue;
+            }
 
-                if (data.open) {
-                    Lock lock = data.locks.get(this.recordNumber);
+            fields = this.records.getFields(recNo);
+            matches = true;
 
-                    /*
-                     * only expire the lock if the client currently holding the
-                     * lock has not yet unlocked the record.
-                     */
+            for (int currField = 0; matches && (currField < Record.numFields);
+            currField++) {
+                matches = (criteria[currField] == null)
+                        || fields[currField].startsWith(criteria[currField]);
+            }
 
-                    if (lock != null) {
-                        data.expiredLockCookies.add(lock.getCookie());
-                        data.locks.remove(this.recordNumber);
-                        data.notifyAll();
+            if (matches) {
+                results[numResults++] = recNo;
+            }
+        }
+
+        return Arrays.copyOf(results, numResults);
+    }
+
+    /*
+     * Helper method to uniformly check a record exists, returning the store
+     * holding it. Takes the table read lock for the lookup only, so must not
+     * be called while holding a lock stripe.
+     */
+    private RecordStore getRecordStore(long recNo)
+            throws RecordNotFoundException {
+        RecordStore store;
+
+        this.tableLock.readLock().lock();
+
+        try {
+            store = this.records;
+        } finally {
+            this.tableLock.readLock().unlock();
+        }
+
+        if ((recNo < 0) || (recNo >= store.size())) {
+            throw new RecordNotFoundException("Record #" + recNo
+                    + " does not exist in the database.");
+        }
+
+        return store;
+    }
+
+    /*
+     * Helper method to uniformly check whether or not a record is deleted.
+     */
+    private void checkDeleted(RecordStore store, long recNo)
+            throws RecordNotFoundException {
+        if (store.getStatus((int) recNo) == Record.DELETED) {
+            throw new RecordNotFoundException("Record #" + recNo
+                    + " has been deleted from the database.");
+        }
+    }
+
+    /*
+     * Helper method to select the index of the lock stripe guarding a record.
+     */
+    private int stripeIndex(long recNo) {
+        return (int) (recNo & (LOCK_STRIPES - 1));
+    }
+
+    /*
+     * Helper method to select the lock stripe guarding a record.
+     */
+    private ReentrantLock stripeFor(long recNo) {
+        return this.stripes[stripeIndex(recNo)];
+    }
+
+    /**
+     * Expire a batch of record locks held longer than the configured time-out
+     * period. Called by the lock expiration timing wheel; the locks are
+     * grouped by lock stripe so that each stripe is taken only once per batch.
+     * Due to various thread scheduling implementations, this mechanism makes a
+     * "best attempt" at preventing a client from indefinitely keeping a record
+     * locked, as the wheel's thread may not get CPU time until much later than
+     * the determined time-out period.
+     * 
+     * @param expirations
+     *            the expirations that are due.
+     */
+    void expireLocks(List<LockExpiration> expirations) {
+        ReentrantLock stripe = null;
+        long recNo;
+        Lock lock;
+
+        Collections.sort(expirations, new Comparator<LockExpiration>() {
+
+            public int compare(LockExpiration e1, LockExpiration e2) {
+                return stripeIndex(e1.getRecordNumber())
+                        - stripeIndex(e2.getRecordNumber());
+            }
+        });
+
+        try {
+            for (LockExpiration expiration : expirations) {
+                recNo = expiration.getRecordNumber();
+
+                if (stripe != stripeFor(recNo)) {
+                    if (stripe != null) {
+                        stripe.unlock();
                     }
+
+                    stripe = stripeFor(recNo);
+                    stripe.lock();
+                }
+
+                if (!this.open) {
+                    break;
+                }
+
+                /*
+                 * only expire the lock if the client currently holding the
+                 * lock has not yet unlocked the record.
+                 */
+
+                lock = this.locks.get(recNo);
+
+                if (lock == expiration.getLock()) {
+                    this.expiredLockCookies.add(lock.getCookie());
+                    this.locks.remove(recNo);
+                    signalNextLocker(recNo);
                 }
             }
+        } finally {
+            if (stripe != null) {
+                stripe.unlock();
+            }
+        }
+    }
+
+    /*
+     * Helper method to wait in the record's lock queue until the record is
+     * unlocked and the calling thread is at the head of the queue, or the
+     * database is closed. Must be called while holding the record's stripe.
+     */
+    private void awaitTurn(long recNo, ReentrantLock stripe) {
+        LockWaitQueue queue = this.lockQueues.get(recNo);
+
+        if (queue == null) {
+            queue = new LockWaitQueue();
+            this.lockQueues.put(recNo, queue);
+        }
+
+        Condition turn = queue.add(stripe);
+
+        this.lockWaits.incrementAndGet();
+        this.waitingLockers.incrementAndGet();
+        updateMaxLockQueueDepth(queue.size());
+
+        try {
+            while (this.open
+                    && (this.locks.containsKey(recNo) || !queue.isHead(turn))) {
+                turn.awaitUninterruptibly();
+            }
+        } finally {
+            queue.remove(turn);
+            this.waitingLockers.decrementAndGet();
+
+            if (queue.isEmpty()) {
+                this.lockQueues.remove(recNo, queue);
+            }
+        }
+    }
+
+    /*
+     * Helper method to wake the next thread waiting to lock a record, if any.
+     * Must be called while holding the record's stripe.
+     */
+    private void signalNextLocker(long recNo) {
+        LockWaitQueue queue = this.lockQueues.get(recNo);
+
+        if (queue != null) {
+            queue.signalHead();
+        }
+    }
+
+    /*
+     * Helper method to record the deepest lock queue observed.
+     */
+    private void updateMaxLockQueueDepth(int depth) {
+        int max = this.maxLockQueueDepth.get();
+
+        while ((depth > max)
+                && !this.maxLockQueueDepth.compareAndSet(max, depth)) {
+            max = this.maxLockQueueDepth.get();
+        }
+    }
+
+    /*
+     * Helper method to determine if a cookie value belongs to a valid lock on
+     * the specified record.
+     */
+    private boolean isLockValid(long recNo, long lockCookie,
+            boolean handleRecHasNoLock) throws SecurityException {
+
+        Lock lock = this.locks.get(recNo);
+
+        if ((lock != null) && (lock.getCookie() == lockCookie)) {
+            return true;
+        }
+
+        /*
+         * only a cookie not matching the record's lock may have expired, so
+         * the registry shared by every stripe is not consulted otherwise.
+         */
+
+        if (this.expiredLockCookies.contains(lockCookie)) {
+            throw new LockExpiredException("Client's record lock expired.");
+        }
 
+        if ((lock != null) || handleRecHasNoLock) {
+            throw new SecurityException("Record not locked by this client.");
         }
 
+        return false;
     }
 
 }
@@ -0,0 +1,93 @@
+package suncertify.db;
+
+import java.io.IOException;
+
+/**
+ * Storage backend of the database file. Abstracts how bytes are read from and
+ * written to the file, so the database can use ordinary file I/O or a memory
+ * mapping of the file.
+ * <p>
+ * All positions are absolute offsets into the file; implementations do not
+ * keep a file pointer, so reads may be issued by several threads at once.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+interface DatabaseFile {
+
+    /**
+     * Get the length of the database file.
+     * 
+     * @return the length of the file in bytes.
+     * @throws IOException
+     *             when an error occurs accessing the file.
+     */
+    long length() throws IOException;
+
+    /**
+     * Read bytes from the database file, filling the specified range of the
+     * buffer.
+     * 
+     * @param position
+     *            the offset into the file to read from.
+     * @param buffer
+     *            the buffer to read into.
+     * @param offset
+     *            the offset into the buffer to start storing bytes at.
+     * @param length
+     *            the number of bytes to read.
+     * @throws java.io.EOFException
+     *             when the end of the file is reached before all the bytes are
+     *             read.
+     * @throws IOException
+     *             when an error occurs reading the file.
+     */
+    void read(long position, byte[] buffer, int offset, int length)
+            throws IOException;
+
+    /**
+     * Write bytes to the database file. The bytes must lie within the current
+     * length of the file; use {@link #setLength(long)} to grow the file first.
+     * 
+     * @param position
+     *            the offset into the file to write at.
+     * @param buffer
+     *            the buffer containing the bytes to write.
+     * @param offset
+     *            the offset into the buffer of the first byte to write.
+     * @param length
+     *            the number of bytes to write.
+     * @throws IOException
+     *             when an error occurs writing the file.
+     */
+    void write(long position, byte[] buffer, int offset, int length)
+            throws IOException;
+
+    /**
+     * Set the length of the database file.
+     * 
+     * @param newLength
+     *            the new length of the file in bytes.
+     * @throws IOException
+     *             when an error occurs resizing the file.
+     */
+    void setLength(long newLength) throws IOException;
+
+    /**
+     * Force all the writes made so far out to the storage device. Writes are
+     * only guaranteed to be durable once this method returns.
+     * 
+     * @throws IOException
+     *             when an error occurs writing the file.
+     */
+    void force() throws IOException;
+
+    /**
+     * Close the database file.
+     * 
+     * @throws IOException
+     *             when an error occurs closing the file.
+     */
+    void close() throws IOException;
+
+}
@@ -0,0 +1,100 @@
+package suncertify.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream reading sequentially through a {@link DatabaseFile} in large
+ * blocks, so the database can be loaded with a few large reads instead of one
+ * read per field.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class DatabaseFileInputStream extends InputStream {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private DatabaseFile file;
+
+    private long filePosition;
+
+    private long fileLength;
+
+    private byte[] block;
+
+    private int blockPosition;
+
+    private int blockLength;
+
+    /**
+     * Constructs a stream reading the database file from the specified
+     * position to the end of the file.
+     * 
+     * @param dbFile
+     *            the database file to read.
+     * @param position
+     *            the offset into the file to start reading at.
+     * @throws IOException
+     *             when an error occurs accessing the file.
+     */
+    DatabaseFileInputStream(DatabaseFile dbFile, long position)
+            throws IOException {
+        this.file = dbFile;
+        this.filePosition = position;
+        this.fileLength = dbFile.length();
+        this.block = new byte[BLOCK_SIZE];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        if ((this.blockPosition == this.blockLength) && !fill()) {
+            return -1;
+        }
+
+        return this.block[this.blockPosition++] & 0xff;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+
+        if ((this.blockPosition == this.blockLength) && !fill()) {
+            return -1;
+        }
+
+        int count = Math.min(length, this.blockLength - this.blockPosition);
+        System.arraycopy(this.block, this.blockPosition, buffer, offset, count);
+        this.blockPosition += count;
+
+        return count;
+    }
+
+    /*
+     * Read the next block of the file, returning false at the end of the file.
+     */
+    private boolean fill() throws IOException {
+        int count = (int) Math.min(BLOCK_SIZE, this.fileLength
+                - this.filePosition);
+
+        if (count <= 0) {
+            return false;
+        }
+
+        this.file.read(this.filePosition, this.block, 0, count);
+        this.filePosition += count;
+        this.blockPosition = 0;
+        this.blockLength = count;
+
+        return true;
+    }
+
+}
@@ -1,8 +1,5 @@
 package suncertify.db;
 
-import java.io.IOException;
-import java.io.RandomAccessFile;
-
 /**
  * A database delete record operation.
  * 
@@ -21,21 +18,23 @@ class DeleteRecordTask extends AsyncFileWriterTask {
      * @param offset
      *            number of bytes into the file to begin deleting a record at.
      * 
-     * @see AsyncFileWriterTask#AsyncFileWriterTask(RandomAccessFile, long)
+     * @see AsyncFileWriterTask#AsyncFileWriterTask(DatabaseFile, long)
      */
-    DeleteRecordTask(RandomAccessFile file, long offset) {
+    DeleteRecordTask(DatabaseFile file, long offset) {
         super(file, offset);
     }
 
     /**
-     * Delete a record from the database file.
+     * Encode the deleted status of the record.
      * 
-     * @see AsyncFileWriterTask#execute()
+     * @see AsyncFileWriterTask#encode()
      */
     @Override
-    void execute() throws IOException {
-        this.dbFile.seek(this.fileOffset);
-        this.dbFile.writeShort(Record.DELETED);
+    byte[] encode() {
+        byte[] status = { (byte) (Record.DELETED >>> 8),
+                (byte) Record.DELETED };
+
+        return status;
     }
 
 }
@@ -1,7 +1,6 @@
 package suncertify.db;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 
 /**
  * Marker class to indicate to the {@link AsyncFileWriter} to stop executing
@@ -21,17 +20,29 @@ class EndFileWritingTask extends AsyncFileWriterTask {
      * @param offset
      *            a dummy offset.
      */
-    EndFileWritingTask(RandomAccessFile file, long offset) {
+    EndFileWritingTask(DatabaseFile file, long offset) {
         super(file, offset);
     }
 
     /**
-     * Closes the database file this task was constructed with.
+     * Writes nothing.
      * 
-     * @see AsyncFileWriterTask#execute()
+     * @see AsyncFileWriterTask#encode()
      */
     @Override
+    byte[] encode() {
+        return new byte[0];
+    }
+
+    /**
+     * Forces any outstanding writes out and closes the database file this task
+     * was constructed with.
+     * 
+     * @throws IOException
+     *             when an error occurs closing the database file.
+     */
     void execute() throws IOException {
+        this.dbFile.force();
         this.dbFile.close();
     }
 
@@ -0,0 +1,269 @@
+package suncertify.db;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A bounded registry of the cookies of expired record locks, so that a client
+ * using a cookie after its lock expired is told so rather than being told the
+ * record was never locked by it.
+ * <p>
+ * Cookies are kept in two generations, each an open-addressing hash table of
+ * primitive <code>long</code> values with a fixed capacity. New cookies are
+ * added to the current generation; once it is older than the retention period,
+ * or half full, it becomes the previous generation and the old previous
+ * generation is discarded. A cookie is therefore remembered for at least the
+ * retention period, unless more cookies expire within that period than the
+ * registry has room for, and memory use never grows past the two tables.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class ExpiredCookieRegistry {
+
+    private final long retention;
+
+    private final ReentrantReadWriteLock registryLock;
+
+    private Generation current;
+
+    private Generation previous;
+
+    /**
+     * Constructs an empty <code>ExpiredCookieRegistry</code>.
+     * 
+     * @param retentionMillis
+     *            the minimum number of milliseconds to remember a cookie for.
+     * @param capacity
+     *            the number of slots in each generation, rounded up to a power
+     *            of two; each generation holds up to half this many cookies.
+     */
+    ExpiredCookieRegistry(long retentionMillis, int capacity) {
+        int slots = 2;
+
+        while (slots < capacity) {
+            slots <<= 1;
+        }
+
+        long now = System.currentTimeMillis();
+
+        this.retention = retentionMillis;
+        this.registryLock = new ReentrantReadWriteLock();
+        this.current = new Generation(slots, now);
+        this.previous = new Generation(slots, now);
+    }
+
+    /**
+     * Remember the cookie of an expired record lock.
+     * 
+     * @param cookie
+     *            the expired cookie.
+     */
+    void add(long cookie) {
+        this.registryLock.writeLock().lock();
+
+        try {
+            rotateIfDue(System.currentTimeMillis());
+
+            if (this.current.isFull()) {
+                rotate(System.currentTimeMillis());
+            }
+
+            this.current.add(cookie);
+        } finally {
+            this.registryLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Determine if a cookie belongs to a lock that expired within the
+     * retention period.
+     * 
+     * @param cookie
+     *            the cookie to look up.
+     * @return <code>true</code> if the cookie is a remembered expired cookie,
+     *         <code>false</code> otherwise.
+     */
+    boolean contains(long cookie) {
+        long now = System.currentTimeMillis();
+
+        this.registryLock.readLock().lock();
+
+        try {
+            if (!isRotationDue(now)) {
+                return this.current.contains(cookie)
+                        || this.previous.contains(cookie);
+            }
+        } finally {
+            this.registryLock.readLock().unlock();
+        }
+
+        /* prune expired generations before answering */
+
+        this.registryLock.writeLock().lock();
+
+        try {
+            rotateIfDue(now);
+
+            return this.current.contains(cookie)
+                    || this.previous.contains(cookie);
+        } finally {
+            this.registryLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forget every cookie.
+     */
+    void clear() {
+        this.registryLock.writeLock().lock();
+
+        try {
+            long now = System.currentTimeMillis();
+
+            this.current.clear(now);
+            this.previous.clear(now);
+        } finally {
+            this.registryLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of cookies currently remembered.
+     * 
+     * @return the number of expired cookies.
+     */
+    int size() {
+        this.registryLock.readLock().lock();
+
+        try {
+            return this.current.size + this.previous.size;
+        } finally {
+            this.registryLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the approximate number of bytes of memory used by the registry's
+     * tables. This does not change as cookies are added or pruned.
+     * 
+     * @return the memory used, in bytes.
+     */
+    long getMemoryUsage() {
+        return 2L * this.current.slots.length * 8;
+    }
+
+    private boolean isRotationDue(long now) {
+        return (now - this.current.started) >= this.retention;
+    }
+
+    private void rotateIfDue(long now) {
+        if (isRotationDue(now)) {
+            if ((now - this.current.started) >= (2 * this.retention)) {
+                /* both generations are past the retention period */
+
+                this.current.clear(now);
+                this.previous.clear(now);
+            } else {
+                rotate(now);
+            }
+        }
+    }
+
+    private void rotate(long now) {
+        Generation discarded = this.previous;
+
+        this.previous = this.current;
+        discarded.clear(now);
+        this.current = discarded;
+    }
+
+    /*
+     * An open-addressing hash set of cookies using linear probing. Zero marks
+     * an empty slot, so a zero cookie is tracked separately.
+     */
+    private static class Generation {
+
+        private final long[] slots;
+
+        private final int mask;
+
+        private boolean hasZero;
+
+        private int size;
+
+        private long started;
+
+        Generation(int capacity, long now) {
+            this.slots = new long[capacity];
+            this.mask = capacity - 1;
+            this.started = now;
+        }
+
+        boolean isFull() {
+            return this.size >= (this.slots.length >> 1);
+        }
+
+        void add(long cookie) {
+            if (cookie == 0) {
+                if (!this.hasZero) {
+                    this.hasZero = true;
+                    this.size++;
+                }
+            } else {
+                int slot = indexOf(cookie);
+
+                while (this.slots[slot] != 0) {
+                    if (this.slots[slot] == cookie) {
+                        return;
+                    }
+
+                    slot = (slot + 1) & this.mask;
+                }
+
+                this.slots[slot] = cookie;
+                this.size++;
+            }
+        }
+
+        boolean contains(long cookie) {
+            if (cookie == 0) {
+                return this.hasZero;
+            }
+
+            if (this.size == 0) {
+                return false;
+            }
+
+            int slot = indexOf(cookie);
+
+            while (this.slots[slot] != 0) {
+                if (this.slots[slot] == cookie) {
+                    return true;
+                }
+
+                slot = (slot + 1) & this.mask;
+            }
+
+            return false;
+        }
+
+        void clear(long now) {
+            if (this.size > 0) {
+                Arrays.fill(this.slots, 0);
+            }
+
+            this.hasZero = false;
+            this.size = 0;
+            this.started = now;
+        }
+
+        private int indexOf(long cookie) {
+            long hash = cookie * 0x9E3779B97F4A7C15L;
+
+            return (int) (hash ^ (hash >>> 32)) & this.mask;
+        }
+
+    }
+
+}
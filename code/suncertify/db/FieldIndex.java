@@ -0,0 +1,181 @@
+package suncertify.db;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A secondary index over the values of one field of the valid records,
+ * answering prefix searches on that field. Values are kept in sorted order,
+ * so the records whose value begins with a prefix are found in time
+ * proportional to their number, rather than by scanning every record.
+ * <p>
+ * The index is safe for use by several threads at once; it is guarded by its
+ * own read/write lock, which is never held while acquiring another lock.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class FieldIndex {
+
+    private final int field;
+
+    private final ReentrantReadWriteLock lock;
+
+    /*
+     * Mapping of field values to the numbers of the records holding them.
+     */
+    private final TreeMap<String, TreeSet<Integer>> entries;
+
+    /**
+     * Constructs an empty index over the specified field.
+     * 
+     * @param field
+     *            the number of the indexed field.
+     */
+    FieldIndex(int field) {
+        this.field = field;
+        this.lock = new ReentrantReadWriteLock();
+        this.entries = new TreeMap<String, TreeSet<Integer>>();
+    }
+
+    /**
+     * Get the number of the indexed field.
+     * 
+     * @return the field number.
+     */
+    int getField() {
+        return this.field;
+    }
+
+    /**
+     * Add a record to the index.
+     * 
+     * @param recNo
+     *            the number of the record.
+     * @param fields
+     *            the record's fields.
+     */
+    void add(int recNo, String[] fields) {
+        this.lock.writeLock().lock();
+
+        try {
+            addEntry(recNo, fields[this.field]);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a record from the index.
+     * 
+     * @param recNo
+     *            the number of the record.
+     * @param fields
+     *            the record's fields, as they were when it was added.
+     */
+    void remove(int recNo, String[] fields) {
+        this.lock.writeLock().lock();
+
+        try {
+            removeEntry(recNo, fields[this.field]);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Move a record within the index after its fields are updated. Does
+     * nothing if the indexed field did not change.
+     * 
+     * @param recNo
+     *            the number of the record.
+     * @param oldFields
+     *            the record's fields before the update.
+     * @param newFields
+     *            the record's fields after the update.
+     */
+    void update(int recNo, String[] oldFields, String[] newFields) {
+        if (oldFields[this.field].equals(newFields[this.field])) {
+            return;
+        }
+
+        this.lock.writeLock().lock();
+
+        try {
+            removeEntry(recNo, oldFields[this.field]);
+            addEntry(recNo, newFields[this.field]);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find the records whose value of the indexed field begins with the
+     * specified prefix.
+     * 
+     * @param prefix
+     *            the prefix to search for.
+     * @return the numbers of the matching records, in ascending order.
+     */
+    int[] find(String prefix) {
+        int[] results = new int[16];
+        int numResults = 0;
+
+        this.lock.readLock().lock();
+
+        try {
+            for (Map.Entry<String, TreeSet<Integer>> entry : this.entries
+                    .tailMap(prefix, true).entrySet()) {
+                if (!entry.getKey().startsWith(prefix)) {
+                    break;
+                }
+
+                for (Integer recNo : entry.getValue()) {
+                    if (numResults == results.length) {
+                        results = Arrays.copyOf(results, numResults * 2);
+                    }
+
+                    results[numResults++] = recNo;
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        results = Arrays.copyOf(results, numResults);
+        Arrays.sort(results);
+
+        return results;
+    }
+
+    /*
+     * Add an entry for a record's value; must be called while holding the
+     * write lock.
+     */
+    private void addEntry(int recNo, String value) {
+        TreeSet<Integer> recNos = this.entries.get(value);
+
+        if (recNos == null) {
+            recNos = new TreeSet<Integer>();
+            this.entries.put(value, recNos);
+        }
+
+        recNos.add(recNo);
+    }
+
+    /*
+     * Remove the entry for a record's value; must be called while holding the
+     * write lock.
+     */
+    private void removeEntry(int recNo, String value) {
+        TreeSet<Integer> recNos = this.entries.get(value);
+
+        if ((recNos != null) && recNos.remove(recNo) && recNos.isEmpty()) {
+            this.entries.remove(value);
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+package suncertify.db;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The numbers of the deleted records whose slots can be reused by new
+ * records. The lowest free slot is reused first, as when the database file
+ * was scanned for the first deleted record, so new records fill the file from
+ * its start. Slots are kept in a binary heap, so a deleted slot is added and
+ * the lowest free slot taken in logarithmic time, rather than by scanning
+ * every record of the database.
+ * <p>
+ * The list is safe for use by several threads at once; it is guarded by its
+ * own lock, which is never held while acquiring another lock.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class FreeRecordList {
+
+    private final ReentrantLock lock;
+
+    /*
+     * The free slots in a binary heap: each slot is lower than the slots at
+     * the two positions following twice its own.
+     */
+    private int[] recNos;
+
+    private int size;
+
+    /**
+     * Constructs an empty list.
+     */
+    FreeRecordList() {
+        this.lock = new ReentrantLock();
+        this.recNos = new int[16];
+    }
+
+    /**
+     * Add the slot of a deleted record to the list. Must be called once the
+     * record's status is {@link Record#DELETED}, and only once per deletion.
+     * 
+     * @param recNo
+     *            the number of the deleted record.
+     */
+    void add(int recNo) {
+        int position;
+        int parent;
+
+        this.lock.lock();
+
+        try {
+            if (this.size == this.recNos.length) {
+                this.recNos = Arrays.copyOf(this.recNos, this.size * 2);
+            }
+
+            /* move higher parents down until the slot's place is found */
+
+            position = this.size++;
+
+            while (position > 0) {
+                parent = (position - 1) >> 1;
+
+                if (this.recNos[parent] <= recNo) {
+                    break;
+                }
+
+                this.recNos[position] = this.recNos[parent];
+                position = parent;
+            }
+
+            this.recNos[position] = recNo;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Take the lowest free slot from the list.
+     * 
+     * @return the lowest number of a deleted record to reuse, or -1 if there
+     *         is none.
+     */
+    int take() {
+        int lowest;
+        int last;
+        int position;
+        int child;
+
+        this.lock.lock();
+
+        try {
+            if (this.size == 0) {
+                return -1;
+            }
+
+            lowest = this.recNos[0];
+            last = this.recNos[--this.size];
+
+            /* move lower children up until the last slot's place is found */
+
+            position = 0;
+
+            while ((child = (position << 1) + 1) < this.size) {
+                if (((child + 1) < this.size)
+                        && (this.recNos[child + 1] < this.recNos[child])) {
+                    child++;
+                }
+
+                if (last <= this.recNos[child]) {
+                    break;
+                }
+
+                this.recNos[position] = this.recNos[child];
+                position = child;
+            }
+
+            this.recNos[position] = last;
+
+            return lowest;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of free slots in the list.
+     * 
+     * @return the number of deleted records not yet reused.
+     */
+    int size() {
+        this.lock.lock();
+
+        try {
+            return this.size;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,240 @@
+package suncertify.db;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+import suncertify.util.StringUtil;
+
+/**
+ * A {@link RecordStore} holding each record as a {@link Record} object with
+ * its fields decoded to <code>String</code> objects, normalized as they are
+ * written to the database file.
+ * <p>
+ * Records are kept in fixed size chunks which never move once allocated, so a
+ * record can be looked up without locking while another thread adds records.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class HeapRecordStore implements RecordStore {
+
+    private static final int CHUNK_SHIFT = 10;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile Record[][] chunks;
+
+    private volatile int size;
+
+    /**
+     * Constructs an empty store.
+     */
+    HeapRecordStore() {
+        this.chunks = new Record[0][];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int add(long filePosition, int status, byte[] buffer, int offset)
+            throws UnsupportedEncodingException {
+        return addDecoded(filePosition, status, decode(buffer, offset));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int add(long filePosition, int status, String[] fields) {
+        return addDecoded(filePosition, status, Record
+                .normalizeFields(fields));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void allocate(int numRecords) {
+        grow(numRecords);
+        this.size = Math.max(this.size, numRecords);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void load(int recNo, long filePosition, int status, byte[] buffer,
+            int offset) throws UnsupportedEncodingException {
+        this.chunks[recNo >> CHUNK_SHIFT][recNo & CHUNK_MASK] = newRecord(
+                recNo, filePosition, status, decode(buffer, offset));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getStatus(int recNo) {
+        return record(recNo).getStatus();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setStatus(int recNo, int status) {
+        record(recNo).setStatus(status);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getFields(int recNo) {
+        return record(recNo).getFields();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void readFields(int recNo, String[] fields) {
+        record(recNo).readFields(fields);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setFields(int recNo, String[] fields) {
+        record(recNo).setFields(Record.normalizeFields(fields));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getFilePosition(int recNo) {
+        return record(recNo).getFilePosition();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long[] find(String[] criteria) {
+        int numRecords = this.size;
+        long[] results = new long[16];
+        int numResults = 0;
+        Record record;
+        String[] fields;
+        boolean matches;
+
+        for (int currRec = 0; currRec < numRecords; currRec++) {
+            record = record(currRec);
+
+            if (record.getStatus() != Record.VALID) {
+                continue;
+            }
+
+            fields = record.getFields();
+            matches = true;
+
+            for (int currField = 0; matches && (currField < Record.numFields);
+            currField++) {
+                matches = (criteria[currField] == null)
+                        || fields[currField].startsWith(criteria[currField]);
+            }
+
+            if (matches) {
+                if (numResults == results.length) {
+                    results = Arrays.copyOf(results, numResults * 2);
+                }
+
+                results[numResults++] = currRec;
+            }
+        }
+
+        return Arrays.copyOf(results, numResults);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clear() {
+        this.size = 0;
+        this.chunks = new Record[0][];
+    }
+
+    /*
+     * Add a record whose fields are already in their normalized form.
+     */
+    private int addDecoded(long filePosition, int status, String[] fields) {
+        int recNo = this.size;
+
+        grow(recNo + 1);
+        this.chunks[recNo >> CHUNK_SHIFT][recNo & CHUNK_MASK] = newRecord(
+                recNo, filePosition, status, fields);
+        this.size = recNo + 1;
+
+        return recNo;
+    }
+
+    /*
+     * Look up a record by number.
+     */
+    private Record record(int recNo) {
+        return this.chunks[recNo >> CHUNK_SHIFT][recNo & CHUNK_MASK];
+    }
+
+    /*
+     * Allocate the chunks needed to hold the specified number of records.
+     */
+    private void grow(int numRecords) {
+        int numChunks = (numRecords + CHUNK_MASK) >> CHUNK_SHIFT;
+
+        if (numChunks > this.chunks.length) {
+            Record[][] newChunks = Arrays.copyOf(this.chunks, numChunks);
+
+            for (int currChunk = this.chunks.length; currChunk < numChunks;
+            currChunk++) {
+                newChunks[currChunk] = new Record[CHUNK_SIZE];
+            }
+
+            this.chunks = newChunks;
+        }
+    }
+
+    /*
+     * Create the object holding a record.
+     */
+    private static Record newRecord(int recNo, long filePosition, int status,
+            String[] fields) {
+        Record record = new Record();
+
+        record.setFilePosition(filePosition);
+        record.setRecordNumber(recNo);
+        record.setStatus(status);
+        record.setFields(fields);
+
+        return record;
+    }
+
+    /*
+     * Decode the fields of a record from their encoded form, each padded to
+     * its full length.
+     */
+    private static String[] decode(byte[] buffer, int offset)
+            throws UnsupportedEncodingException {
+        String[] fields = new String[Record.numFields];
+        byte[] field;
+
+        for (int currField = 0; currField < Record.numFields; currField++) {
+            field = new byte[Record.fieldLengths[currField]];
+            System.arraycopy(buffer, offset, field, 0, field.length);
+            fields[currField] = StringUtil.convertBytesToString(field);
+            offset += field.length;
+        }
+
+        return fields;
+    }
+
+}
@@ -0,0 +1,265 @@
+package suncertify.db;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link RecordStore} reading the records of the database file lazily, so
+ * the database can be opened without reading its data section. The records
+ * are held by another record store, allocated for every record of the file
+ * up front; each batch of records is read into it the first time one of its
+ * records is used, and a search reads every batch not read yet. As a
+ * <code>Runnable</code>, the store reads the remaining batches in the
+ * background, in file order, then runs a task, such as building indexes.
+ * <p>
+ * A batch is only read while no record in it has changed, since every change
+ * goes through the store and reads the batch first; the file does not change
+ * under a batch before it is read. The numbers of the deleted records found
+ * are added to the free record list as each batch is read.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class LazyRecordStore implements RecordStore, Runnable {
+
+    private final RecordStore store;
+
+    private final DatabaseFile file;
+
+    private final long recordsPosition;
+
+    private final int numFileRecords;
+
+    private final FreeRecordList freeRecords;
+
+    private final Runnable whenLoaded;
+
+    /*
+     * Whether each batch of records has been read, and the locks guarding the
+     * reading of each batch.
+     */
+    private final AtomicIntegerArray loaded;
+
+    private final ReentrantLock[] batchLocks;
+
+    /**
+     * Constructs a store of the records of a database file, reading none of
+     * them yet.
+     * 
+     * @param store
+     *            the empty record store to read the records into.
+     * @param file
+     *            the database file.
+     * @param recordsPosition
+     *            the offset into the file of the first record.
+     * @param freeRecords
+     *            the list to add the deleted records to as they are found.
+     * @param whenLoaded
+     *            the task to run once every record is read in the
+     *            background.
+     * @throws IOException
+     *             when an error occurs accessing the file.
+     */
+    LazyRecordStore(RecordStore store, DatabaseFile file,
+            long recordsPosition, FreeRecordList freeRecords,
+            Runnable whenLoaded) throws IOException {
+        this.store = store;
+        this.file = file;
+        this.recordsPosition = recordsPosition;
+        this.numFileRecords = RecordLoader.count(file, recordsPosition);
+        this.freeRecords = freeRecords;
+        this.whenLoaded = whenLoaded;
+
+        int numBatches = (this.numFileRecords + RecordLoader.BATCH_SIZE - 1)
+                / RecordLoader.BATCH_SIZE;
+
+        this.loaded = new AtomicIntegerArray(numBatches);
+        this.batchLocks = new ReentrantLock[numBatches];
+
+        for (int currBatch = 0; currBatch < numBatches; currBatch++) {
+            this.batchLocks[currBatch] = new ReentrantLock();
+        }
+
+        this.store.allocate(this.numFileRecords);
+    }
+
+    /**
+     * Read every batch not read yet, in file order, then run the task given
+     * when the store was constructed. Stops early if the thread is
+     * interrupted.
+     */
+    public void run() {
+        for (int currBatch = 0; currBatch < this.batchLocks.length;
+        currBatch++) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+
+            loadBatch(currBatch);
+        }
+
+        this.whenLoaded.run();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int size() {
+        return this.store.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int add(long filePosition, int status, byte[] buffer, int offset)
+            throws IOException {
+        return this.store.add(filePosition, status, buffer, offset);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int add(long filePosition, int status, String[] fields) {
+        return this.store.add(filePosition, status, fields);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void allocate(int numRecords) {
+        this.store.allocate(numRecords);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void load(int recNo, long filePosition, int status, byte[] buffer,
+            int offset) throws IOException {
+        this.store.load(recNo, filePosition, status, buffer, offset);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getStatus(int recNo) {
+        ensureLoaded(recNo);
+        return this.store.getStatus(recNo);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setStatus(int recNo, int status) {
+        ensureLoaded(recNo);
+        this.store.setStatus(recNo, status);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getFields(int recNo) {
+        ensureLoaded(recNo);
+        return this.store.getFields(recNo);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void readFields(int recNo, String[] fields) {
+        ensureLoaded(recNo);
+        this.store.readFields(recNo, fields);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setFields(int recNo, String[] fields) {
+        ensureLoaded(recNo);
+        this.store.setFields(recNo, fields);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getFilePosition(int recNo) {
+        ensureLoaded(recNo);
+        return this.store.getFilePosition(recNo);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long[] find(String[] criteria) {
+
+        /*
+         * read the batches from the end of the file, toward the background
+         * reader working from the start.
+         */
+
+        for (int currBatch = this.batchLocks.length - 1; currBatch >= 0;
+        currBatch--) {
+            if (this.loaded.get(currBatch) == 0) {
+                loadBatch(currBatch);
+            }
+        }
+
+        return this.store.find(criteria);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clear() {
+        this.store.clear();
+    }
+
+    /*
+     * Read the batch holding a record if it has not been read yet. Records
+     * added since the database was opened are always held by the store.
+     */
+    private void ensureLoaded(int recNo) {
+        if (recNo < this.numFileRecords) {
+            int batch = recNo / RecordLoader.BATCH_SIZE;
+
+            if (this.loaded.get(batch) == 0) {
+                loadBatch(batch);
+            }
+        }
+    }
+
+    /*
+     * Read a batch of records into the store, unless another thread already
+     * did, and add its deleted records to the free record list.
+     */
+    private void loadBatch(int batch) {
+        int fromRecNo = batch * RecordLoader.BATCH_SIZE;
+        int toRecNo = Math.min(fromRecNo + RecordLoader.BATCH_SIZE,
+                this.numFileRecords);
+
+        this.batchLocks[batch].lock();
+
+        try {
+            if (this.loaded.get(batch) == 0) {
+                RecordLoader.loadBatch(this.file, this.store,
+                        this.recordsPosition, fromRecNo, toRecNo);
+
+                for (int currRecNo = fromRecNo; currRecNo < toRecNo;
+                currRecNo++) {
+                    if (this.store.getStatus(currRecNo) == Record.DELETED) {
+                        this.freeRecords.add(currRecNo);
+                    }
+                }
+
+                this.loaded.set(batch, 1);
+            }
+        } catch (IOException e) {
+            // shutdown the server on any database file IO error.
+            e.printStackTrace();
+            System.exit(-1);
+        } finally {
+            this.batchLocks[batch].unlock();
+        }
+    }
+
+}
@@ -17,6 +17,8 @@ class Lock {
 
     private Long lock;
 
+    private LockExpiration expiration;
+
     /**
      * Create a <code>Lock</code> object that will contain a unique 64-bit
      * number that can be used by clients that obtain this lock to identify
@@ -46,4 +48,24 @@ class Lock {
         return this.lock;
     }
 
+    /**
+     * Get the pending expiration of this <code>Lock</code>.
+     * 
+     * @return the expiration, or <code>null</code> if none was scheduled.
+     */
+    LockExpiration getExpiration() {
+        return this.expiration;
+    }
+
+    /**
+     * Set the pending expiration of this <code>Lock</code>, so it can be
+     * cancelled when the record is unlocked.
+     * 
+     * @param lockExpiration
+     *            the expiration scheduled for this lock.
+     */
+    void setExpiration(LockExpiration lockExpiration) {
+        this.expiration = lockExpiration;
+    }
+
 }
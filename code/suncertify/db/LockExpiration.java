@@ -0,0 +1,124 @@
+package suncertify.db;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A pending expiration of a record lock, scheduled on a
+ * {@link LockExpirationWheel}. Expirations are cancelled when the record is
+ * unlocked before the lock times out.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class LockExpiration {
+
+    private static final int PENDING = 0;
+
+    private static final int CANCELLED = 1;
+
+    private static final int EXPIRED = 2;
+
+    private static final AtomicIntegerFieldUpdater<LockExpiration> STATE =
+        AtomicIntegerFieldUpdater.newUpdater(LockExpiration.class, "state");
+
+    private final LockExpirationWheel wheel;
+
+    private final long recordNumber;
+
+    private final Lock lock;
+
+    private final long deadline;
+
+    private volatile int state;
+
+    /*
+     * Wheel bookkeeping, only accessed by the wheel's thread.
+     */
+
+    long remainingRounds;
+
+    LockExpiration previous;
+
+    LockExpiration next;
+
+    int bucketIndex = -1;
+
+    /**
+     * Constructs a pending expiration of a record lock.
+     * 
+     * @param expirationWheel
+     *            the wheel the expiration is scheduled on.
+     * @param recNo
+     *            the number of the locked record.
+     * @param recordLock
+     *            the lock to expire.
+     * @param expirationDeadline
+     *            the time the lock expires, in nanoseconds relative to the
+     *            start of the wheel.
+     */
+    LockExpiration(LockExpirationWheel expirationWheel, long recNo,
+            Lock recordLock, long expirationDeadline) {
+        this.wheel = expirationWheel;
+        this.recordNumber = recNo;
+        this.lock = recordLock;
+        this.deadline = expirationDeadline;
+        this.state = PENDING;
+    }
+
+    /**
+     * Get the number of the locked record.
+     * 
+     * @return the record number.
+     */
+    long getRecordNumber() {
+        return this.recordNumber;
+    }
+
+    /**
+     * Get the lock to expire.
+     * 
+     * @return the record lock.
+     */
+    Lock getLock() {
+        return this.lock;
+    }
+
+    /**
+     * Get the time the lock expires.
+     * 
+     * @return the deadline, in nanoseconds relative to the start of the wheel.
+     */
+    long getDeadline() {
+        return this.deadline;
+    }
+
+    /**
+     * Cancel this expiration so the lock will not be expired. Has no effect if
+     * the expiration has already been cancelled or has already fired.
+     */
+    void cancel() {
+        if (STATE.compareAndSet(this, PENDING, CANCELLED)) {
+            this.wheel.cancelled(this);
+        }
+    }
+
+    /**
+     * Determine if this expiration has been cancelled.
+     * 
+     * @return <code>true</code> if cancelled, <code>false</code> otherwise.
+     */
+    boolean isCancelled() {
+        return this.state == CANCELLED;
+    }
+
+    /**
+     * Mark this expiration as fired.
+     * 
+     * @return <code>true</code> if the expiration was still pending,
+     *         <code>false</code> if it was cancelled in the meantime.
+     */
+    boolean expire() {
+        return STATE.compareAndSet(this, PENDING, EXPIRED);
+    }
+
+}
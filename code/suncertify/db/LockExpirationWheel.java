@@ -0,0 +1,271 @@
+package suncertify.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timing wheel that expires record locks held longer than the lock
+ * time-out period. Replaces a <code>java.util.Timer</code>, whose task queue
+ * is a heap that fills up with tasks for locks that were unlocked long ago.
+ * <p>
+ * Scheduling and cancelling an expiration are constant time and never block:
+ * both only add the expiration to a concurrent queue, which the wheel's own
+ * thread drains once per tick. The wheel is an array of buckets, each a
+ * linked list of expirations due in the same slot of the wheel, possibly
+ * several rounds of the wheel later. On each tick, the expirations due in the
+ * current bucket are handed to the database together as one batch.
+ * <p>
+ * As with the timer it replaces, expiration is a best effort: locks expire no
+ * earlier than their deadline, but may expire up to a tick later, or later
+ * still depending on the thread scheduler.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class LockExpirationWheel implements Runnable {
+
+    private final Data database;
+
+    private final long tickDuration;
+
+    private final LockExpiration[] wheel;
+
+    private final int mask;
+
+    private final long startTime;
+
+    private final ConcurrentLinkedQueue<LockExpiration> scheduled;
+
+    private final ConcurrentLinkedQueue<LockExpiration> cancelled;
+
+    private long tick;
+
+    private volatile boolean running;
+
+    /**
+     * Constructs a timing wheel for expiring the record locks of the specified
+     * database.
+     * 
+     * @param data
+     *            the database whose record locks will be expired.
+     * @param tickMillis
+     *            the duration of a tick of the wheel, in milliseconds.
+     * @param wheelSize
+     *            the number of buckets in the wheel, rounded up to a power of
+     *            two.
+     */
+    LockExpirationWheel(Data data, long tickMillis, int wheelSize) {
+        int numBuckets = 1;
+
+        while (numBuckets < wheelSize) {
+            numBuckets <<= 1;
+        }
+
+        this.database = data;
+        this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.wheel = new LockExpiration[numBuckets];
+        this.mask = numBuckets - 1;
+        this.scheduled = new ConcurrentLinkedQueue<LockExpiration>();
+        this.cancelled = new ConcurrentLinkedQueue<LockExpiration>();
+        this.tick = 0;
+        this.running = true;
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Schedule a record lock to expire after the specified delay.
+     * 
+     * @param recNo
+     *            the number of the locked record.
+     * @param lock
+     *            the lock to expire.
+     * @param delayMillis
+     *            the number of milliseconds before the lock expires.
+     * @return the pending expiration, which can be used to cancel it.
+     */
+    LockExpiration schedule(long recNo, Lock lock, long delayMillis) {
+        long deadline = System.nanoTime() - this.startTime
+                + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        LockExpiration expiration = new LockExpiration(this, recNo, lock,
+                deadline);
+
+        this.scheduled.add(expiration);
+
+        return expiration;
+    }
+
+    /**
+     * Stop expiring record locks. Pending expirations are discarded.
+     */
+    void stop() {
+        this.running = false;
+    }
+
+    /**
+     * Queue a cancelled expiration for removal from its bucket.
+     * 
+     * @param expiration
+     *            the expiration that was cancelled.
+     */
+    void cancelled(LockExpiration expiration) {
+        this.cancelled.add(expiration);
+    }
+
+    /**
+     * Turn the wheel once per tick, expiring the locks that are due, until
+     * the wheel is stopped.
+     */
+    public void run() {
+        long now;
+
+        while (this.running) {
+            now = waitForNextTick();
+
+            if (now >= 0) {
+                removeCancelled();
+                addScheduled();
+                expireBucket((int) (this.tick & this.mask), now);
+                this.tick++;
+            }
+        }
+
+        this.scheduled.clear();
+        this.cancelled.clear();
+    }
+
+    /*
+     * Sleep until the start of the next tick. Returns the current time
+     * relative to the start of the wheel, or -1 if the wheel was stopped.
+     */
+    private long waitForNextTick() {
+        long deadline = this.tickDuration * (this.tick + 1);
+        long now;
+        long sleepMillis;
+
+        while (true) {
+            now = System.nanoTime() - this.startTime;
+            sleepMillis = TimeUnit.NANOSECONDS.toMillis(deadline - now
+                    + 999999);
+
+            if (sleepMillis <= 0) {
+                return now;
+            }
+
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                if (!this.running) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    /*
+     * Move newly scheduled expirations into the wheel.
+     */
+    private void addScheduled() {
+        LockExpiration expiration;
+        long dueTick;
+
+        while ((expiration = this.scheduled.poll()) != null) {
+            if (!expiration.isCancelled()) {
+                dueTick = expiration.getDeadline() / this.tickDuration;
+                expiration.remainingRounds = (dueTick - this.tick)
+                        / this.wheel.length;
+
+                /* never schedule into a tick that has already passed */
+
+                if (dueTick < this.tick) {
+                    dueTick = this.tick;
+                }
+
+                link(expiration, (int) (dueTick & this.mask));
+            }
+        }
+    }
+
+    /*
+     * Remove cancelled expirations from their buckets so they are not kept
+     * until their deadline.
+     */
+    private void removeCancelled() {
+        LockExpiration expiration;
+
+        while ((expiration = this.cancelled.poll()) != null) {
+            if (expiration.bucketIndex >= 0) {
+                unlink(expiration);
+            }
+        }
+    }
+
+    /*
+     * Expire, as a single batch, every lock in the bucket whose deadline has
+     * passed; the remaining expirations are due in a later round.
+     */
+    private void expireBucket(int bucketIndex, long now) {
+        List<LockExpiration> expired = null;
+        LockExpiration expiration = this.wheel[bucketIndex];
+        LockExpiration next;
+
+        while (expiration != null) {
+            next = expiration.next;
+
+            if (expiration.isCancelled()) {
+                unlink(expiration);
+            } else if ((expiration.remainingRounds <= 0)
+                    && (expiration.getDeadline() <= now)) {
+                unlink(expiration);
+
+                if (expiration.expire()) {
+                    if (expired == null) {
+                        expired = new ArrayList<LockExpiration>();
+                    }
+
+                    expired.add(expiration);
+                }
+            } else {
+                expiration.remainingRounds--;
+            }
+
+            expiration = next;
+        }
+
+        if (expired != null) {
+            this.database.expireLocks(expired);
+        }
+    }
+
+    private void link(LockExpiration expiration, int bucketIndex) {
+        LockExpiration head = this.wheel[bucketIndex];
+
+        expiration.bucketIndex = bucketIndex;
+        expiration.previous = null;
+        expiration.next = head;
+
+        if (head != null) {
+            head.previous = expiration;
+        }
+
+        this.wheel[bucketIndex] = expiration;
+    }
+
+    private void unlink(LockExpiration expiration) {
+        if (expiration.previous != null) {
+            expiration.previous.next = expiration.next;
+        } else {
+            this.wheel[expiration.bucketIndex] = expiration.next;
+        }
+
+        if (expiration.next != null) {
+            expiration.next.previous = expiration.previous;
+        }
+
+        expiration.previous = null;
+        expiration.next = null;
+        expiration.bucketIndex = -1;
+    }
+
+}
@@ -0,0 +1,104 @@
+package suncertify.db;
+
+import java.util.LinkedList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A first-in, first-out queue of threads waiting to lock a database record.
+ * Each waiting thread waits on its own condition of the lock stripe guarding
+ * the record, so that unlocking a record wakes only the thread at the head of
+ * that record's queue instead of every thread waiting on any record.
+ * <p>
+ * Not thread-safe on its own; every method must be called while holding the
+ * lock stripe the queue's conditions were created from.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class LockWaitQueue {
+
+    private LinkedList<Condition> waiters;
+
+    /**
+     * Constructs an empty <code>LockWaitQueue</code>.
+     */
+    LockWaitQueue() {
+        this.waiters = new LinkedList<Condition>();
+    }
+
+    /**
+     * Adds the calling thread to the tail of the queue.
+     * 
+     * @param stripe
+     *            the lock stripe guarding the record, held by the caller.
+     * @return the condition the calling thread must wait on for its turn.
+     */
+    Condition add(ReentrantLock stripe) {
+        Condition turn = stripe.newCondition();
+        this.waiters.addLast(turn);
+
+        return turn;
+    }
+
+    /**
+     * Removes a waiting thread from the queue, wherever it is in the queue.
+     * 
+     * @param turn
+     *            the condition returned when the thread was added.
+     */
+    void remove(Condition turn) {
+        this.waiters.remove(turn);
+    }
+
+    /**
+     * Determine if a waiting thread is at the head of the queue, and therefore
+     * next in line to lock the record.
+     * 
+     * @param turn
+     *            the condition returned when the thread was added.
+     * @return <code>true</code> if the thread is at the head of the queue,
+     *         <code>false</code> otherwise.
+     */
+    boolean isHead(Condition turn) {
+        return !this.waiters.isEmpty() && (this.waiters.getFirst() == turn);
+    }
+
+    /**
+     * Wakes the thread at the head of the queue, if any.
+     */
+    void signalHead() {
+        if (!this.waiters.isEmpty()) {
+            this.waiters.getFirst().signal();
+        }
+    }
+
+    /**
+     * Wakes every thread in the queue, such as when the database is closed.
+     */
+    void signalAll() {
+        for (Condition turn : this.waiters) {
+            turn.signal();
+        }
+    }
+
+    /**
+     * Get the number of threads waiting in the queue.
+     * 
+     * @return the queue depth.
+     */
+    int size() {
+        return this.waiters.size();
+    }
+
+    /**
+     * Determine if any threads are waiting in the queue.
+     * 
+     * @return <code>true</code> if no threads are waiting, <code>false</code>
+     *         otherwise.
+     */
+    boolean isEmpty() {
+        return this.waiters.isEmpty();
+    }
+
+}
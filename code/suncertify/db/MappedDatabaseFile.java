@@ -0,0 +1,282 @@
+package suncertify.db;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link DatabaseFile} accessed through a memory mapping of the file.
+ * Records are read and written in place in the mapped memory, with no system
+ * call per read or write; writes reach the storage device when the operating
+ * system pages them out, and are only guaranteed to be durable once
+ * {@link #force()} is called.
+ * <p>
+ * The file is mapped in segments of at most 1 GB, since a single mapping
+ * cannot exceed 2 GB. When the file grows past its mapping, the file and its
+ * mapping are grown by a fixed step past the new length, so the last segment
+ * is only mapped again once a step is used up, rather than on every record
+ * appended; growing within the mapping only moves the length of the file
+ * used. The unused end of the last step is cut off when the file is closed.
+ * A crash may leave it in place, filled with zero bytes, which
+ * {@link Data} drops when the file is next opened. Shrinking the file maps
+ * it again at its exact length.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class MappedDatabaseFile implements DatabaseFile {
+
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    /*
+     * Number of bytes the file and its mapping are grown by past the length
+     * needed, once the mapping is used up.
+     */
+    private static final long GROWTH_STEP = 1L << 24;
+
+    private RandomAccessFile file;
+
+    private FileChannel channel;
+
+    private volatile MappedByteBuffer[] segments;
+
+    private boolean[] dirty;
+
+    /* guards writes, growing and forcing the mapping */
+    private final ReentrantLock lock;
+
+    /*
+     * Length of the file in use, and the length mapped, which is the actual
+     * length of the file and never less.
+     */
+    private volatile long length;
+
+    private long mappedLength;
+
+    /**
+     * Opens and maps the database file at the specified path.
+     * 
+     * @param path
+     *            the path to the database file.
+     * @throws IOException
+     *             when the file cannot be opened or mapped.
+     */
+    MappedDatabaseFile(String path) throws IOException {
+        this.file = new RandomAccessFile(path, "rw");
+        this.lock = new ReentrantLock();
+        this.channel = this.file.getChannel();
+        this.segments = new MappedByteBuffer[0];
+        this.dirty = new boolean[0];
+
+        map(this.channel.size());
+        this.length = this.mappedLength;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long length() {
+        return this.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void read(long position, byte[] buffer, int offset, int length)
+            throws IOException {
+        long mappedLength = this.length;
+        MappedByteBuffer[] mapped = this.segments;
+        ByteBuffer segment;
+        int segmentIndex;
+        int segmentOffset;
+        int count;
+
+        /*
+         * the length is published after the segments, so segments read after
+         * it map at least that much of the file; but the file may have shrunk
+         * in between, so the segments read are checked as well.
+         */
+
+        if ((position + length) > mappedLength) {
+            throw new EOFException("Read past the end of the database file.");
+        }
+
+        while (length > 0) {
+            segmentIndex = (int) (position / SEGMENT_SIZE);
+            segmentOffset = (int) (position % SEGMENT_SIZE);
+
+            if ((segmentIndex >= mapped.length)
+                    || (segmentOffset >= mapped[segmentIndex].limit())) {
+                throw new EOFException(
+                        "Read past the end of the database file.");
+            }
+
+            segment = mapped[segmentIndex].duplicate();
+            count = Math.min(length, segment.limit() - segmentOffset);
+
+            segment.position(segmentOffset);
+            segment.get(buffer, offset, count);
+
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void write(long position, byte[] buffer, int offset, int length)
+            throws IOException {
+        ByteBuffer segment;
+        int segmentIndex;
+        int segmentOffset;
+        int count;
+
+        this.lock.lock();
+
+        try {
+            if ((position + length) > this.length) {
+                throw new EOFException(
+                        "Write past the end of the database file.");
+            }
+
+            while (length > 0) {
+                segmentIndex = (int) (position / SEGMENT_SIZE);
+                segment = this.segments[segmentIndex].duplicate();
+                segmentOffset = (int) (position % SEGMENT_SIZE);
+                count = Math.min(length, segment.limit() - segmentOffset);
+
+                segment.position(segmentOffset);
+                segment.put(buffer, offset, count);
+                this.dirty[segmentIndex] = true;
+
+                position += count;
+                offset += count;
+                length -= count;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setLength(long newLength) throws IOException {
+        long newMappedLength;
+
+        this.lock.lock();
+
+        try {
+            if ((newLength > this.length)
+                    && (newLength <= this.mappedLength)) {
+
+                /* the bytes grown into were zeroed when the file grew */
+
+                this.length = newLength;
+            } else if (newLength != this.length) {
+                newMappedLength = newLength;
+
+                if (newLength > this.length) {
+                    newMappedLength = ((newLength / GROWTH_STEP) + 1)
+                            * GROWTH_STEP;
+                }
+
+                force();
+                this.file.setLength(newMappedLength);
+                map(newMappedLength);
+                this.length = newLength;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Force the segments written to since the last call out to the storage
+     * device.
+     */
+    public void force() {
+        this.lock.lock();
+
+        try {
+            for (int currSegment = 0; currSegment < this.segments.length;
+            currSegment++) {
+                if (this.dirty[currSegment]) {
+                    this.segments[currSegment].force();
+                    this.dirty[currSegment] = false;
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Forces any outstanding writes, cuts off the end of the file grown past
+     * its length, and closes the file. The mapping itself is released when it
+     * is garbage collected.
+     */
+    public void close() throws IOException {
+        this.lock.lock();
+
+        try {
+            force();
+            this.segments = new MappedByteBuffer[0];
+            this.dirty = new boolean[0];
+
+            try {
+                if (this.mappedLength > this.length) {
+                    this.file.setLength(this.length);
+                }
+            } catch (IOException e) {
+                // cannot shrink a mapped file here, dropped on next open
+            } finally {
+                this.length = 0;
+                this.mappedLength = 0;
+                this.channel.close();
+                this.file.close();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /*
+     * Map the file up to the specified length, keeping the mappings of whole
+     * segments that have not changed. The length in use is set by the
+     * caller, after the segments mapping it are published.
+     */
+    private void map(long newLength) throws IOException {
+        int numSegments = (int) ((newLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        MappedByteBuffer[] newSegments = new MappedByteBuffer[numSegments];
+        boolean[] newDirty = new boolean[numSegments];
+        long segmentStart;
+        long segmentLength;
+
+        for (int currSegment = 0; currSegment < numSegments; currSegment++) {
+            segmentStart = currSegment * SEGMENT_SIZE;
+            segmentLength = Math.min(SEGMENT_SIZE, newLength - segmentStart);
+
+            if ((currSegment < this.segments.length)
+                    && (this.segments[currSegment].capacity()
+                            == segmentLength)) {
+                newSegments[currSegment] = this.segments[currSegment];
+            } else {
+                newSegments[currSegment] = this.channel.map(
+                        FileChannel.MapMode.READ_WRITE, segmentStart,
+                        segmentLength);
+            }
+        }
+
+        this.dirty = newDirty;
+        this.segments = newSegments;
+        this.mappedLength = newLength;
+    }
+
+}
@@ -0,0 +1,112 @@
+package suncertify.db;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link DatabaseFile} accessed through a <code>RandomAccessFile</code>.
+ * Writes are left to the operating system to write out, and are only
+ * guaranteed to be durable once {@link #force()} is called, so that a whole
+ * batch of writes can be synchronized with the storage device at once.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class RandomAccessDatabaseFile implements DatabaseFile {
+
+    private RandomAccessFile file;
+
+    /* guards the position of the file between a seek and a read or write */
+    private final ReentrantLock lock;
+
+    /**
+     * Opens the database file at the specified path.
+     * 
+     * @param path
+     *            the path to the database file.
+     * @throws IOException
+     *             when the file cannot be opened.
+     */
+    RandomAccessDatabaseFile(String path) throws IOException {
+        this.file = new RandomAccessFile(path, "rw");
+        this.lock = new ReentrantLock();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long length() throws IOException {
+        this.lock.lock();
+
+        try {
+            return this.file.length();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void read(long position, byte[] buffer, int offset, int length)
+            throws IOException {
+        this.lock.lock();
+
+        try {
+            this.file.seek(position);
+            this.file.readFully(buffer, offset, length);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void write(long position, byte[] buffer, int offset, int length)
+            throws IOException {
+        this.lock.lock();
+
+        try {
+            this.file.seek(position);
+            this.file.write(buffer, offset, length);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setLength(long newLength) throws IOException {
+        this.lock.lock();
+
+        try {
+            this.file.setLength(newLength);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void force() throws IOException {
+        this.file.getChannel().force(true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws IOException {
+        this.lock.lock();
+
+        try {
+            this.file.close();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+}
@@ -1,5 +1,9 @@
 package suncertify.db;
 
+import java.nio.charset.Charset;
+
+import suncertify.util.StringUtil;
+
 /**
  * A record from the database.
  * 
@@ -8,7 +12,10 @@ package suncertify.db;
  */
 class Record {
 
-    private static final int RECORD_HEADER_LENGTH = Data.configuration
+    /**
+     * Number of bytes in the record header holding the record status.
+     */
+    static final int RECORD_HEADER_LENGTH = Data.configuration
             .getRecordHeaderLength();
 
     /**
@@ -21,6 +28,12 @@ class Record {
      */
     static final int DELETED = Data.configuration.getDeletedRecordFlag();
 
+    /**
+     * Character set the fields are encoded in.
+     */
+    static final Charset FIELD_CHARSET = Charset
+            .forName(StringUtil.DEFAULT_CHARSET);
+
     static int recordLength = RECORD_HEADER_LENGTH;
 
     static int numFields;
@@ -33,9 +46,14 @@ class Record {
 
     private int recordNumber;
 
-    private int status;
+    /*
+     * Status and fields are volatile so that searches may read them without
+     * holding the record's lock stripe; fields are replaced as a whole, never
+     * modified in place.
+     */
+    private volatile int status;
 
-    private String[] fields;
+    private volatile String[] fields;
 
     /**
      * Constructs a new <code>Record</code> object.
@@ -53,6 +71,99 @@ class Record {
         recordLength = RECORD_HEADER_LENGTH;
     }
 
+    /**
+     * Encodes the specified fields into a buffer as they are stored in the
+     * database file, each field truncated or padded with spaces to its full
+     * length.
+     * 
+     * @param fields
+     *            the fields to encode.
+     * @param buffer
+     *            the buffer to encode the fields into.
+     * @param offset
+     *            the offset into the buffer to start encoding at.
+     */
+    static void encodeFields(String[] fields, byte[] buffer, int offset) {
+        byte[] field;
+        int fieldLength;
+
+        for (int currField = 0; currField < numFields; currField++) {
+            field = fields[currField].getBytes(FIELD_CHARSET);
+            fieldLength = Math.min(field.length, fieldLengths[currField]);
+            System.arraycopy(field, 0, buffer, offset, fieldLength);
+
+            /* if field value less than max field length, pad with spaces. */
+
+            for (int currPad = fieldLength; currPad < fieldLengths[currField];
+            currPad++) {
+                buffer[offset + currPad] = StringUtil.SPACE;
+            }
+
+            offset += fieldLengths[currField];
+        }
+    }
+
+    /**
+     * Normalizes the specified fields into the form they are read back from
+     * the database file in, each field truncated or padded with spaces to its
+     * full length, so every record store holds the same values whatever form
+     * they were written in.
+     * 
+     * @param fields
+     *            the fields to normalize.
+     * @return the normalized fields.
+     */
+    static String[] normalizeFields(String[] fields) {
+        String[] normalized = new String[numFields];
+        byte[] buffer = new byte[recordLength - RECORD_HEADER_LENGTH];
+        int offset = 0;
+
+        encodeFields(fields, buffer, 0);
+
+        for (int currField = 0; currField < numFields; currField++) {
+            normalized[currField] = new String(buffer, offset,
+                    fieldLengths[currField], FIELD_CHARSET);
+            offset += fieldLengths[currField];
+        }
+
+        return normalized;
+    }
+
+    /**
+     * Returns a formatted String containing the contents of a record.
+     * 
+     * @param filePos
+     *            the offset into the database file where the record starts.
+     * @param recNo
+     *            the record number.
+     * @param status
+     *            the record status.
+     * @param fields
+     *            the record's fields.
+     * @return the record as a formatted String.
+     */
+    static String format(long filePos, int recNo, int status,
+            String[] fields) {
+        StringBuilder contents = new StringBuilder();
+
+        contents.append("\tRecord File Position = " + filePos + "\n");
+        contents.append("\tRecord Number = " + recNo + "\n");
+        contents.append("\tStatus = " + status + "\n");
+
+        if (fields.length != numFields) {
+            /* this should never occur */
+            System.err.println("Database Corrupted, Aborting!");
+            System.exit(-1);
+        }
+
+        for (int currField = 0; currField < numFields; currField++) {
+            contents.append("\tField '" + fieldNames[currField] + "' = '"
+                    + fields[currField] + "'\n");
+        }
+
+        return contents.toString();
+    }
+
     /**
      * Retrieve the record status, whether it is valid or deleted.
      * 
@@ -127,6 +238,16 @@ class Record {
         return copyFields;
     }
 
+    /**
+     * Copies the fields in this record into an existing array.
+     * 
+     * @param copyFields
+     *            the array to copy the values of the fields into.
+     */
+    void readFields(String[] copyFields) {
+        System.arraycopy(this.fields, 0, copyFields, 0, numFields);
+    }
+
     /**
      * Update this record's fields.
      * 
@@ -135,8 +256,10 @@ class Record {
      *            the fields with.
      */
     void setFields(String[] newFields) {
-        this.fields = new String[numFields];
-        System.arraycopy(newFields, 0, this.fields, 0, numFields);
+        String[] copyFields = new String[numFields];
+        System.arraycopy(newFields, 0, copyFields, 0, numFields);
+
+        this.fields = copyFields;
     }
 
     /**
@@ -146,26 +269,8 @@ class Record {
      */
     @Override
     public String toString() {
-        String fieldValue;
-        StringBuilder contents = new StringBuilder();
-
-        contents.append("\tRecord File Position = " + this.filePosition + "\n");
-        contents.append("\tRecord Number = " + this.recordNumber + "\n");
-        contents.append("\tStatus = " + this.status + "\n");
-
-        if (this.fields.length != numFields) {
-            /* this should never occur */
-            System.err.println("Database Corrupted, Aborting!");
-            System.exit(-1);
-        }
-
-        for (int currField = 0; currField < numFields; currField++) {
-            fieldValue = this.fields[currField];
-            contents.append("\tField '" + fieldNames[currField] + "' = '"
-                    + fieldValue + "'\n");
-        }
-
-        return contents.toString();
+        return format(this.filePosition, this.recordNumber, this.status,
+                this.fields);
     }
 
 }
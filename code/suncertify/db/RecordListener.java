@@ -0,0 +1,34 @@
+package suncertify.db;
+
+/**
+ * Receives each change made to the records of the database, as it is made,
+ * once registered with {@link Data#addRecordListener(RecordListener)}.
+ * <p>
+ * The listener is called while the database holds the lock stripe of the
+ * changed record, once the change is visible to searches, so the changes to
+ * each record are received in the order they were made. It should return
+ * quickly, handing the change off to another thread, and must not call back
+ * into the database.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+public interface RecordListener {
+
+    /**
+     * Receive a change to a record. The arrays of fields are never modified
+     * afterwards.
+     * 
+     * @param recNo
+     *            the number of the changed record.
+     * @param oldFields
+     *            the values of the record's fields before the change, or
+     *            <code>null</code> if the record was created.
+     * @param newFields
+     *            the values of the record's fields after the change, or
+     *            <code>null</code> if the record was deleted.
+     */
+    public void recordChanged(long recNo, String[] oldFields,
+            String[] newFields);
+
+}
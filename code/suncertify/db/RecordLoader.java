@@ -0,0 +1,198 @@
+package suncertify.db;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loads the data section of the database file into a {@link RecordStore} in
+ * parallel. The number of records is known from the length of the file, so
+ * the data section is split into batches of records, each read with one large
+ * sequential read and decoded by a fork/join pool with a thread per processor;
+ * startup time then scales with the number of processors rather than the size
+ * of the file.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class RecordLoader extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of records read at once; a multiple of the chunk sizes of the
+     * record stores, so that batches load into separate chunks.
+     */
+    static final int BATCH_SIZE = 4096;
+
+    private final DatabaseFile file;
+
+    private final RecordStore store;
+
+    private final long recordsPosition;
+
+    private final int fromRecNo;
+
+    private final int toRecNo;
+
+    /*
+     * Create a task loading the records numbered from fromRecNo, inclusive, to
+     * toRecNo, exclusive.
+     */
+    private RecordLoader(DatabaseFile file, RecordStore store,
+            long recordsPosition, int fromRecNo, int toRecNo) {
+        this.file = file;
+        this.store = store;
+        this.recordsPosition = recordsPosition;
+        this.fromRecNo = fromRecNo;
+        this.toRecNo = toRecNo;
+    }
+
+    /**
+     * Load every complete record of the data section of the database file
+     * into an empty record store. A partial record at the end of the file is
+     * ignored.
+     * 
+     * @param file
+     *            the database file.
+     * @param store
+     *            the empty record store to load.
+     * @param recordsPosition
+     *            the offset into the file of the first record.
+     * @return the number of records loaded.
+     * @throws IOException
+     *             when an error occurs reading or decoding the records.
+     */
+    static int load(DatabaseFile file, RecordStore store,
+            long recordsPosition) throws IOException {
+        int numRecords = count(file, recordsPosition);
+
+        store.allocate(numRecords);
+
+        if (numRecords <= BATCH_SIZE) {
+            loadBatch(file, store, recordsPosition, 0, numRecords);
+            return numRecords;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool();
+
+        try {
+            pool.invoke(new RecordLoader(file, store, recordsPosition, 0,
+                    numRecords));
+        } catch (RuntimeException e) {
+            Throwable cause = e;
+
+            /* the pool may wrap the failure of a task run by another thread */
+
+            while ((cause != null) && !(cause instanceof IOException)) {
+                cause = cause.getCause();
+            }
+
+            if (cause == null) {
+                throw e;
+            }
+
+            throw (IOException) cause;
+        } finally {
+            pool.shutdown();
+        }
+
+        return numRecords;
+    }
+
+    /**
+     * Count the complete records of the data section of the database file.
+     * 
+     * @param file
+     *            the database file.
+     * @param recordsPosition
+     *            the offset into the file of the first record.
+     * @return the number of records.
+     * @throws IOException
+     *             when an error occurs accessing the file.
+     */
+    static int count(DatabaseFile file, long recordsPosition)
+            throws IOException {
+        return (int) (Math.max(0, file.length() - recordsPosition)
+                / Record.recordLength);
+    }
+
+    /**
+     * Read a batch of records with one read, and load them into their places
+     * in a record store, allocated beforehand.
+     * 
+     * @param file
+     *            the database file.
+     * @param store
+     *            the record store to load.
+     * @param recordsPosition
+     *            the offset into the file of the first record.
+     * @param fromRecNo
+     *            the number of the first record to load.
+     * @param toRecNo
+     *            the number of the record after the last one to load.
+     * @throws IOException
+     *             when an error occurs reading or decoding the records.
+     */
+    static void loadBatch(DatabaseFile file, RecordStore store,
+            long recordsPosition, int fromRecNo, int toRecNo)
+            throws IOException {
+        long filePosition = recordsPosition
+                + ((long) fromRecNo * Record.recordLength);
+        byte[] buffer = new byte[(toRecNo - fromRecNo) * Record.recordLength];
+        int offset = 0;
+        int status;
+
+        file.read(filePosition, buffer, 0, buffer.length);
+
+        for (int currRecNo = fromRecNo; currRecNo < toRecNo; currRecNo++) {
+            status = ((buffer[offset] & 0xff) << 8)
+                    | (buffer[offset + 1] & 0xff);
+            store.load(currRecNo, filePosition, status, buffer, offset
+                    + Record.RECORD_HEADER_LENGTH);
+
+            filePosition += Record.recordLength;
+            offset += Record.recordLength;
+        }
+    }
+
+    /**
+     * Load the records of this task, splitting them between two subtasks
+     * until they fit in one batch.
+     */
+    @Override
+    protected void compute() {
+        int numRecords = this.toRecNo - this.fromRecNo;
+
+        if (numRecords <= BATCH_SIZE) {
+            try {
+                loadBatch(this.file, this.store, this.recordsPosition,
+                        this.fromRecNo, this.toRecNo);
+            } catch (IOException e) {
+                throw new LoadException(e);
+            }
+        } else {
+            int middle = this.fromRecNo + ((numRecords / BATCH_SIZE + 1) / 2)
+                    * BATCH_SIZE;
+
+            invokeAll(new RecordLoader(this.file, this.store,
+                    this.recordsPosition, this.fromRecNo, middle),
+                    new RecordLoader(this.file, this.store,
+                            this.recordsPosition, middle, this.toRecNo));
+        }
+    }
+
+    /*
+     * Carries the failure to read a batch out of the fork/join pool.
+     */
+    private static class LoadException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        LoadException(IOException cause) {
+            super(cause);
+        }
+
+    }
+
+}
@@ -0,0 +1,174 @@
+package suncertify.db;
+
+import java.io.IOException;
+
+/**
+ * In-memory cache of the records of the database file, addressed by record
+ * number. Abstracts how the records are held in memory, so the database can
+ * keep them as <code>String</code> objects or as raw field bytes.
+ * <p>
+ * Existing records may be read and modified by several threads at once, and
+ * reads never see a record half modified. Records may only be added, or the
+ * store cleared, by one thread at a time; a record becomes visible to other
+ * threads once it is completely added.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+interface RecordStore {
+
+    /**
+     * Get the number of records in the store.
+     * 
+     * @return the number of records, deleted ones included.
+     */
+    int size();
+
+    /**
+     * Add a record read from the database file, with its fields in their
+     * encoded form.
+     * 
+     * @param filePosition
+     *            the offset into the database file where the record starts.
+     * @param status
+     *            the record's status, either {@link Record#VALID} or
+     *            {@link Record#DELETED}.
+     * @param buffer
+     *            the buffer holding the record's fields, each padded to its
+     *            full length.
+     * @param offset
+     *            the offset into the buffer of the first field.
+     * @return the record number of the added record.
+     * @throws IOException
+     *             when the fields cannot be decoded.
+     */
+    int add(long filePosition, int status, byte[] buffer, int offset)
+            throws IOException;
+
+    /**
+     * Add a new record, keeping its fields as {@link #setFields(int, String[])}
+     * does.
+     * 
+     * @param filePosition
+     *            the offset into the database file where the record starts.
+     * @param status
+     *            the record's status, either {@link Record#VALID} or
+     *            {@link Record#DELETED}.
+     * @param fields
+     *            the record's fields.
+     * @return the record number of the added record.
+     */
+    int add(long filePosition, int status, String[] fields);
+
+    /**
+     * Grow the store to the specified number of records, so that the records
+     * of the database file can be loaded by several threads at once. The new
+     * records must each be loaded with
+     * {@link #load(int, long, int, byte[], int)} before they are used.
+     * 
+     * @param numRecords
+     *            the number of records the store must hold.
+     */
+    void allocate(int numRecords);
+
+    /**
+     * Load a record read from the database file into its place, allocated by
+     * {@link #allocate(int)}. May be called by several threads at once for
+     * different records.
+     * 
+     * @param recNo
+     *            the number of the record.
+     * @param filePosition
+     *            the offset into the database file where the record starts.
+     * @param status
+     *            the record's status, either {@link Record#VALID} or
+     *            {@link Record#DELETED}.
+     * @param buffer
+     *            the buffer holding the record's fields, each padded to its
+     *            full length.
+     * @param offset
+     *            the offset into the buffer of the first field.
+     * @throws IOException
+     *             when the fields cannot be decoded.
+     */
+    void load(int recNo, long filePosition, int status, byte[] buffer,
+            int offset) throws IOException;
+
+    /**
+     * Get the status of a record.
+     * 
+     * @param recNo
+     *            the number of the record.
+     * @return either {@link Record#VALID} or {@link Record#DELETED}.
+     */
+    int getStatus(int recNo);
+
+    /**
+     * Set the status of a record.
+     * 
+     * @param recNo
+     *            the number of the record.
+     * @param status
+     *            either {@link Record#VALID} or {@link Record#DELETED}.
+     */
+    void setStatus(int recNo, int status);
+
+    /**
+     * Get the fields of a record.
+     * 
+     * @param recNo
+     *            the number of the record.
+     * @return a new array containing the values of the record's fields.
+     */
+    String[] getFields(int recNo);
+
+    /**
+     * Copy the fields of a record into an existing array, so that many
+     * records can be read without allocating an array for each.
+     * 
+     * @param recNo
+     *            the number of the record.
+     * @param fields
+     *            the array to copy the values of the record's fields into.
+     */
+    void readFields(int recNo, String[] fields);
+
+    /**
+     * Replace all the fields of a record. The fields are kept as they are
+     * written to the database file, each truncated or padded with spaces to
+     * its full length, and are read back in that form.
+     * 
+     * @param recNo
+     *            the number of the record.
+     * @param fields
+     *            the new values of the record's fields.
+     */
+    void setFields(int recNo, String[] fields);
+
+    /**
+     * Get the position of a record in the database file.
+     * 
+     * @param recNo
+     *            the number of the record.
+     * @return the offset into the database file where the record starts.
+     */
+    long getFilePosition(int recNo);
+
+    /**
+     * Find the valid records matching the specified criteria. A
+     * <code>null</code> value in <code>criteria[n]</code> matches any value
+     * of field <code>n</code>, and a non-null value matches any value of
+     * field <code>n</code> beginning with it.
+     * 
+     * @param criteria
+     *            the search criteria, one for each field.
+     * @return the numbers of the matching records, in ascending order.
+     */
+    long[] find(String[] criteria);
+
+    /**
+     * Remove all the records from the store.
+     */
+    void clear();
+
+}
@@ -0,0 +1,104 @@
+package suncertify.db;
+
+/**
+ * A version of a record: its status and fields as of the commit that wrote
+ * them, linked to the version it replaced. Versions are never modified once
+ * published, except to drop the versions they replaced once no snapshot can
+ * see them any longer.
+ * <p>
+ * The version a commit in progress saves before changing a record is marked
+ * as changing until the commit publishes the record's new version, so it is
+ * not dropped while the record store no longer matches it.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+final class RecordVersion {
+
+    /**
+     * Epoch of a version that held before any change tracked by the
+     * {@link VersionTable}, and is therefore seen by every snapshot.
+     */
+    static final long BASE_EPOCH = 0;
+
+    final long epoch;
+
+    final int status;
+
+    final String[] fields;
+
+    final boolean changing;
+
+    volatile RecordVersion previous;
+
+    /**
+     * Constructs a version of a record.
+     * 
+     * @param epoch
+     *            the epoch of the commit writing the version.
+     * @param status
+     *            either {@link Record#VALID} or {@link Record#DELETED}.
+     * @param fields
+     *            the values of the record's fields, never modified once
+     *            published, or <code>null</code> for a record that does not
+     *            exist yet.
+     * @param previous
+     *            the version replaced, or <code>null</code> if none.
+     */
+    RecordVersion(long epoch, int status, String[] fields,
+            RecordVersion previous) {
+        this(epoch, status, fields, previous, false);
+    }
+
+    /**
+     * Constructs a version of a record, possibly marked as changing.
+     * 
+     * @param epoch
+     *            the epoch of the commit writing the version.
+     * @param status
+     *            either {@link Record#VALID} or {@link Record#DELETED}.
+     * @param fields
+     *            the values of the record's fields, or <code>null</code>.
+     * @param previous
+     *            the version replaced, or <code>null</code> if none.
+     * @param changing
+     *            whether a commit in progress is changing the record.
+     */
+    RecordVersion(long epoch, int status, String[] fields,
+            RecordVersion previous, boolean changing) {
+        this.epoch = epoch;
+        this.status = status;
+        this.fields = fields;
+        this.previous = previous;
+        this.changing = changing;
+    }
+
+    /**
+     * Copy this version, marked as changing.
+     * 
+     * @return a version equal to this one, but marked as changing.
+     */
+    RecordVersion changing() {
+        return new RecordVersion(this.epoch, this.status, this.fields,
+                this.previous, true);
+    }
+
+    /**
+     * Find the version of the record seen by a snapshot.
+     * 
+     * @param snapshotEpoch
+     *            the epoch of the snapshot.
+     * @return the newest version written at or before the epoch, or
+     *         <code>null</code> if the record was created after it.
+     */
+    RecordVersion at(long snapshotEpoch) {
+        RecordVersion version = this;
+
+        while ((version != null) && (version.epoch > snapshotEpoch)) {
+            version = version.previous;
+        }
+
+        return version;
+    }
+
+}
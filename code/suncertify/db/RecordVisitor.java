@@ -0,0 +1,27 @@
+package suncertify.db;
+
+/**
+ * Receives the records read in bulk by
+ * {@link Data#findAndRead(String[], RecordVisitor)}, one at a time.
+ * <p>
+ * The visitor is called while the database holds its table lock for
+ * reading, which keeps records from being created, so it should return
+ * quickly and must not call back into the database to create records.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+public interface RecordVisitor {
+
+    /**
+     * Receive a record. The array of fields is reused for every record of a
+     * read, so its values must be copied out if they are kept.
+     * 
+     * @param recNo
+     *            the number of the record.
+     * @param fields
+     *            the values of the record's fields.
+     */
+    public void visit(long recNo, String[] fields);
+
+}
@@ -1,10 +1,5 @@
 package suncertify.db;
 
-import java.io.IOException;
-import java.io.RandomAccessFile;
-
-import suncertify.util.StringUtil;
-
 /**
  * A database operation to update a record in the database file.
  * 
@@ -13,7 +8,7 @@ import suncertify.util.StringUtil;
  */
 class UpdateRecordTask extends AsyncFileWriterTask {
 
-    private String[] fields;
+    protected String[] fields;
 
     /**
      * Constructs a new database update record operation. The record will be
@@ -26,46 +21,25 @@ class UpdateRecordTask extends AsyncFileWriterTask {
      * @param data
      *            the data to update the record with.
      * 
-     * @see AsyncFileWriterTask#AsyncFileWriterTask(RandomAccessFile, long)
+     * @see AsyncFileWriterTask#AsyncFileWriterTask(DatabaseFile, long)
      */
-    UpdateRecordTask(RandomAccessFile file, long offset, String[] data) {
+    UpdateRecordTask(DatabaseFile file, long offset, String[] data) {
         super(file, offset);
         this.fields = new String[Record.numFields];
         System.arraycopy(data, 0, this.fields, 0, Record.numFields);
     }
 
-    void updateFields() throws IOException {
-
-        byte[] field;
-        int diff;
-        byte[] padding;
-
-        for (int currField = 0; currField < Record.numFields; currField++) {
-            field = this.fields[currField].getBytes(StringUtil.DEFAULT_CHARSET);
-            this.dbFile.write(field);
-
-            /* if field value less than max field length, pad with spaces. */
-
-            diff = Record.fieldLengths[currField] - field.length;
-            if (diff > 0) {
-                padding = new byte[diff];
-
-                for (int currPad = 0; currPad < diff; currPad++) {
-                    padding[currPad] = StringUtil.SPACE;
-                }
-
-                this.dbFile.write(padding);
-            }
-        }
-    }
-
     /**
-     * Execute the database update record operation.
+     * Encode all the fields of the updated record.
      * 
-     * @see AsyncFileWriterTask#AsyncFileWriterTask(RandomAccessFile, long)
+     * @see AsyncFileWriterTask#encode()
      */
-    void execute() throws IOException {
-        this.dbFile.seek(this.fileOffset);
-        updateFields();
+    byte[] encode() {
+        byte[] record = new byte[Record.recordLength
+                - Record.RECORD_HEADER_LENGTH];
+
+        Record.encodeFields(this.fields, record, 0);
+
+        return record;
     }
 }
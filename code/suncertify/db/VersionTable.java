@@ -0,0 +1,545 @@
+package suncertify.db;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The recent versions of the records of the database, letting searches read
+ * a consistent snapshot of the records without holding any lock stripe, while
+ * writers keep changing them.
+ * <p>
+ * Changes are made in commits, numbered by increasing epochs. A writer begins
+ * a commit, saves the version of each record it is about to change that
+ * snapshots may still need, changes the records in the record store, then
+ * publishes their new versions and the commit. A reader pins the latest
+ * commit published as its snapshot and sees, for each record, the newest
+ * version written at or before its epoch; a record with no version is read
+ * from the record store, which has not changed since any snapshot in use.
+ * <p>
+ * The numbers of the records changed by each commit are kept with it, so a
+ * reader can tell which records changed since its snapshot, including those
+ * of the commits in progress, and check them against its snapshot rather
+ * than their current values. Versions no pinned snapshot can see are dropped
+ * as writers begin new commits, so only records changed recently have
+ * versions.
+ * <p>
+ * Writers do not exclude one another: the lock stripes of the records they
+ * change already do. A writer begins a commit by appending it to the chain of
+ * commits with a compare-and-set, which gives it the next epoch, and
+ * publishes it once every commit begun before it has been published, so a
+ * snapshot never sees a commit without those before it. A writer waiting for
+ * its turn to publish holds no lock of this table, and the writers ahead of
+ * it never wait for a lock stripe between beginning and publishing their
+ * commits. Versions are dropped by one writer at a time; another writer
+ * beginning a commit meanwhile leaves them for later rather than waiting.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class VersionTable {
+
+    private static final int CHUNK_SHIFT = 12;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /*
+     * The newest version of each record that has one, in chunks which never
+     * move once allocated. A version is only set while holding the record's
+     * lock stripe, or dropped with a compare-and-set.
+     */
+    private volatile AtomicReferenceArray<RecordVersion>[] chunks;
+
+    /*
+     * Held while growing the chunks.
+     */
+    private final ReentrantLock growLock;
+
+    /*
+     * Held while dropping versions; only ever tried.
+     */
+    private final ReentrantLock dropLock;
+
+    /*
+     * The latest commit published, the last commit begun, and the oldest
+     * commit whose records may still have versions. Commits are linked from
+     * the oldest to the latest, followed by the commits in progress, if any.
+     */
+    private volatile Commit latest;
+
+    private final AtomicReference<Commit> last;
+
+    private volatile Commit oldest;
+
+    /**
+     * Constructs an empty table.
+     */
+    VersionTable() {
+        this.growLock = new ReentrantLock();
+        this.dropLock = new ReentrantLock();
+        this.chunks = newChunks(0);
+        this.latest = new Commit(RecordVersion.BASE_EPOCH, 0);
+        this.last = new AtomicReference<Commit>(this.latest);
+        this.oldest = this.latest;
+    }
+
+    /**
+     * Drop every version, once the record store is emptied or reloaded, and
+     * publish a new epoch. Waits for the commits in progress to be published
+     * first.
+     */
+    void reset() {
+        Commit commit = begin();
+
+        awaitTurn(commit);
+        this.chunks = newChunks(0);
+        this.latest = commit;
+
+        this.dropLock.lock();
+
+        try {
+            this.oldest = commit;
+        } finally {
+            this.dropLock.unlock();
+        }
+    }
+
+    /**
+     * Get the epoch of the latest commit published.
+     * 
+     * @return the latest epoch.
+     */
+    long getEpoch() {
+        return this.latest.epoch;
+    }
+
+    /**
+     * Check whether any snapshot is pinned.
+     * 
+     * @return <code>true</code> if a reader has pinned a snapshot it has not
+     *         unpinned yet.
+     */
+    boolean isPinned() {
+        Commit latest = this.latest;
+
+        for (Commit commit = this.oldest; commit.epoch <= latest.epoch;
+        commit = commit.next.get()) {
+            if (commit.readers.get() > 0) {
+                return true;
+            }
+
+            if (commit == latest) {
+                break;
+            }
+        }
+
+        return false;
+    }
+    /**
+     * Pin the latest commit published as a snapshot, so the versions it sees
+     * are kept until it is unpinned.
+     * 
+     * @return the snapshot.
+     */
+    Commit pin() {
+        Commit snapshot;
+
+        while (true) {
+            snapshot = this.latest;
+            snapshot.readers.incrementAndGet();
+
+            /* a writer beginning after this sees the snapshot as pinned */
+
+            if (snapshot == this.latest) {
+                return snapshot;
+            }
+
+            snapshot.readers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Unpin a snapshot, once done reading it.
+     * 
+     * @param snapshot
+     *            the snapshot returned by {@link #pin()}.
+     */
+    void unpin(Commit snapshot) {
+        snapshot.readers.decrementAndGet();
+    }
+
+    /**
+     * Get the numbers of the records changed since a snapshot, by the
+     * commits published after it and the commits in progress.
+     * 
+     * @param snapshot
+     *            a pinned snapshot.
+     * @return the numbers of the records changed, in no particular order and
+     *         possibly repeated.
+     */
+    int[] changedSince(Commit snapshot) {
+        int[] recNos = new int[0];
+        int numRecNos = 0;
+        int count;
+
+        for (Commit commit = snapshot.next.get(); commit != null;
+        commit = commit.next.get()) {
+            count = commit.numRecNos;
+            recNos = Arrays.copyOf(recNos, numRecNos + count);
+            System.arraycopy(commit.recNos, 0, recNos, numRecNos, count);
+            numRecNos += count;
+        }
+
+        return recNos;
+    }
+
+    /**
+     * Read a record as seen by a pinned snapshot.
+     * 
+     * @param store
+     *            the record store.
+     * @param recNo
+     *            the number of the record.
+     * @param snapshot
+     *            the pinned snapshot.
+     * @param fields
+     *            the array to copy the values of the record's fields into.
+     * @return the status of the record in the snapshot; {@link Record#DELETED}
+     *         if it did not exist yet, in which case no fields are copied.
+     */
+    int read(RecordStore store, int recNo, Commit snapshot, String[] fields) {
+        RecordVersion version = head(recNo);
+        int status;
+
+        if (version == null) {
+            status = store.getStatus(recNo);
+            store.readFields(recNo, fields);
+
+            /*
+             * writers save a version before changing a record, so the record
+             * was unchanged if it still has none.
+             */
+
+            version = head(recNo);
+
+            if (version == null) {
+                return status;
+            }
+        }
+
+        version = version.at(snapshot.epoch);
+
+        if ((version == null) || (version.fields == null)) {
+            return Record.DELETED;
+        }
+
+        System.arraycopy(version.fields, 0, fields, 0, fields.length);
+
+        return version.status;
+    }
+
+    /**
+     * Begin a commit. Must be called while holding the lock stripes of every
+     * record the commit changes, and followed by {@link #commit(Commit)}, in
+     * a <code>finally</code> block, without acquiring any lock in between.
+     * 
+     * @return the commit begun.
+     */
+    Commit begin() {
+        long minPinnedEpoch = minPinnedEpoch();
+        Commit last;
+        Commit next;
+        Commit commit;
+
+        if (this.dropLock.tryLock()) {
+            try {
+                dropVersions(minPinnedEpoch);
+            } finally {
+                this.dropLock.unlock();
+            }
+        }
+
+        while (true) {
+            last = this.last.get();
+            next = last.next.get();
+
+            if (next != null) {
+
+                /* help the writer who appended it */
+
+                this.last.compareAndSet(last, next);
+                continue;
+            }
+
+            commit = new Commit(last.epoch + 1, minPinnedEpoch);
+
+            if (last.next.compareAndSet(null, commit)) {
+                this.last.compareAndSet(last, commit);
+
+                return commit;
+            }
+        }
+    }
+
+    /**
+     * Save the current version of a record before a commit in progress
+     * changes it, and mark the record as changed by the commit. Must be
+     * called while holding the record's lock stripe.
+     * 
+     * @param commit
+     *            the commit in progress.
+     * @param recNo
+     *            the number of the record about to change.
+     * @param status
+     *            the record's current status.
+     * @param fields
+     *            the record's current fields, never modified afterwards, or
+     *            <code>null</code> for a record about to be appended.
+     */
+    void preserve(Commit commit, int recNo, int status, String[] fields) {
+        RecordVersion version;
+        RecordVersion saved;
+
+        commit.add(recNo);
+
+        /* racing only with writers dropping the version */
+
+        do {
+            version = head(recNo);
+
+            if (version == null) {
+                saved = new RecordVersion(RecordVersion.BASE_EPOCH, status,
+                        fields, null, true);
+            } else {
+                saved = version.changing();
+            }
+        } while (!casHead(recNo, version, saved));
+    }
+
+    /**
+     * Publish the new version of a record changed by a commit in progress,
+     * and drop the versions it replaced that no pinned snapshot can see. Must
+     * be called while holding the record's lock stripe.
+     * 
+     * @param commit
+     *            the commit in progress.
+     * @param recNo
+     *            the number of the changed record.
+     * @param status
+     *            the record's new status.
+     * @param fields
+     *            the record's new fields, never modified afterwards.
+     */
+    void publish(Commit commit, int recNo, int status, String[] fields) {
+        RecordVersion replaced = head(recNo);
+
+        /* a version marked as changing is never dropped */
+
+        casHead(recNo, replaced, new RecordVersion(commit.epoch, status,
+                fields, replaced));
+
+        /* the oldest pinned snapshot sees no version before this one */
+
+        replaced = replaced.at(commit.minPinnedEpoch);
+
+        if (replaced != null) {
+            replaced.previous = null;
+        }
+    }
+
+    /**
+     * Publish a commit, making its changes visible to new snapshots, once
+     * every commit begun before it has been published.
+     * 
+     * @param commit
+     *            the commit returned by {@link #begin()}.
+     */
+    void commit(Commit commit) {
+        awaitTurn(commit);
+        this.latest = commit;
+    }
+
+    /*
+     * Wait until the commit begun just before a commit has been published.
+     * The writers ahead hold no lock this one may be holding, and wait for
+     * none before publishing, so the wait is short.
+     */
+    private void awaitTurn(Commit commit) {
+        while (this.latest.epoch != commit.epoch - 1) {
+            Thread.yield();
+        }
+    }
+
+    /*
+     * Get the epoch of the oldest pinned snapshot, or of the latest commit
+     * if none is pinned. A reader pinning a snapshot afterwards pins the
+     * latest commit, which is no older.
+     */
+    private long minPinnedEpoch() {
+        Commit latest = this.latest;
+
+        for (Commit commit = this.oldest; commit.epoch < latest.epoch;
+        commit = commit.next.get()) {
+            if (commit.readers.get() > 0) {
+                return commit.epoch;
+            }
+        }
+
+        return latest.epoch;
+    }
+
+    /*
+     * Drop the versions of the records changed by commits older than every
+     * pinned snapshot, when their newest version is seen by every snapshot:
+     * it then matches the record store, unless a commit in progress is
+     * changing the record. Must be called while holding the drop lock.
+     */
+    private void dropVersions(long minPinnedEpoch) {
+        Commit commit = this.oldest;
+        RecordVersion version;
+        int recNo;
+
+        while (commit.epoch < minPinnedEpoch) {
+            for (int currRecNo = 0; currRecNo < commit.numRecNos;
+            currRecNo++) {
+                recNo = commit.recNos[currRecNo];
+                version = head(recNo);
+
+                if ((version != null) && !version.changing
+                        && (version.epoch <= minPinnedEpoch)) {
+                    casHead(recNo, version, null);
+                }
+            }
+
+            commit = commit.next.get();
+            this.oldest = commit;
+        }
+    }
+
+    /*
+     * Get the newest version of a record, or null if it has none.
+     */
+    private RecordVersion head(int recNo) {
+        AtomicReferenceArray<RecordVersion>[] current = this.chunks;
+        int chunk = recNo >> CHUNK_SHIFT;
+
+        if (chunk >= current.length) {
+            return null;
+        }
+
+        return current[chunk].get(recNo & CHUNK_MASK);
+    }
+
+    /*
+     * Replace the newest version of a record if it is still the one
+     * expected, growing the table as needed.
+     */
+    private boolean casHead(int recNo, RecordVersion expected,
+            RecordVersion version) {
+        AtomicReferenceArray<RecordVersion>[] current = this.chunks;
+        int chunk = recNo >> CHUNK_SHIFT;
+
+        if (chunk >= current.length) {
+            if (version == null) {
+                return (expected == null);
+            }
+
+            current = grow(chunk + 1);
+        }
+
+        return current[chunk].compareAndSet(recNo & CHUNK_MASK, expected,
+                version);
+    }
+
+    /*
+     * Grow the table to at least a number of chunks.
+     */
+    private AtomicReferenceArray<RecordVersion>[] grow(int numChunks) {
+        this.growLock.lock();
+
+        try {
+            AtomicReferenceArray<RecordVersion>[] current = this.chunks;
+
+            if (numChunks <= current.length) {
+                return current;
+            }
+
+            AtomicReferenceArray<RecordVersion>[] grown = newChunks(numChunks);
+
+            System.arraycopy(current, 0, grown, 0, current.length);
+
+            for (int currChunk = current.length; currChunk < grown.length;
+            currChunk++) {
+                grown[currChunk] = new AtomicReferenceArray<RecordVersion>(
+                        CHUNK_SIZE);
+            }
+
+            this.chunks = grown;
+
+            return grown;
+        } finally {
+            this.growLock.unlock();
+        }
+    }
+
+    /*
+     * Create an array of chunks; arrays of a generic type can only be created
+     * raw.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static AtomicReferenceArray<RecordVersion>[] newChunks(int size) {
+        return new AtomicReferenceArray[size];
+    }
+
+    /**
+     * A commit: the epoch of its changes, the numbers of the records it
+     * changed, and the number of readers using it as their snapshot.
+     */
+    static final class Commit {
+
+        final long epoch;
+
+        final AtomicInteger readers;
+
+        /*
+         * Written only by the writer of the commit; a record number is stored
+         * before the count including it is published.
+         */
+        private volatile int[] recNos;
+
+        private volatile int numRecNos;
+
+        /*
+         * Epoch of the oldest snapshot pinned when the commit began.
+         */
+        private final long minPinnedEpoch;
+
+        private final AtomicReference<Commit> next;
+
+        Commit(long epoch, long minPinnedEpoch) {
+            this.epoch = epoch;
+            this.minPinnedEpoch = minPinnedEpoch;
+            this.readers = new AtomicInteger();
+            this.recNos = new int[4];
+            this.next = new AtomicReference<Commit>();
+        }
+
+        void add(int recNo) {
+            int[] current = this.recNos;
+
+            if (this.numRecNos == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+                this.recNos = current;
+            }
+
+            current[this.numRecNos] = recNo;
+            this.numRecNos++;
+        }
+
+    }
+
+}
@@ -0,0 +1,218 @@
+package suncertify.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the writes made to the database file, written before
+ * the writes themselves. Each entry records the bytes written, their offset in
+ * the database file and the length the file must have, followed by a CRC-32
+ * checksum of the entry. Entries are appended sequentially in groups and
+ * forced to the storage device once per group, so a write is durable as soon
+ * as its group is logged, however long it then takes to reach the database
+ * file.
+ * <p>
+ * After a crash, the logged writes are replayed into the database file.
+ * Replaying stops at the first incomplete or corrupt entry, which can only be
+ * the tail of a group that was being appended when the crash occurred, and
+ * whose writes were therefore never reported as durable.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class WriteAheadLog {
+
+    /**
+     * Extension appended to the database file path to name its log.
+     */
+    static final String EXTENSION = ".wal";
+
+    /**
+     * Size of the log, in bytes, after which the database file is forced to
+     * the storage device and the log emptied.
+     */
+    static final long CHECKPOINT_SIZE = 4L * 1024 * 1024;
+
+    /*
+     * Length of the fixed part of an entry: the payload length, the file
+     * offset and the required file length, followed after the payload by the
+     * checksum.
+     */
+    private static final int ENTRY_HEADER_LENGTH = 4 + 8 + 8;
+
+    private static final int ENTRY_CHECKSUM_LENGTH = 8;
+
+    private RandomAccessFile file;
+
+    private ByteArrayOutputStream group;
+
+    private DataOutputStream groupOutput;
+
+    private CRC32 checksum;
+
+    /**
+     * Opens the log at the specified path, creating it if it does not exist.
+     * 
+     * @param path
+     *            the path to the log file.
+     * @throws IOException
+     *             when the log cannot be opened.
+     */
+    WriteAheadLog(String path) throws IOException {
+        this.file = new RandomAccessFile(path, "rw");
+        this.group = new ByteArrayOutputStream();
+        this.groupOutput = new DataOutputStream(this.group);
+        this.checksum = new CRC32();
+    }
+
+    /**
+     * Replay the writes logged in this log into the database file, make them
+     * durable and empty the log.
+     * 
+     * @param dbFile
+     *            the database file to recover.
+     * @return the number of writes replayed.
+     * @throws IOException
+     *             when an error occurs reading the log or writing the database
+     *             file.
+     */
+    int recover(DatabaseFile dbFile) throws IOException {
+        long logLength = this.file.length();
+        long position = 0;
+        byte[] header = new byte[ENTRY_HEADER_LENGTH];
+        ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+        byte[] payload;
+        byte[] trailer = new byte[ENTRY_CHECKSUM_LENGTH];
+        int payloadLength;
+        long fileOffset;
+        long requiredLength;
+        int numReplayed = 0;
+
+        while ((logLength - position) >= (ENTRY_HEADER_LENGTH
+                + ENTRY_CHECKSUM_LENGTH)) {
+            this.file.seek(position);
+            this.file.readFully(header);
+
+            payloadLength = headerBuffer.getInt(0);
+            fileOffset = headerBuffer.getLong(4);
+            requiredLength = headerBuffer.getLong(12);
+
+            if ((payloadLength < 0)
+                    || ((logLength - position - ENTRY_HEADER_LENGTH
+                            - ENTRY_CHECKSUM_LENGTH) < payloadLength)) {
+                break; // incomplete entry
+            }
+
+            payload = new byte[payloadLength];
+            this.file.readFully(payload);
+            this.file.readFully(trailer);
+
+            this.checksum.reset();
+            this.checksum.update(header);
+            this.checksum.update(payload);
+
+            if (ByteBuffer.wrap(trailer).getLong() != this.checksum
+                    .getValue()) {
+                break; // corrupt entry
+            }
+
+            if (requiredLength > dbFile.length()) {
+                dbFile.setLength(requiredLength);
+            }
+
+            dbFile.write(fileOffset, payload, 0, payloadLength);
+
+            position += ENTRY_HEADER_LENGTH + payloadLength
+                    + ENTRY_CHECKSUM_LENGTH;
+            numReplayed++;
+        }
+
+        dbFile.force();
+        reset();
+
+        return numReplayed;
+    }
+
+    /**
+     * Add a write to the group of entries to append next.
+     * 
+     * @param fileOffset
+     *            the offset into the database file of the write.
+     * @param requiredLength
+     *            the length the database file must have before the write, or
+     *            0 if it need not grow.
+     * @param bytes
+     *            the bytes written.
+     * @throws IOException
+     *             when the entry cannot be encoded.
+     */
+    void add(long fileOffset, long requiredLength, byte[] bytes)
+            throws IOException {
+        byte[] header = new byte[ENTRY_HEADER_LENGTH];
+
+        ByteBuffer.wrap(header).putInt(bytes.length).putLong(fileOffset)
+                .putLong(requiredLength);
+
+        this.checksum.reset();
+        this.checksum.update(header);
+        this.checksum.update(bytes);
+
+        this.groupOutput.write(header);
+        this.groupOutput.write(bytes);
+        this.groupOutput.writeLong(this.checksum.getValue());
+    }
+
+    /**
+     * Append the group of entries added since the last call to the end of the
+     * log with a single write, and force it to the storage device.
+     * 
+     * @throws IOException
+     *             when an error occurs writing the log.
+     */
+    void sync() throws IOException {
+        if (this.group.size() > 0) {
+            this.file.seek(this.file.length());
+            this.file.write(this.group.toByteArray());
+            this.file.getChannel().force(false);
+            this.group.reset();
+        }
+    }
+
+    /**
+     * Get the length of the log.
+     * 
+     * @return the number of bytes logged since the log was last emptied.
+     * @throws IOException
+     *             when an error occurs accessing the log.
+     */
+    long length() throws IOException {
+        return this.file.length();
+    }
+
+    /**
+     * Empty the log, once all the writes logged are durable in the database
+     * file.
+     * 
+     * @throws IOException
+     *             when an error occurs writing the log.
+     */
+    void reset() throws IOException {
+        this.file.setLength(0);
+        this.file.getChannel().force(true);
+    }
+
+    /**
+     * Close the log.
+     * 
+     * @throws IOException
+     *             when an error occurs closing the log.
+     */
+    void close() throws IOException {
+        this.file.close();
+    }
+
+}
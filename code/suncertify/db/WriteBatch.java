@@ -0,0 +1,216 @@
+package suncertify.db;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A batch of database file write operations committed together. Committing a
+ * batch grows the file once to hold every appended record, merges the
+ * operations into runs of contiguous bytes, with later operations taking
+ * precedence where they overwrite earlier ones, writes each run in file order
+ * with a single write, and then, unless the batch was logged to a
+ * {@link WriteAheadLog} first, forces the file out to the storage device once
+ * for the whole batch.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class WriteBatch {
+
+    private ArrayList<PendingWrite> writes;
+
+    private int nextSequence;
+
+    /**
+     * Constructs an empty batch.
+     */
+    WriteBatch() {
+        this.writes = new ArrayList<PendingWrite>();
+    }
+
+    /**
+     * Add a write operation to the batch. Operations must all write to the
+     * same database file.
+     * 
+     * @param task
+     *            the operation to add.
+     * @throws IOException
+     *             when the bytes of the operation cannot be encoded.
+     */
+    void add(AsyncFileWriterTask task) throws IOException {
+        this.writes.add(new PendingWrite(task, this.nextSequence++));
+    }
+
+    /**
+     * Determine if the batch holds no operations.
+     * 
+     * @return <code>true</code> if no operations were added since the last
+     *         commit.
+     */
+    boolean isEmpty() {
+        return this.writes.isEmpty();
+    }
+
+    /**
+     * Append all the operations of the batch to a write-ahead log, in the
+     * order they were added, and force the log to the storage device.
+     * 
+     * @param log
+     *            the log to append to.
+     * @throws IOException
+     *             when an error occurs writing the log.
+     */
+    void log(WriteAheadLog log) throws IOException {
+        for (PendingWrite write : this.writes) {
+            log.add(write.task.getFileOffset(), write.task
+                    .getRequiredLength(), write.bytes);
+        }
+
+        log.sync();
+    }
+
+    /**
+     * Write all the operations of the batch to the database file, then empty
+     * the batch. Does nothing if the batch is empty.
+     * 
+     * @param force
+     *            <code>true</code> to make the writes durable by forcing the
+     *            database file to the storage device, <code>false</code> if
+     *            they are already durable in a write-ahead log.
+     * @throws IOException
+     *             when an error occurs writing to the database file.
+     */
+    void commit(boolean force) throws IOException {
+        if (this.writes.isEmpty()) {
+            return;
+        }
+
+        DatabaseFile file = this.writes.get(0).task.getFile();
+        long requiredLength = 0;
+        int runFirst = 0;
+        long runEnd;
+
+        try {
+            /* grow the file once to hold all the appended records */
+
+            for (PendingWrite write : this.writes) {
+                requiredLength = Math.max(requiredLength, write.task
+                        .getRequiredLength());
+            }
+
+            if (requiredLength > file.length()) {
+                file.setLength(requiredLength);
+            }
+
+            /*
+             * sort by offset, then write each run of overlapping or adjacent
+             * operations at once.
+             */
+
+            Collections.sort(this.writes, new Comparator<PendingWrite>() {
+
+                public int compare(PendingWrite w1, PendingWrite w2) {
+                    long offset1 = w1.task.getFileOffset();
+                    long offset2 = w2.task.getFileOffset();
+
+                    if (offset1 == offset2) {
+                        return w1.sequence - w2.sequence;
+                    }
+
+                    return (offset1 < offset2) ? -1 : 1;
+                }
+            });
+
+            runEnd = this.writes.get(0).end();
+
+            for (int currWrite = 1; currWrite < this.writes.size();
+            currWrite++) {
+                PendingWrite write = this.writes.get(currWrite);
+
+                if (write.task.getFileOffset() > runEnd) {
+                    writeRun(file, this.writes.subList(runFirst, currWrite));
+                    runFirst = currWrite;
+                }
+
+                runEnd = Math.max(runEnd, write.end());
+            }
+
+            writeRun(file, this.writes.subList(runFirst, this.writes.size()));
+
+            if (force) {
+                file.force();
+            }
+        } finally {
+            this.writes.clear();
+            this.nextSequence = 0;
+        }
+    }
+
+    /*
+     * Write a run of operations, sorted by offset, covering a contiguous range
+     * of the file. The operations are applied in the order they were added so
+     * that later writes overwrite earlier ones.
+     */
+    private void writeRun(DatabaseFile file, List<PendingWrite> run)
+            throws IOException {
+        long runStart = run.get(0).task.getFileOffset();
+        long runEnd = runStart;
+        byte[] buffer;
+
+        if (run.size() == 1) {
+            file.write(runStart, run.get(0).bytes, 0, run.get(0).bytes.length);
+            return;
+        }
+
+        for (PendingWrite write : run) {
+            runEnd = Math.max(runEnd, write.end());
+        }
+
+        buffer = new byte[(int) (runEnd - runStart)];
+
+        ArrayList<PendingWrite> ordered = new ArrayList<PendingWrite>(run);
+
+        Collections.sort(ordered, new Comparator<PendingWrite>() {
+
+            public int compare(PendingWrite w1, PendingWrite w2) {
+                return w1.sequence - w2.sequence;
+            }
+        });
+
+        for (PendingWrite write : ordered) {
+            System.arraycopy(write.bytes, 0, buffer, (int) (write.task
+                    .getFileOffset() - runStart), write.bytes.length);
+        }
+
+        file.write(runStart, buffer, 0, buffer.length);
+    }
+
+    /*
+     * A write operation of the batch, with its encoded bytes and the order it
+     * was added in.
+     */
+    private static class PendingWrite {
+
+        final AsyncFileWriterTask task;
+
+        final byte[] bytes;
+
+        final int sequence;
+
+        PendingWrite(AsyncFileWriterTask task, int sequence)
+                throws IOException {
+            this.task = task;
+            this.bytes = task.encode();
+            this.sequence = sequence;
+        }
+
+        long end() {
+            return this.task.getFileOffset() + this.bytes.length;
+        }
+
+    }
+
+}
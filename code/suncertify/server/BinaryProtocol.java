@@ -0,0 +1,255 @@
+package suncertify.server;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import suncertify.application.Room;
+
+/**
+ * Definition of the binary protocol of the room reservation system, a compact
+ * alternative to RMI for the operations of {@link RemoteRoomReservations}.
+ * <p>
+ * Requests and responses are frames sent over a TCP connection. Each frame
+ * starts with its length, as an <code>int</code> counting the bytes that
+ * follow, and the number of the request, chosen by the client. A request then
+ * holds its operation code and arguments; a response holds its status code
+ * and either the result of the operation or the message of the error that
+ * occurred. A client may send any number of requests without waiting for
+ * their responses, and the server may send responses in any order, so the
+ * request number of a response identifies the request it answers.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+public final class BinaryProtocol {
+
+    /**
+     * Length of the header of a frame following its length: the request
+     * number and the operation or status code.
+     */
+    public static final int HEADER_LENGTH = 4 + 1;
+
+    /**
+     * Maximum length of a frame; a longer frame ends the connection.
+     */
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    /*
+     * Minimum length of a room in its compact form: its ID, number fields and
+     * the flags of its text fields.
+     */
+    private static final int MIN_ROOM_LENGTH = 24;
+
+    /**
+     * Operation code of {@link RemoteRoomReservations#search(String[])}.
+     */
+    public static final byte SEARCH = 1;
+
+    /**
+     * Operation code of
+     * {@link RemoteRoomReservations#searchPage(String[], long, int)}.
+     */
+    public static final byte SEARCH_PAGE = 2;
+
+    /**
+     * Operation code of {@link RemoteRoomReservations#book(long, String)}.
+     */
+    public static final byte BOOK = 3;
+
+    /**
+     * Operation code of {@link RemoteRoomReservations#bookAll(long[], String)}.
+     */
+    public static final byte BOOK_ALL = 4;
+
+    /**
+     * Operation code of {@link RemoteRoomReservations#sync(long, long)}.
+     */
+    public static final byte SYNC = 5;
+
+    /**
+     * Status code of a response holding the result of its operation.
+     */
+    public static final byte OK = 0;
+
+    /**
+     * Status code of a response to an operation that threw a
+     * {@link suncertify.db.RecordNotFoundException}.
+     */
+    public static final byte RECORD_NOT_FOUND = 1;
+
+    /**
+     * Status code of a response to an operation that threw a
+     * {@link suncertify.db.SecurityException}.
+     */
+    public static final byte SECURITY_VIOLATION = 2;
+
+    /**
+     * Status code of a response to a request that failed for any other
+     * reason.
+     */
+    public static final byte FAILURE = 3;
+
+    private BinaryProtocol() {
+        // not instantiable
+    }
+
+    /**
+     * Write a possibly null string.
+     * 
+     * @param out
+     *            the output to write to.
+     * @param text
+     *            the string to write.
+     * @throws IOException
+     *             when an error occurs writing the output.
+     */
+    public static void writeText(DataOutput out, String text)
+            throws IOException {
+        out.writeBoolean(text != null);
+
+        if (text != null) {
+            out.writeUTF(text);
+        }
+    }
+
+    /**
+     * Read a possibly null string.
+     * 
+     * @param in
+     *            the input to read from.
+     * @return the string read.
+     * @throws IOException
+     *             when an error occurs reading the input.
+     */
+    public static String readText(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Write search criteria.
+     * 
+     * @param out
+     *            the output to write to.
+     * @param criteria
+     *            the criteria to write.
+     * @throws IOException
+     *             when an error occurs writing the output.
+     */
+    public static void writeCriteria(DataOutput out, String[] criteria)
+            throws IOException {
+        out.writeInt(criteria.length);
+
+        for (String criterion : criteria) {
+            writeText(out, criterion);
+        }
+    }
+
+    /**
+     * Read the number of items following in a frame, rejecting a number the
+     * rest of the frame is too short to hold, so a malformed frame cannot
+     * make its reader allocate more than the frame's length.
+     * 
+     * @param in
+     *            the input to read from, holding the rest of the frame.
+     * @param minItemLength
+     *            the minimum length of each item, in bytes.
+     * @return the number of items.
+     * @throws IOException
+     *             when an error occurs reading the input, or the number is
+     *             invalid.
+     */
+    public static int readCount(DataInputStream in, int minItemLength)
+            throws IOException {
+        return checkCount(in, in.readInt(), minItemLength);
+    }
+
+    /**
+     * Read search criteria.
+     * 
+     * @param in
+     *            the input to read from, holding the rest of the frame.
+     * @return the criteria read.
+     * @throws IOException
+     *             when an error occurs reading the input, or the number of
+     *             criteria is invalid.
+     */
+    public static String[] readCriteria(DataInputStream in)
+            throws IOException {
+        String[] criteria = new String[readCount(in, 1)];
+
+        for (int currField = 0; currField < criteria.length; currField++) {
+            criteria[currField] = readText(in);
+        }
+
+        return criteria;
+    }
+
+    /**
+     * Write a possibly null list of rooms.
+     * 
+     * @param out
+     *            the output to write to.
+     * @param rooms
+     *            the rooms to write.
+     * @throws IOException
+     *             when an error occurs writing the output.
+     */
+    public static void writeRooms(DataOutput out, List<Room> rooms)
+            throws IOException {
+        out.writeInt((rooms == null) ? -1 : rooms.size());
+
+        if (rooms != null) {
+            for (Room room : rooms) {
+                room.writeTo(out);
+            }
+        }
+    }
+
+    /**
+     * Read a possibly null list of rooms.
+     * 
+     * @param in
+     *            the input to read from, holding the rest of the frame.
+     * @return the rooms read.
+     * @throws IOException
+     *             when an error occurs reading the input, or the number of
+     *             rooms is invalid.
+     */
+    public static List<Room> readRooms(DataInputStream in)
+            throws IOException {
+        int numRooms = in.readInt();
+        List<Room> rooms = null;
+        Room room;
+
+        if (numRooms != -1) {
+            checkCount(in, numRooms, MIN_ROOM_LENGTH);
+            rooms = new ArrayList<Room>(numRooms);
+
+            for (int currRoom = 0; currRoom < numRooms; currRoom++) {
+                room = new Room();
+                room.readFrom(in);
+                rooms.add(room);
+            }
+        }
+
+        return rooms;
+    }
+
+    /*
+     * Check a number of items following in a frame against the length of the
+     * rest of the frame.
+     */
+    private static int checkCount(DataInputStream in, int count,
+            int minItemLength) throws IOException {
+        if ((count < 0) || ((long) count * minItemLength > in.available())) {
+            throw new IOException("Invalid number of items: " + count);
+        }
+
+        return count;
+    }
+
+}
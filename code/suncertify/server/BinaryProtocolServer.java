@@ -0,0 +1,453 @@
+package suncertify.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import suncertify.application.RoomPage;
+import suncertify.db.RecordNotFoundException;
+import suncertify.db.SecurityException;
+import suncertify.util.ThreadUtil;
+
+/**
+ * Server for the room reservation system over the {@link BinaryProtocol},
+ * running alongside the <code>RMI</code> server.
+ * <p>
+ * A single thread accepts connections, reads requests and writes responses
+ * using non-blocking channels, so an idle client costs no thread. Each
+ * request read is executed by a pool of worker threads as soon as its frame
+ * is complete, whether or not the requests sent before it on the same
+ * connection have completed, and its response is queued back to the
+ * connection as soon as it is ready. A client may therefore pipeline
+ * requests, and several threads of a client may share one connection.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+public class BinaryProtocolServer implements Runnable {
+
+    /* initial size of the buffer holding the requests read from a client */
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    private final RemoteRoomReservations reservations;
+
+    private final int port;
+
+    private final boolean virtualThreads;
+
+    private Selector selector;
+
+    private ServerSocketChannel serverChannel;
+
+    private ExecutorService workers;
+
+    private Thread selectorThread;
+
+    private volatile boolean running;
+
+    /* connections with responses queued since they were last selected */
+    private final Queue<Connection> pendingWrites;
+
+    /**
+     * Constructs a server for the specified room reservation system.
+     * 
+     * @param reservations
+     *            the room reservation system to serve.
+     * @param port
+     *            the port to accept connections on.
+     * @param virtualThreads
+     *            <code>true</code> to execute each request on its own virtual
+     *            thread, when supported by the Java runtime.
+     */
+    public BinaryProtocolServer(RemoteRoomReservations reservations, int port,
+            boolean virtualThreads) {
+        this.reservations = reservations;
+        this.port = port;
+        this.virtualThreads = virtualThreads;
+        this.pendingWrites = new ConcurrentLinkedQueue<Connection>();
+    }
+
+    /**
+     * Start accepting connections.
+     * 
+     * @throws IOException
+     *             when the port cannot be listened on.
+     */
+    public void start() throws IOException {
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.socket().setReuseAddress(true);
+        this.serverChannel.socket().bind(new InetSocketAddress(this.port));
+        this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+
+        this.workers = createWorkers();
+        this.running = true;
+
+        this.selectorThread = new Thread(this, "BinaryProtocolServer");
+        this.selectorThread.setDaemon(true);
+        this.selectorThread.start();
+    }
+
+    /**
+     * Stop accepting connections and close the connections open. Requests
+     * being executed are completed, but their responses are not sent.
+     */
+    public void stop() {
+        this.running = false;
+        this.selector.wakeup();
+
+        while (this.selectorThread.isAlive()) {
+            try {
+                this.selectorThread.join();
+            } catch (InterruptedException e) {
+                // ignore and wait again
+            }
+        }
+
+        this.workers.shutdown();
+    }
+
+    /**
+     * Serve connections until the server is stopped.
+     */
+    public void run() {
+        Iterator<SelectionKey> keys;
+        SelectionKey key;
+        Connection connection;
+
+        try {
+            while (this.running) {
+                this.selector.select();
+
+                while ((connection = this.pendingWrites.poll()) != null) {
+                    if (connection.key.isValid()) {
+                        connection.key.interestOps(connection.key
+                                .interestOps() | SelectionKey.OP_WRITE);
+                    }
+                }
+
+                keys = this.selector.selectedKeys().iterator();
+
+                while (keys.hasNext()) {
+                    key = keys.next();
+                    keys.remove();
+
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            connection = (Connection) key.attachment();
+
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write();
+                            }
+                        }
+                    } catch (IOException e) {
+                        if (key.attachment() != null) {
+                            ((Connection) key.attachment()).close();
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            close();
+        }
+    }
+
+    /*
+     * Create the threads executing requests: a virtual thread per request
+     * when configured and supported, so that requests waiting for record
+     * locks cost no platform thread, or otherwise a pool of platform threads
+     * created as requests arrive and discarded once idle. Threads never
+     * prevent the application from exiting.
+     */
+    private ExecutorService createWorkers() {
+        ExecutorService executor = null;
+
+        if (this.virtualThreads) {
+            executor = ThreadUtil.newVirtualThreadPerTaskExecutor();
+        }
+
+        if (executor != null) {
+            return executor;
+        }
+
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+
+            private int numThreads;
+
+            public synchronized Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "BinaryProtocolWorker-"
+                        + (++this.numThreads));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /*
+     * Accept a pending connection and start reading requests from it.
+     */
+    private void accept() throws IOException {
+        SocketChannel channel = this.serverChannel.accept();
+
+        if (channel != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(this.selector,
+                    SelectionKey.OP_READ, connection);
+        }
+    }
+
+    /*
+     * Close the server channel, every connection, and the selector.
+     */
+    private void close() {
+        for (SelectionKey key : this.selector.keys()) {
+            if (key.attachment() != null) {
+                ((Connection) key.attachment()).close();
+            }
+        }
+
+        try {
+            this.serverChannel.close();
+            this.selector.close();
+        } catch (IOException e) {
+            // ignore, server is stopping
+        }
+    }
+
+    /*
+     * Execute a request and encode its response, without the frame length.
+     */
+    private byte[] execute(byte[] request) {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(response);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                request));
+        int requestId = -1;
+
+        try {
+            requestId = in.readInt();
+            byte operation = in.readByte();
+
+            out.writeInt(requestId);
+            out.writeByte(BinaryProtocol.OK);
+
+            switch (operation) {
+            case BinaryProtocol.SEARCH:
+                BinaryProtocol.writeRooms(out, this.reservations
+                        .search(BinaryProtocol.readCriteria(in)));
+                break;
+            case BinaryProtocol.SEARCH_PAGE:
+                String[] criteria = BinaryProtocol.readCriteria(in);
+                long continuation = in.readLong();
+                RoomPage page = this.reservations.searchPage(criteria,
+                        continuation, in.readInt());
+
+                page.writeTo(out);
+                break;
+            case BinaryProtocol.BOOK:
+                long roomId = in.readLong();
+
+                out.writeBoolean(this.reservations.book(roomId,
+                        BinaryProtocol.readText(in)));
+                break;
+            case BinaryProtocol.BOOK_ALL:
+                long[] roomIds = new long[BinaryProtocol.readCount(in, 8)];
+
+                for (int currRoom = 0; currRoom < roomIds.length; currRoom++) {
+                    roomIds[currRoom] = in.readLong();
+                }
+
+                BookingResult[] results = this.reservations.bookAll(roomIds,
+                        BinaryProtocol.readText(in));
+
+                out.writeInt(results.length);
+
+                for (BookingResult result : results) {
+                    out.writeByte(result.ordinal());
+                }
+                break;
+            case BinaryProtocol.SYNC:
+                long generation = in.readLong();
+
+                this.reservations.sync(generation, in.readLong()).writeTo(out);
+                break;
+            default:
+                throw new IOException("Unknown operation: " + operation);
+            }
+        } catch (RecordNotFoundException e) {
+            return failure(requestId, BinaryProtocol.RECORD_NOT_FOUND, e);
+        } catch (SecurityException e) {
+            return failure(requestId, BinaryProtocol.SECURITY_VIOLATION, e);
+        } catch (Throwable e) {
+            /* any failure is reported, so no client waits for a response */
+
+            return failure(requestId, BinaryProtocol.FAILURE, e);
+        }
+
+        return response.toByteArray();
+    }
+
+    /*
+     * Encode the response to a request that failed, without the frame length.
+     */
+    private byte[] failure(int requestId, byte status, Throwable e) {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(response);
+
+        try {
+            out.writeInt(requestId);
+            out.writeByte(status);
+            BinaryProtocol.writeText(out, (e.getMessage() != null) ? e
+                    .getMessage() : e.toString());
+        } catch (IOException ioe) {
+            // cannot happen writing to memory
+        }
+
+        return response.toByteArray();
+    }
+
+    /*
+     * A client connection, with the requests read but not yet complete and
+     * the responses waiting to be written.
+     */
+    private class Connection {
+
+        final SocketChannel channel;
+
+        SelectionKey key;
+
+        ByteBuffer readBuffer;
+
+        final Queue<ByteBuffer> responses;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            this.responses = new ConcurrentLinkedQueue<ByteBuffer>();
+        }
+
+        /*
+         * Read what the client sent, and dispatch every request whose frame
+         * is complete to the workers.
+         */
+        void read() throws IOException {
+            int frameLength;
+
+            if (this.channel.read(this.readBuffer) < 0) {
+                close();
+                return;
+            }
+
+            this.readBuffer.flip();
+
+            while (this.readBuffer.remaining() >= 4) {
+                frameLength = this.readBuffer.getInt(this.readBuffer
+                        .position());
+
+                if ((frameLength < BinaryProtocol.HEADER_LENGTH)
+                        || (frameLength > BinaryProtocol.MAX_FRAME_LENGTH)) {
+                    throw new IOException("Invalid frame length: "
+                            + frameLength);
+                }
+
+                if (this.readBuffer.remaining() < (4 + frameLength)) {
+                    if (this.readBuffer.capacity() < (4 + frameLength)) {
+                        ByteBuffer larger = ByteBuffer
+                                .allocate(4 + frameLength);
+                        larger.put(this.readBuffer);
+                        this.readBuffer = larger;
+                        return;
+                    }
+
+                    break;
+                }
+
+                final byte[] request = new byte[frameLength];
+
+                this.readBuffer.getInt();
+                this.readBuffer.get(request);
+
+                workers.execute(new Runnable() {
+
+                    public void run() {
+                        send(execute(request));
+                    }
+                });
+            }
+
+            this.readBuffer.compact();
+        }
+
+        /*
+         * Queue a response to be written once the connection is writable.
+         */
+        void send(byte[] response) {
+            ByteBuffer frame = ByteBuffer.allocate(4 + response.length);
+
+            frame.putInt(response.length).put(response).flip();
+            this.responses.add(frame);
+
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        /*
+         * Write as many queued responses as the connection accepts, and stop
+         * waiting for it to be writable once none are left.
+         */
+        void write() throws IOException {
+            ByteBuffer frame;
+
+            while ((frame = this.responses.peek()) != null) {
+                this.channel.write(frame);
+
+                if (frame.hasRemaining()) {
+                    return;
+                }
+
+                this.responses.poll();
+            }
+
+            this.key.interestOps(this.key.interestOps()
+                    & ~SelectionKey.OP_WRITE);
+        }
+
+        void close() {
+            this.key.cancel();
+
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                // ignore, connection is being discarded
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,33 @@
+package suncertify.server;
+
+/**
+ * The outcome of booking one room of a batch booking.
+ * 
+ * @author Oliver Hernandez
+ * 
+ * @see RemoteRoomReservations#bookAll(long[], String)
+ */
+public enum BookingResult {
+
+    /**
+     * The room was booked for the customer.
+     */
+    BOOKED,
+
+    /**
+     * The room was already booked, and was left unchanged.
+     */
+    ALREADY_BOOKED,
+
+    /**
+     * The room does not exist or has been deleted.
+     */
+    NOT_FOUND,
+
+    /**
+     * The room could not be booked because its lock expired before the batch
+     * was applied; none of the rooms of the batch were booked.
+     */
+    FAILED
+
+}
@@ -0,0 +1,173 @@
+package suncertify.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantLock;
+
+import suncertify.application.Room;
+import suncertify.application.RoomChanges;
+import suncertify.db.Data;
+import suncertify.db.RecordListener;
+import suncertify.db.RecordNotFoundException;
+
+/**
+ * A log of the records changed recently, answering the synchronization of
+ * clients' local replicas of the rooms with the rooms changed since their
+ * version, rather than every room.
+ * <p>
+ * Versions count the changes logged, and the log keeps the numbers of the
+ * records changed by a fixed number of the most recent changes. The log is
+ * started by the first synchronization, and tagged with a random generation,
+ * so the versions of a replica synchronized with an earlier run of the server
+ * are never taken for versions of this one. A replica of an unknown
+ * generation, or older than the changes kept, must be replaced by every room.
+ * <p>
+ * The log is only kept in memory, and a new generation is picked each time
+ * the server starts, so after a restart the next synchronization of every
+ * replica is a full one, sending it every room. Persisting the generation
+ * alone would not spare it: the changes made before the restart are lost
+ * with the log, so no replica could be sent only those it missed.
+ * <p>
+ * The changed rooms are read once the log is read, so they may hold changes
+ * made after the new version; those are sent again by the next
+ * synchronization, which converges the replica all the same.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class ChangeLog implements RecordListener {
+
+    /*
+     * Number of changes kept; must be a power of two so a version can be
+     * mapped to its slot with a mask.
+     */
+    private static final int LOG_SIZE = 1 << 16;
+
+    private static final int LOG_MASK = LOG_SIZE - 1;
+
+    private final Data database;
+
+    private final long generation;
+
+    /* guards the log and the number of changes logged */
+    private final ReentrantLock lock;
+
+    private final long[] recNos;
+
+    private long numChanges;
+
+    private boolean started;
+
+    /**
+     * Constructs an empty log of the changes to a database. Changes are only
+     * logged once the log is started by the first synchronization.
+     * 
+     * @param database
+     *            the database whose changes are logged.
+     */
+    ChangeLog(Data database) {
+        long randomGeneration;
+
+        /* a new generation per run: replicas fully resync after a restart */
+
+        do {
+            randomGeneration = new Random().nextLong();
+        } while (randomGeneration == RoomChanges.NO_GENERATION);
+
+        this.database = database;
+        this.generation = randomGeneration;
+        this.lock = new ReentrantLock();
+        this.recNos = new long[LOG_SIZE];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void recordChanged(long recNo, String[] oldFields,
+            String[] newFields) {
+        this.lock.lock();
+
+        try {
+            this.recNos[(int) (this.numChanges & LOG_MASK)] = recNo;
+            this.numChanges++;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get the changes to the rooms since a version of a replica.
+     * 
+     * @param replicaGeneration
+     *            the generation the replica was last synchronized with.
+     * @param version
+     *            the version of the replica.
+     * @return the rooms changed since the version, or a full
+     *         synchronization if they are not known.
+     */
+    RoomChanges changesSince(long replicaGeneration, long version) {
+        long[] changed;
+        long newVersion;
+
+        this.lock.lock();
+
+        try {
+            if (!this.started) {
+                this.started = true;
+                this.database.addRecordListener(this);
+            }
+
+            newVersion = this.numChanges;
+
+            if ((replicaGeneration != this.generation) || (version < 0)
+                    || (version > newVersion)
+                    || (newVersion - version > LOG_SIZE)) {
+                return new RoomChanges(this.generation, newVersion, true,
+                        new ArrayList<Room>(), new long[0]);
+            }
+
+            changed = new long[(int) (newVersion - version)];
+
+            for (int currChange = 0; currChange < changed.length;
+            currChange++) {
+                changed[currChange] = this.recNos[(int) ((version
+                        + currChange) & LOG_MASK)];
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        return readChanged(newVersion, changed);
+    }
+
+    /*
+     * Read the rooms changed, each once, telling the rooms deleted apart.
+     */
+    private RoomChanges readChanged(long newVersion, long[] changed) {
+        List<Room> rooms = new ArrayList<Room>();
+        long[] deletedIds = new long[changed.length];
+        int numDeleted = 0;
+
+        Arrays.sort(changed);
+
+        for (int currChange = 0; currChange < changed.length; currChange++) {
+            if ((currChange > 0)
+                    && (changed[currChange] == changed[currChange - 1])) {
+                continue;
+            }
+
+            try {
+                rooms.add(URLyBirdReservations.toRoom(changed[currChange],
+                        this.database.readRecord(changed[currChange])));
+            } catch (RecordNotFoundException e) {
+                deletedIds[numDeleted++] = changed[currChange];
+            }
+        }
+
+        return new RoomChanges(this.generation, newVersion, false, rooms,
+                Arrays.copyOf(deletedIds, numDeleted));
+    }
+
+}
@@ -5,6 +5,8 @@ import java.rmi.RemoteException;
 import java.util.List;
 
 import suncertify.application.Room;
+import suncertify.application.RoomChanges;
+import suncertify.application.RoomPage;
 import suncertify.db.RecordNotFoundException;
 import suncertify.db.SecurityException;
 
@@ -35,6 +37,32 @@ public interface RemoteRoomReservations extends Remote {
      */
     public List<Room> search(String[] criteria) throws RemoteException;
 
+    /**
+     * Search for hotel rooms matching the specified criteria, a page at a
+     * time. Only the rooms of the requested page are read and sent, so a
+     * search matching many rooms is returned in pieces as they are needed.
+     * The first page counts the rooms the search matches; later pages may be
+     * read by scanning only as far as they reach, without counting them.
+     * 
+     * @param criteria
+     *            a <code>String</code> array containing values that should be
+     *            searched for.
+     * @param continuation
+     *            the continuation token of the previous page, or
+     *            {@link RoomPage#FIRST_PAGE} for the first page.
+     * @param pageSize
+     *            the maximum number of rooms to return.
+     * 
+     * @return the page of rooms following the continuation token.
+     * 
+     * @throws RemoteException
+     *             when a network error occurs.
+     * 
+     * @see suncertify.db.DBAccess#findByCriteria(java.lang.String[])
+     */
+    public RoomPage searchPage(String[] criteria, long continuation,
+            int pageSize) throws RemoteException;
+
     /**
      * Book the specified hotel room.
      * 
@@ -53,8 +81,89 @@ public interface RemoteRoomReservations extends Remote {
      * @throws SecurityException
      *             when the room was attempted to be booked by another user, or
      *             the request to book the room timed-out.
+     * @throws IllegalArgumentException
+     *             when the customer ID is not a number of 8 digits.
      */
     public boolean book(long roomId, String customerId) throws RemoteException,
             RecordNotFoundException, SecurityException;
 
+    /**
+     * Book a set of hotel rooms for a customer in a single request. The rooms
+     * are locked in ascending order, so that concurrent batch bookings cannot
+     * deadlock, and all the rooms still free are then booked together.
+     * 
+     * @param roomIds
+     *            the IDs of the rooms to book.
+     * @param customerId
+     *            the customer ID to book the rooms for.
+     * 
+     * @return the outcome of booking each room, in the order of
+     *         <code>roomIds</code>.
+     * 
+     * @throws RemoteException
+     *             when a network error occurs.
+     * @throws IllegalArgumentException
+     *             when the customer ID is not a number of 8 digits.
+     */
+    public BookingResult[] bookAll(long[] roomIds, String customerId)
+            throws RemoteException;
+
+    /**
+     * Register a standing query for the hotel rooms matching the specified
+     * criteria. As the rooms change, the server pushes each change to the
+     * rooms matching the query to the listener, so the client keeps its
+     * search results current without searching again.
+     * 
+     * @param criteria
+     *            a <code>String</code> array containing values that should be
+     *            searched for.
+     * @param listener
+     *            the listener to send the changes to the matching rooms to.
+     * 
+     * @return the ID of the standing query.
+     * 
+     * @throws RemoteException
+     *             when a network error occurs, or the connection cannot carry
+     *             calls back to the client.
+     * 
+     * @see suncertify.db.DBAccess#findByCriteria(java.lang.String[])
+     */
+    public long watch(String[] criteria, RoomListener listener)
+            throws RemoteException;
+
+    /**
+     * Remove a standing query registered by
+     * {@link #watch(String[], RoomListener)}. Changes already being sent may
+     * still arrive.
+     * 
+     * @param watchId
+     *            the ID of the standing query.
+     * 
+     * @throws RemoteException
+     *             when a network error occurs.
+     */
+    public void unwatch(long watchId) throws RemoteException;
+
+    /**
+     * Get the changes to the hotel rooms since a version of a client's local
+     * replica of them, so the replica is kept in step with the server by
+     * fetching only the rooms changed. When the server no longer knows the
+     * changes since the version, it requests a full synchronization, reading
+     * every room with {@link #searchPage(String[], long, int)}.
+     * 
+     * @param generation
+     *            the generation of the server the replica was last
+     *            synchronized with, or {@link RoomChanges#NO_GENERATION} for a
+     *            new replica.
+     * @param version
+     *            the version of the replica.
+     * 
+     * @return the changes since the version, and the new version.
+     * 
+     * @throws RemoteException
+     *             when a network error occurs.
+     */
+    public RoomChanges sync(long generation, long version)
+            throws RemoteException;
+
 }
@@ -0,0 +1,36 @@
+package suncertify.server;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+import suncertify.application.RoomDelta;
+
+/**
+ * Receives the changes to the rooms matching a standing query registered
+ * with {@link RemoteRoomReservations#watch(String[], RoomListener)}. Extends
+ * {@link java.rmi.Remote} so the server can call back a remote client over
+ * <code>RMI</code>.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+public interface RoomListener extends Remote {
+
+    /**
+     * Receive the changes to the rooms matching a standing query, in the
+     * order they were made. A listener is never called again for the same
+     * query before this call returns.
+     * 
+     * @param watchId
+     *            the ID of the standing query.
+     * @param deltas
+     *            the changes to the rooms matching the query.
+     * 
+     * @throws RemoteException
+     *             when a network error occurs; the standing query is then
+     *             removed.
+     */
+    public void roomsChanged(long watchId, RoomDelta[] deltas)
+            throws RemoteException;
+
+}
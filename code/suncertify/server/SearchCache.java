@@ -0,0 +1,441 @@
+package suncertify.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import suncertify.application.Room;
+import suncertify.db.Data;
+import suncertify.db.RecordListener;
+
+/**
+ * A cache of the results of recent searches, so that repeated searches for
+ * the same criteria, such as the most popular cities, neither scan the
+ * database nor read its records again.
+ * <p>
+ * The cache receives each change to the records as a {@link RecordListener},
+ * and discards only the results whose criteria match the changed record,
+ * either before or after the change: results for other criteria stay
+ * cached, so a cached result is always as current as one read from the
+ * database. A search reads the number of changes received before reading the
+ * database, and its result is not cached if a matching change was received
+ * meanwhile, or if too many changes were to tell.
+ * <p>
+ * The cache holds at most a configured number of rooms across all its
+ * results, each result counting for the number of rooms it matched, and
+ * evicts the least recently used results first to make room for new ones.
+ * The cache is safe for use by several threads at once.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class SearchCache implements RecordListener {
+
+    /*
+     * Number of recent changes remembered, to check the results of searches
+     * made while they were received.
+     */
+    private static final int RECENT_CHANGES = 256;
+
+    private final Data database;
+
+    private final int maxRooms;
+
+    private final LinkedHashMap<String, Entry> results;
+
+    private final ReentrantLock lock;
+
+    private int numRooms;
+
+    private boolean started;
+
+    /*
+     * Number of changes received, and the fields of the most recent ones
+     * before and after each change, by change number modulo their number.
+     */
+    private long numChanges;
+
+    private final String[][] recentOldFields;
+
+    private final String[][] recentNewFields;
+
+    private final AtomicLong hits;
+
+    private final AtomicLong misses;
+
+    private final AtomicLong evictions;
+
+    /**
+     * Constructs an empty cache, which starts receiving the changes to the
+     * database once first used.
+     * 
+     * @param database
+     *            the database whose searches are cached.
+     * @param maxRooms
+     *            the maximum number of rooms held across all results, or 0
+     *            to cache nothing.
+     */
+    SearchCache(Data database, int maxRooms) {
+        this.database = database;
+        this.maxRooms = Math.max(0, maxRooms);
+        this.results = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        this.lock = new ReentrantLock();
+        this.recentOldFields = new String[RECENT_CHANGES][];
+        this.recentNewFields = new String[RECENT_CHANGES][];
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    /**
+     * Get the number of changes to the records received so far, to read
+     * before searching the database and pass with the result to
+     * {@link #put(String[], Result)}. Starts receiving the changes when first
+     * called.
+     * 
+     * @return the number of changes received.
+     */
+    long getChangeCount() {
+        this.lock.lock();
+
+        try {
+            if (!this.started && (this.maxRooms > 0)) {
+                this.started = true;
+                this.database.addRecordListener(this);
+            }
+
+            return this.numChanges;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get the result cached for the specified criteria, if it holds what the
+     * caller needs. Only a result the caller can use counts as a hit.
+     * 
+     * @param criteria
+     *            the search criteria.
+     * @param needRooms
+     *            whether the caller needs the rooms, and not only their IDs.
+     * @return the cached result, or <code>null</code> if there is none, or it
+     *         lacks the rooms needed.
+     */
+    Result get(String[] criteria, boolean needRooms) {
+        String key = key(criteria);
+        Entry entry;
+        Result result = null;
+
+        this.lock.lock();
+
+        try {
+            entry = this.results.get(key);
+
+            if (entry != null) {
+                result = entry.result;
+            }
+
+            if ((result != null) && needRooms && (result.rooms == null)) {
+                result = null; // kept for searches needing only the IDs
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (result != null) {
+            this.hits.incrementAndGet();
+        } else {
+            this.misses.incrementAndGet();
+        }
+
+        return result;
+    }
+
+    /**
+     * Cache the result of a search, evicting the least recently used results
+     * as needed to stay within the maximum number of rooms. A result larger
+     * than the whole cache, older than the one already cached, or which a
+     * change received since it was read may have made stale, is not cached.
+     * 
+     * @param criteria
+     *            the search criteria.
+     * @param result
+     *            the result of the search.
+     */
+    void put(String[] criteria, Result result) {
+        String key = key(criteria);
+        Entry entry = new Entry(normalize(criteria), result);
+        Iterator<Map.Entry<String, Entry>> eldest;
+
+        if (result.size() > this.maxRooms) {
+            return;
+        }
+
+        this.lock.lock();
+
+        try {
+            Entry current = this.results.get(key);
+
+            if ((current != null)
+                    && (current.result.changeCount > result.changeCount)) {
+                return; // a newer result was cached meanwhile
+            }
+
+            if (changedSince(entry.criteria, result.changeCount)) {
+                return; // the result may miss a change made while searching
+            }
+
+            remove(key);
+
+            eldest = this.results.entrySet().iterator();
+
+            while ((this.numRooms + result.size()) > this.maxRooms) {
+                this.numRooms -= eldest.next().getValue().result.size();
+                eldest.remove();
+                this.evictions.incrementAndGet();
+            }
+
+            this.results.put(key, entry);
+            this.numRooms += result.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Discard the results whose criteria match a changed record, before or
+     * after the change, and remember the change for the searches in
+     * progress.
+     * 
+     * @param recNo
+     *            the number of the changed record.
+     * @param oldFields
+     *            the record's fields before the change, or <code>null</code>.
+     * @param newFields
+     *            the record's fields after the change, or <code>null</code>.
+     */
+    public void recordChanged(long recNo, String[] oldFields,
+            String[] newFields) {
+        Iterator<Entry> entries;
+        Entry entry;
+        int slot;
+
+        this.lock.lock();
+
+        try {
+            slot = (int) (this.numChanges % RECENT_CHANGES);
+            this.recentOldFields[slot] = oldFields;
+            this.recentNewFields[slot] = newFields;
+            this.numChanges++;
+
+            entries = this.results.values().iterator();
+
+            while (entries.hasNext()) {
+                entry = entries.next();
+
+                if (matches(oldFields, entry.criteria)
+                        || matches(newFields, entry.criteria)) {
+                    this.numRooms -= entry.result.size();
+                    entries.remove();
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of searches answered from the cache.
+     * 
+     * @return the number of cache hits.
+     */
+    long getHitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * Get the number of searches not answered from the cache, because their
+     * result was not cached, was discarded, or lacked the rooms needed.
+     * 
+     * @return the number of cache misses.
+     */
+    long getMissCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * Get the number of results evicted to make room for others.
+     * 
+     * @return the number of evictions.
+     */
+    long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    /**
+     * Get the number of rooms held across all the cached results.
+     * 
+     * @return the number of rooms cached.
+     */
+    int getRoomCount() {
+        this.lock.lock();
+
+        try {
+            return this.numRooms;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /*
+     * Remove the result cached for a key, if any. Must be called while
+     * holding the lock.
+     */
+    private void remove(String key) {
+        Entry removed = this.results.remove(key);
+
+        if (removed != null) {
+            this.numRooms -= removed.result.size();
+        }
+    }
+
+    /*
+     * Determine if a change received since a number of changes may match
+     * the criteria; a change no longer remembered may. Must be called while
+     * holding the lock.
+     */
+    private boolean changedSince(String[] criteria, long changeCount) {
+        int slot;
+
+        if ((this.numChanges - changeCount) > RECENT_CHANGES) {
+            return true;
+        }
+
+        for (long currChange = changeCount; currChange < this.numChanges;
+        currChange++) {
+            slot = (int) (currChange % RECENT_CHANGES);
+
+            if (matches(this.recentOldFields[slot], criteria)
+                    || matches(this.recentNewFields[slot], criteria)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * Determine if the fields of a record match normalized criteria; a
+     * deleted or created record has no fields on one side of its change.
+     */
+    private static boolean matches(String[] fields, String[] criteria) {
+        if (fields == null) {
+            return false;
+        }
+
+        for (int currField = 0; currField < criteria.length; currField++) {
+            if ((criteria[currField] != null)
+                    && !fields[currField].startsWith(criteria[currField])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /*
+     * Normalize search criteria as their key does: an empty criterion
+     * matches any value, as does a null one.
+     */
+    private static String[] normalize(String[] criteria) {
+        String[] normalized = new String[criteria.length];
+
+        for (int currField = 0; currField < criteria.length; currField++) {
+            if ((criteria[currField] != null)
+                    && (criteria[currField].length() > 0)) {
+                normalized[currField] = criteria[currField];
+            }
+        }
+
+        return normalized;
+    }
+
+    /*
+     * Normalize search criteria into a cache key. An empty criterion matches
+     * any value, as does a null one, and missing trailing criteria are null,
+     * so criteria finding the same records share a key.
+     */
+    private static String key(String[] criteria) {
+        StringBuilder key = new StringBuilder();
+        int keyLength = 0;
+
+        for (String criterion : criteria) {
+            if ((criterion != null) && (criterion.length() > 0)) {
+                key.append(criterion);
+                keyLength = key.length();
+            }
+
+            key.append('\0');
+        }
+
+        key.setLength(keyLength);
+
+        return key.toString();
+    }
+
+    /*
+     * A cached result, with the criteria it was searched for.
+     */
+    private static class Entry {
+
+        final String[] criteria;
+
+        final Result result;
+
+        Entry(String[] criteria, Result result) {
+            this.criteria = criteria;
+            this.result = result;
+        }
+
+    }
+
+    /**
+     * The result of a search: the IDs of the matching rooms, and once read,
+     * the rooms themselves, as read after a number of changes to the
+     * database.
+     */
+    static class Result {
+
+        final long changeCount;
+
+        final long[] roomIds;
+
+        final List<Room> rooms;
+
+        /**
+         * Constructs a search result.
+         * 
+         * @param changeCount
+         *            the number of changes received by the cache, read
+         *            before searching.
+         * @param roomIds
+         *            the IDs of the matching rooms, in ascending order.
+         * @param rooms
+         *            the matching rooms, or <code>null</code> if not read.
+         */
+        Result(long changeCount, long[] roomIds, List<Room> rooms) {
+            this.changeCount = changeCount;
+            this.roomIds = roomIds;
+            this.rooms = rooms;
+        }
+
+        int size() {
+            return Math.max(1, this.roomIds.length);
+        }
+
+    }
+
+}
@@ -0,0 +1,398 @@
+package suncertify.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import suncertify.application.RoomDelta;
+import suncertify.application.URLyBirdConfiguration;
+import suncertify.db.Data;
+import suncertify.db.RecordListener;
+import suncertify.util.ThreadUtil;
+
+/**
+ * The standing queries registered by clients, each pushed the changes to the
+ * rooms matching it as the records of the database change, so clients keep
+ * their search results current without searching again.
+ * <p>
+ * The database passes each change to a record to a queue, and a dispatcher
+ * thread evaluates it against the criteria of every standing query, before
+ * and after the change: a room that starts matching a query is sent to it as
+ * an insert, one that still matches it as an update, and one that stops
+ * matching it as a delete. The changes for each query are sent in order, by
+ * one delivery at a time, and the changes made while a delivery is in
+ * progress are sent together by the next one, so a slow client delays only
+ * its own queries. A query whose listener cannot be reached is removed.
+ * <p>
+ * The changes waiting to be sent to a query are coalesced by room: a room
+ * changed again before its previous change was sent has a single change
+ * pending, bringing the client from the room as it last received it to the
+ * room as it is now. A room inserted then deleted before being sent has no
+ * change pending at all. A slow client therefore holds at most one pending
+ * change per room, however many changes are made while it is being sent
+ * others, and receives every room in its latest state.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+class StandingQueries implements RecordListener, Runnable {
+
+    private final Data database;
+
+    private final ConcurrentHashMap<Long, Query> queries;
+
+    private final AtomicLong lastWatchId;
+
+    /* changes to the records, not yet evaluated against the queries */
+    private final LinkedBlockingQueue<Change> changes;
+
+    private ExecutorService deliveries;
+
+    private Thread dispatcherThread;
+
+    /**
+     * Constructs an empty set of standing queries on a database. Changes are
+     * only received once a query is registered.
+     * 
+     * @param database
+     *            the database whose changes are evaluated.
+     */
+    StandingQueries(Data database) {
+        this.database = database;
+        this.queries = new ConcurrentHashMap<Long, Query>();
+        this.lastWatchId = new AtomicLong();
+        this.changes = new LinkedBlockingQueue<Change>();
+    }
+
+    /**
+     * Register a standing query.
+     * 
+     * @param criteria
+     *            the criteria of the query, as searched for by
+     *            {@link Data#findByCriteria(String[])}.
+     * @param listener
+     *            the listener to send the changes to the matching rooms to.
+     * @return the ID of the query.
+     */
+    long watch(String[] criteria, RoomListener listener) {
+        start();
+
+        long watchId = this.lastWatchId.incrementAndGet();
+
+        this.queries.put(watchId, new Query(watchId, criteria.clone(),
+                listener));
+
+        return watchId;
+    }
+
+    /**
+     * Remove a standing query. Changes already being sent may still arrive.
+     * 
+     * @param watchId
+     *            the ID of the query.
+     */
+    void unwatch(long watchId) {
+        this.queries.remove(watchId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void recordChanged(long recNo, String[] oldFields,
+            String[] newFields) {
+        if (!this.queries.isEmpty()) {
+            this.changes.add(new Change(recNo, oldFields, newFields));
+        }
+    }
+
+    /**
+     * Evaluate the changes to the records against the standing queries as
+     * they arrive, and send each query its changes.
+     */
+    public void run() {
+        List<Change> batch = new ArrayList<Change>();
+
+        while (true) {
+            try {
+                batch.add(this.changes.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            this.changes.drainTo(batch);
+
+            for (Query query : this.queries.values()) {
+                for (Change change : batch) {
+                    query.evaluate(change);
+                }
+
+                query.deliver();
+            }
+
+            batch.clear();
+        }
+    }
+
+    /*
+     * Start receiving the changes to the records, and the threads evaluating
+     * and sending them, when the first query is registered.
+     */
+    private synchronized void start() {
+        if (this.dispatcherThread != null) {
+            return;
+        }
+
+        this.deliveries = createDeliveries();
+        this.dispatcherThread = new Thread(this, "StandingQueries");
+        this.dispatcherThread.setDaemon(true);
+        this.dispatcherThread.start();
+        this.database.addRecordListener(this);
+    }
+
+    /*
+     * Create the executor sending changes to the listeners: a virtual thread
+     * per delivery when configured and supported, so that a listener slow to
+     * answer costs no platform thread, or otherwise a pool of platform
+     * threads created as needed and discarded once idle.
+     */
+    private static ExecutorService createDeliveries() {
+        ExecutorService executor = null;
+
+        if (URLyBirdConfiguration.getInstance().isVirtualThreads()) {
+            executor = ThreadUtil.newVirtualThreadPerTaskExecutor();
+        }
+
+        if (executor != null) {
+            return executor;
+        }
+
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+
+            private int numThreads;
+
+            public synchronized Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "StandingQueryDelivery-"
+                        + (++this.numThreads));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /*
+     * Determine if the fields of a record match the criteria of a query; a
+     * deleted or created record has no fields on one side of its change.
+     */
+    private static boolean matches(String[] fields, String[] criteria) {
+        if (fields == null) {
+            return false;
+        }
+
+        for (int currField = 0; currField < criteria.length; currField++) {
+            if ((criteria[currField] != null)
+                    && !fields[currField].startsWith(criteria[currField])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /*
+     * A change to a record, as passed by the database.
+     */
+    private static class Change {
+
+        final long recNo;
+
+        final String[] oldFields;
+
+        final String[] newFields;
+
+        Change(long recNo, String[] oldFields, String[] newFields) {
+            this.recNo = recNo;
+            this.oldFields = oldFields;
+            this.newFields = newFields;
+        }
+
+    }
+
+    /*
+     * A standing query: its criteria, its listener, and the changes to its
+     * rooms not sent yet, at most one per room.
+     */
+    private class Query implements Runnable {
+
+        final long watchId;
+
+        final String[] criteria;
+
+        final RoomListener listener;
+
+        /* pending changes by room ID, in the order rooms first changed */
+        final LinkedHashMap<Long, RoomDelta> pending;
+
+        final ReentrantLock pendingLock;
+
+        /* whether a delivery of the pending changes is in progress */
+        final AtomicBoolean delivering;
+
+        Query(long watchId, String[] criteria, RoomListener listener) {
+            this.watchId = watchId;
+            this.criteria = criteria;
+            this.listener = listener;
+            this.pending = new LinkedHashMap<Long, RoomDelta>();
+            this.pendingLock = new ReentrantLock();
+            this.delivering = new AtomicBoolean();
+        }
+
+        /*
+         * Queue the change to the query's rooms made by a change to a record,
+         * if any.
+         */
+        void evaluate(Change change) {
+            boolean matched = matches(change.oldFields, this.criteria);
+            boolean matching = matches(change.newFields, this.criteria);
+
+            if (matching) {
+                queue(change.recNo, new RoomDelta(
+                        matched ? RoomDelta.Type.UPDATE
+                                : RoomDelta.Type.INSERT, URLyBirdReservations
+                                .toRoom(change.recNo, change.newFields)));
+            } else if (matched) {
+                queue(change.recNo, new RoomDelta(RoomDelta.Type.DELETE,
+                        URLyBirdReservations.toRoom(change.recNo,
+                                change.oldFields)));
+            }
+        }
+
+        /*
+         * Queue a change to a room, coalesced with the change pending for the
+         * room, if any, into the one change bringing the client from the
+         * room it has to the room as now changed.
+         */
+        void queue(long roomId, RoomDelta delta) {
+            RoomDelta.Type type = delta.getType();
+
+            this.pendingLock.lock();
+
+            try {
+                RoomDelta previous = this.pending.get(roomId);
+
+                if (previous == null) {
+                    this.pending.put(roomId, delta);
+                    return;
+                }
+
+                switch (previous.getType()) {
+                case INSERT:
+
+                    /* the client never had the room */
+
+                    if (type == RoomDelta.Type.DELETE) {
+                        this.pending.remove(roomId);
+                    } else {
+                        this.pending.put(roomId, new RoomDelta(
+                                RoomDelta.Type.INSERT, delta.getRoom()));
+                    }
+                    break;
+                case DELETE:
+
+                    /* the client still has the room */
+
+                    if (type != RoomDelta.Type.DELETE) {
+                        this.pending.put(roomId, new RoomDelta(
+                                RoomDelta.Type.UPDATE, delta.getRoom()));
+                    }
+                    break;
+                default:
+                    this.pending.put(roomId, delta);
+                    break;
+                }
+            } finally {
+                this.pendingLock.unlock();
+            }
+        }
+
+        /*
+         * Determine if any change is pending.
+         */
+        boolean hasPending() {
+            this.pendingLock.lock();
+
+            try {
+                return !this.pending.isEmpty();
+            } finally {
+                this.pendingLock.unlock();
+            }
+        }
+
+        /*
+         * Start sending the pending changes, unless a delivery is already in
+         * progress; it sends them once done.
+         */
+        void deliver() {
+            if (hasPending() && this.delivering.compareAndSet(false, true)) {
+                StandingQueries.this.deliveries.execute(this);
+            }
+        }
+
+        /*
+         * Send the pending changes until none are left.
+         */
+        public void run() {
+            List<RoomDelta> deltas = new ArrayList<RoomDelta>();
+
+            do {
+                this.pendingLock.lock();
+
+                try {
+                    deltas.addAll(this.pending.values());
+                    this.pending.clear();
+                } finally {
+                    this.pendingLock.unlock();
+                }
+
+                if (!deltas.isEmpty()) {
+                    try {
+                        this.listener.roomsChanged(this.watchId, deltas
+                                .toArray(new RoomDelta[deltas.size()]));
+                    } catch (Exception e) {
+                        // the client is gone, stop sending it changes
+                        unwatch(this.watchId);
+                        clearPending();
+                        return;
+                    }
+
+                    deltas.clear();
+                }
+
+                this.delivering.set(false);
+            } while (hasPending()
+                    && this.delivering.compareAndSet(false, true));
+        }
+
+        /*
+         * Discard the pending changes.
+         */
+        void clearPending() {
+            this.pendingLock.lock();
+
+            try {
+                this.pending.clear();
+            } finally {
+                this.pendingLock.unlock();
+            }
+        }
+
+    }
+
+}
@@ -2,11 +2,16 @@ package suncertify.server;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import suncertify.application.Room;
+import suncertify.application.RoomChanges;
+import suncertify.application.RoomPage;
+import suncertify.application.URLyBirdConfiguration;
 import suncertify.db.Data;
 import suncertify.db.RecordNotFoundException;
+import suncertify.db.RecordVisitor;
 import suncertify.db.SecurityException;
 
 /**
@@ -20,8 +25,24 @@ import suncertify.db.SecurityException;
  */
 public class URLyBirdReservations implements RemoteRoomReservations {
 
+    /*
+     * Number of the field of a room's record holding the customer it is
+     * booked for, and the number of digits of a customer ID.
+     */
+    private static final int OWNER_FIELD = 6;
+
+    private static final int CUSTOMER_ID_LENGTH = 8;
+
     private Data database = Data.getInstance();
 
+    private SearchCache searchCache = new SearchCache(this.database,
+            URLyBirdConfiguration.getInstance().getSearchCacheSize());
+
+    private StandingQueries standingQueries = new StandingQueries(
+            this.database);
+
+    private ChangeLog changeLog = new ChangeLog(this.database);
+
     /**
      * Create the server, initializing the connection to the database.
      * 
@@ -42,60 +63,360 @@ public class URLyBirdReservations implements RemoteRoomReservations {
      */
     public boolean book(long roomId, String customerId)
             throws RecordNotFoundException, SecurityException {
-        long cookie;
-        String[] record;
-        boolean booked = false;
+        checkCustomerId(customerId);
 
-        record = this.database.readRecord(roomId);
-
-        if (record[6] == null || record[6].trim().isEmpty()) {
-            record[6] = customerId;
-            cookie = this.database.lockRecord(roomId);
-            this.database.updateRecord(roomId, record, cookie);
-            this.database.unlock(roomId, cookie);
-            booked = true;
-        }
+        /* book the room only if it is still free, in one atomic step */
 
-        return booked;
+        return this.database.compareAndSetField(roomId, OWNER_FIELD, "",
+                customerId);
     }
 
     /**
      * {@inheritDoc}
      */
-    public List<Room> search(String[] criteria) {
-        Room room;
+    public BookingResult[] bookAll(long[] roomIds, String customerId) {
+        checkCustomerId(customerId);
+
+        long[] sortedIds = distinctSorted(roomIds);
+        BookingResult[] sortedResults = new BookingResult[sortedIds.length];
+        BookingResult[] results = new BookingResult[roomIds.length];
+        long[] lockedIds = new long[sortedIds.length];
+        long[] cookies = new long[sortedIds.length];
+        int numLocked = 0;
+        long[] bookedIds = new long[sortedIds.length];
+        String[][] bookedRecords = new String[sortedIds.length][];
+        long[] bookedCookies = new long[sortedIds.length];
+        int numBooked = 0;
         String[] record;
-        List<Room> rooms = null;
-        long[] roomIds = this.database.findByCriteria(criteria);
 
-        if (roomIds.length > 0) {
-            rooms = new ArrayList<Room>();
+        try {
+            /* lock the rooms in ascending order */
 
-            for (long currRoomId : roomIds) {
+            for (int currRoom = 0; currRoom < sortedIds.length; currRoom++) {
                 try {
-                    record = this.database.readRecord(currRoomId);
-
-                    room = new Room();
-                    room.setId(currRoomId);
-                    room.setHotelName(record[0]);
-                    room.setCity(record[1]);
-                    room.setMaxOccupancy(record[2]);
-                    room.setSmoking(record[3]);
-                    room.setRate(record[4]);
-                    room.setDate(record[5]);
-                    room.setOwner(record[6]);
-
-                    rooms.add(room);
+                    cookies[numLocked] = this.database
+                            .lockRecord(sortedIds[currRoom]);
+                    lockedIds[numLocked++] = sortedIds[currRoom];
                 } catch (RecordNotFoundException e) {
-                    /*
-                     * row may have been deleted by another user, so we'll just
-                     * skip it
-                     */
+                    sortedResults[currRoom] = BookingResult.NOT_FOUND;
                 }
             }
+
+            /* book the locked rooms that are still free, all at once */
+
+            for (int currRoom = 0; currRoom < numLocked; currRoom++) {
+                record = this.database.readRecord(lockedIds[currRoom]);
+
+                if (record[OWNER_FIELD] == null
+                        || record[OWNER_FIELD].trim().isEmpty()) {
+                    record[OWNER_FIELD] = customerId;
+                    bookedIds[numBooked] = lockedIds[currRoom];
+                    bookedRecords[numBooked] = record;
+                    bookedCookies[numBooked++] = cookies[currRoom];
+                } else {
+                    setResult(sortedIds, sortedResults, lockedIds[currRoom],
+                            BookingResult.ALREADY_BOOKED);
+                }
+            }
+
+            bookedIds = Arrays.copyOf(bookedIds, numBooked);
+
+            try {
+                this.database.updateRecords(bookedIds, Arrays.copyOf(
+                        bookedRecords, numBooked), Arrays.copyOf(
+                        bookedCookies, numBooked));
+                setResults(sortedIds, sortedResults, bookedIds,
+                        BookingResult.BOOKED);
+            } catch (SecurityException e) {
+                setResults(sortedIds, sortedResults, bookedIds,
+                        BookingResult.FAILED);
+            }
+        } catch (RecordNotFoundException e) {
+            /*
+             * a locked room cannot be deleted, so this only happens once the
+             * database is closed.
+             */
+
+            Arrays.fill(sortedResults, BookingResult.FAILED);
+        } finally {
+            for (int currRoom = numLocked - 1; currRoom >= 0; currRoom--) {
+                try {
+                    this.database.unlock(lockedIds[currRoom],
+                            cookies[currRoom]);
+                } catch (SecurityException e) {
+                    // the lock already expired
+                }
+            }
+        }
+
+        /* report the results in the order the rooms were requested */
+
+        for (int currRoom = 0; currRoom < roomIds.length; currRoom++) {
+            results[currRoom] = sortedResults[Arrays.binarySearch(sortedIds,
+                    roomIds[currRoom])];
+        }
+
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Room> search(String[] criteria) {
+        long changeCount = this.searchCache.getChangeCount();
+        SearchCache.Result cached = this.searchCache.get(criteria, true);
+        final List<Room> rooms = new ArrayList<Room>();
+        long[] roomIds;
+
+        /*
+         * the rooms of a cached result are shared by every caller; remote
+         * callers receive copies, and local callers must not modify them.
+         */
+
+        if (cached != null) {
+            return cached.rooms.isEmpty() ? null : new ArrayList<Room>(
+                    cached.rooms);
+        }
+
+        /* find and read the matching rooms as of a single moment */
+
+        this.database.findAndRead(criteria, new RecordVisitor() {
+
+            public void visit(long recNo, String[] fields) {
+                rooms.add(toRoom(recNo, fields));
+            }
+        });
+
+        roomIds = new long[rooms.size()];
+
+        for (int currRoom = 0; currRoom < roomIds.length; currRoom++) {
+            roomIds[currRoom] = rooms.get(currRoom).getId();
+        }
+
+        this.searchCache.put(criteria, new SearchCache.Result(changeCount,
+                roomIds, new ArrayList<Room>(rooms)));
+
+        return rooms.isEmpty() ? null : rooms;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RoomPage searchPage(String[] criteria, long continuation,
+            int pageSize) {
+        long changeCount = this.searchCache.getChangeCount();
+        SearchCache.Result cached = this.searchCache.get(criteria, false);
+        int maxRooms = Math.max(1, pageSize);
+        long[] roomIds;
+
+        /* reuse the IDs of a cached search, but read the page's rooms anew */
+
+        if (cached != null) {
+            roomIds = cached.roomIds;
+        } else if (continuation == RoomPage.FIRST_PAGE) {
+            roomIds = this.database.findByCriteria(criteria);
+
+            if (roomIds == null) {
+                return new RoomPage(); // the database is closed
+            }
+
+            this.searchCache.put(criteria, new SearchCache.Result(
+                    changeCount, roomIds, null));
+        } else {
+            return streamPage(criteria, continuation, maxRooms);
+        }
+
+        List<Room> rooms = new ArrayList<Room>(Math.min(maxRooms,
+                roomIds.length));
+        int currRoom = 0;
+
+        /* the page starts after the last room of the previous page */
+
+        if (continuation != RoomPage.FIRST_PAGE) {
+            currRoom = Arrays.binarySearch(roomIds, continuation);
+            currRoom = (currRoom >= 0) ? currRoom + 1 : -(currRoom + 1);
+        }
+
+        while ((currRoom < roomIds.length) && (rooms.size() < maxRooms)) {
+            try {
+                rooms.add(readRoom(roomIds[currRoom]));
+            } catch (RecordNotFoundException e) {
+                // deleted by another user, skip it
+            }
+
+            currRoom++;
+        }
+
+        return new RoomPage(rooms, (currRoom < roomIds.length)
+                ? roomIds[currRoom - 1] : RoomPage.FIRST_PAGE, roomIds.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long watch(String[] criteria, RoomListener listener) {
+        return this.standingQueries.watch(criteria, listener);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void unwatch(long watchId) {
+        this.standingQueries.unwatch(watchId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RoomChanges sync(long generation, long version) {
+        return this.changeLog.changesSince(generation, version);
+    }
+
+    /**
+     * Get the number of searches whose result was found in the search cache.
+     * 
+     * @return the number of search cache hits.
+     */
+    public long getSearchCacheHits() {
+        return this.searchCache.getHitCount();
+    }
+
+    /**
+     * Get the number of searches whose result was not found in the search
+     * cache, or was stale, and was read from the database.
+     * 
+     * @return the number of search cache misses.
+     */
+    public long getSearchCacheMisses() {
+        return this.searchCache.getMissCount();
+    }
+
+    /**
+     * Get the number of search results evicted from the search cache to make
+     * room for others.
+     * 
+     * @return the number of search cache evictions.
+     */
+    public long getSearchCacheEvictions() {
+        return this.searchCache.getEvictionCount();
+    }
+
+    /**
+     * Get the number of rooms held in the search cache.
+     * 
+     * @return the number of rooms cached.
+     */
+    public int getSearchCacheRoomCount() {
+        return this.searchCache.getRoomCount();
+    }
+
+    /*
+     * Check that a customer ID is given, and is a number of as many digits as
+     * the field holding it.
+     */
+    private static void checkCustomerId(String customerId) {
+        boolean valid = (customerId != null)
+                && (customerId.length() == CUSTOMER_ID_LENGTH);
+
+        for (int currChar = 0; valid && (currChar < CUSTOMER_ID_LENGTH);
+        currChar++) {
+            valid = Character.isDigit(customerId.charAt(currChar));
+        }
+
+        if (!valid) {
+            throw new IllegalArgumentException("Invalid customer ID: "
+                    + customerId);
+        }
+    }
+
+    /*
+     * Read a room from the database.
+     */
+    private Room readRoom(long roomId) throws RecordNotFoundException {
+        return toRoom(roomId, this.database.readRecord(roomId));
+    }
+
+    /*
+     * Read a page of a search after the first without finding every matching
+     * room: the database is scanned from the room after the continuation
+     * token until one room more than the page holds is found, telling whether
+     * a page follows. The rooms matched are not counted.
+     */
+    private RoomPage streamPage(String[] criteria, long continuation,
+            int maxRooms) {
+        final List<Room> rooms = new ArrayList<Room>();
+        long nextContinuation = RoomPage.FIRST_PAGE;
+
+        this.database.findAndRead(criteria, continuation + 1, maxRooms + 1,
+                new RecordVisitor() {
+
+                    public void visit(long recNo, String[] fields) {
+                        rooms.add(toRoom(recNo, fields));
+                    }
+                });
+
+        if (rooms.size() > maxRooms) {
+            rooms.remove(maxRooms);
+            nextContinuation = rooms.get(maxRooms - 1).getId();
+        }
+
+        return new RoomPage(rooms, nextContinuation, RoomPage.UNKNOWN_COUNT);
+    }
+
+    /*
+     * Build a room from the fields of its record.
+     */
+    static Room toRoom(long roomId, String[] record) {
+        Room room = new Room();
+
+        room.setId(roomId);
+        room.setHotelName(record[0]);
+        room.setCity(record[1]);
+        room.setMaxOccupancy(record[2]);
+        room.setSmoking(record[3]);
+        room.setRate(record[4]);
+        room.setDate(record[5]);
+        room.setOwner(record[OWNER_FIELD]);
+
+        return room;
+    }
+
+    /*
+     * Sort a set of room IDs, removing duplicates.
+     */
+    private long[] distinctSorted(long[] roomIds) {
+        long[] sortedIds = roomIds.clone();
+        int numDistinct = 0;
+
+        Arrays.sort(sortedIds);
+
+        for (int currRoom = 0; currRoom < sortedIds.length; currRoom++) {
+            if ((numDistinct == 0)
+                    || (sortedIds[currRoom] != sortedIds[numDistinct - 1])) {
+                sortedIds[numDistinct++] = sortedIds[currRoom];
+            }
         }
 
-        return rooms;
+        return Arrays.copyOf(sortedIds, numDistinct);
+    }
+
+    /*
+     * Set the result of booking a room, in the results indexed like the sorted
+     * room IDs.
+     */
+    private void setResult(long[] sortedIds, BookingResult[] sortedResults,
+            long roomId, BookingResult result) {
+        sortedResults[Arrays.binarySearch(sortedIds, roomId)] = result;
+    }
+
+    /*
+     * Set the same result of booking each of the specified rooms.
+     */
+    private void setResults(long[] sortedIds, BookingResult[] sortedResults,
+            long[] roomIds, BookingResult result) {
+        for (long roomId : roomIds) {
+            setResult(sortedIds, sortedResults, roomId, result);
+        }
     }
 
 }
@@ -0,0 +1,111 @@
+package suncertify.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Thread utilities. Creates virtual threads when the Java runtime supports
+ * them, from Java 21, and platform threads otherwise; the virtual thread API
+ * is called reflectively, so the application still runs on older runtimes.
+ * 
+ * @author Oliver Hernandez
+ * 
+ */
+public class ThreadUtil {
+
+    private static final Method OF_VIRTUAL;
+
+    private static final Method BUILDER_NAME;
+
+    private static final Method BUILDER_UNSTARTED;
+
+    private static final Method NEW_VIRTUAL_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderUnstarted = null;
+        Method newVirtualExecutor = null;
+
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            builderName = builder.getMethod("name", String.class);
+            builderUnstarted = builder.getMethod("unstarted", Runnable.class);
+            newVirtualExecutor = Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (Exception e) {
+            ofVirtual = null; // virtual threads are not supported
+        }
+
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_UNSTARTED = builderUnstarted;
+        NEW_VIRTUAL_EXECUTOR = newVirtualExecutor;
+    }
+
+    /**
+     * Determine if the Java runtime supports virtual threads.
+     * 
+     * @return <code>true</code> if virtual threads can be created.
+     */
+    public static boolean isVirtualSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Create an unstarted thread executing the specified task. A virtual
+     * thread is always a daemon thread.
+     * 
+     * @param task
+     *            the task the thread executes.
+     * @param name
+     *            the name of the thread.
+     * @param virtual
+     *            <code>true</code> to create a virtual thread if supported,
+     *            <code>false</code> to create a platform thread.
+     * 
+     * @return the new thread.
+     */
+    public static Thread newThread(Runnable task, String name,
+            boolean virtual) {
+        if (virtual && isVirtualSupported()) {
+            try {
+                Object builder = OF_VIRTUAL.invoke(null);
+
+                builder = BUILDER_NAME.invoke(builder, name);
+                return (Thread) BUILDER_UNSTARTED.invoke(builder, task);
+            } catch (IllegalAccessException e) {
+                // fall back to a platform thread
+            } catch (InvocationTargetException e) {
+                // fall back to a platform thread
+            }
+        }
+
+        return new Thread(task, name);
+    }
+
+    /**
+     * Create an executor that starts a new virtual thread for each task.
+     * 
+     * @return the new executor, or <code>null</code> if virtual threads are
+     *         not supported.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (isVirtualSupported()) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+            } catch (IllegalAccessException e) {
+                // not supported after all
+            } catch (InvocationTargetException e) {
+                // not supported after all
+            }
+        }
+
+        return null;
+    }
+
+}